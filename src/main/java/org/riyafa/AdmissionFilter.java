@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.riyafa;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the responses of the requests that are seen only once out of the cache, so that they do not push out the
+ * responses that are requested over and over. The finder records each request hash it looks up, and the collector
+ * stores a response only once its request hash has been seen at least the minimum number of times lately.
+ * <p>
+ * The first sighting of a request hash is recorded in a doorkeeper Bloom filter, and only the later sightings are
+ * counted in a {@link FrequencySketch}, so that the request hashes seen once do not take up the counters of the sketch.
+ * Both age periodically: the doorkeeper is cleared once it holds as many request hashes as it tracks, and the counters
+ * of the sketch are halved, so that the frequencies reflect the recent requests. The filter is striped by the request
+ * hash, each stripe guarded by its own lock.
+ */
+final class AdmissionFilter {
+
+    /**
+     * The number of stripes
+     */
+    private static final int STRIPES = 16;
+
+    /**
+     * The minimum number of request hashes tracked by a stripe
+     */
+    private static final int MIN_STRIPE_SIZE = 64;
+
+    /**
+     * The number of bits of the doorkeeper per tracked request hash
+     */
+    private static final int BITS_PER_REQUEST = 8;
+
+    /**
+     * The number of bits of the doorkeeper set for a request hash
+     */
+    private static final int PROBES = 3;
+
+    /**
+     * The highest minimum frequency, as the sketch counts up to its maximum frequency after the doorkeeper
+     */
+    static final int MAX_MIN_FREQUENCY = FrequencySketch.MAX_FREQUENCY + 1;
+
+    /**
+     * The number of times a request hash must have been seen lately for its response to be cached
+     */
+    private final int minFrequency;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    private final AtomicLong admittedCount = new AtomicLong();
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /**
+     * @param minFrequency    the number of times a request hash must have been seen lately for its response to be
+     *                        cached, from 1 to {@link #MAX_MIN_FREQUENCY}
+     * @param trackedRequests the number of distinct request hashes expected to be tracked
+     */
+    AdmissionFilter(int minFrequency, long trackedRequests) {
+        this.minFrequency = minFrequency;
+        long stripeSize = Math.max(trackedRequests / STRIPES, MIN_STRIPE_SIZE);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(stripeSize);
+        }
+    }
+
+    private Stripe stripeOf(int hash) {
+        return stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+    }
+
+    /**
+     * Records a sighting of the request hash
+     *
+     * @param requestHash the hash of a request looked up in the cache
+     */
+    void record(CacheKey requestHash) {
+        int hash = requestHash.hashCode();
+        Stripe stripe = stripeOf(hash);
+        synchronized (stripe) {
+            stripe.record(hash);
+        }
+    }
+
+    /**
+     * Decides whether the response of the request hash is to be cached, counting the decision
+     *
+     * @param requestHash the hash of the request of a response to be cached
+     * @return whether the request hash has been seen at least the minimum number of times lately
+     */
+    boolean admit(CacheKey requestHash) {
+        int hash = requestHash.hashCode();
+        Stripe stripe = stripeOf(hash);
+        int frequency;
+        synchronized (stripe) {
+            frequency = stripe.frequency(hash);
+        }
+        if (frequency >= minFrequency) {
+            admittedCount.incrementAndGet();
+            return true;
+        }
+        rejectedCount.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * @return the number of responses admitted to the cache
+     */
+    long getAdmittedCount() {
+        return admittedCount.get();
+    }
+
+    /**
+     * @return the number of responses kept out of the cache
+     */
+    long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * A share of the request hashes with its own doorkeeper and sketch
+     */
+    private static final class Stripe {
+
+        private final long[] doorkeeper;
+
+        private final int bitMask;
+
+        private final FrequencySketch sketch;
+
+        /**
+         * The number of request hashes the doorkeeper holds before it is cleared
+         */
+        private final long capacity;
+
+        /**
+         * The number of request hashes put in to the doorkeeper since it was last cleared
+         */
+        private long size;
+
+        Stripe(long trackedRequests) {
+            long bits = Math.min(trackedRequests * BITS_PER_REQUEST, 1L << 30);
+            int length = Integer.highestOneBit((int) bits);
+            if (length < bits) {
+                length <<= 1;
+            }
+            doorkeeper = new long[Math.max(length >>> 6, 1)];
+            bitMask = doorkeeper.length * 64 - 1;
+            sketch = new FrequencySketch(trackedRequests);
+            capacity = trackedRequests;
+        }
+
+        void record(int hash) {
+            if (putDoorkeeper(hash)) {
+                sketch.increment(hash);
+            } else if (++size >= capacity) {
+                // a full doorkeeper would let in the request hashes seen once by its false positives
+                Arrays.fill(doorkeeper, 0L);
+                size = 0;
+            }
+        }
+
+        int frequency(int hash) {
+            // the sketch keeps the frequency of a request hash across the clearing of the doorkeeper
+            return sketch.frequency(hash) + (containsDoorkeeper(hash) ? 1 : 0);
+        }
+
+        /**
+         * @return whether the request hash was already in the doorkeeper
+         */
+        private boolean putDoorkeeper(int hash) {
+            int h1 = spread(hash);
+            int h2 = Integer.rotateLeft(h1 * 0x9e3779b9, 16) | 1;
+            boolean present = true;
+            for (int i = 0; i < PROBES; i++) {
+                int bit = (h1 + i * h2) & bitMask;
+                long mask = 1L << bit;
+                if ((doorkeeper[bit >>> 6] & mask) == 0) {
+                    doorkeeper[bit >>> 6] |= mask;
+                    present = false;
+                }
+            }
+            return present;
+        }
+
+        private boolean containsDoorkeeper(int hash) {
+            int h1 = spread(hash);
+            int h2 = Integer.rotateLeft(h1 * 0x9e3779b9, 16) | 1;
+            for (int i = 0; i < PROBES; i++) {
+                int bit = (h1 + i * h2) & bitMask;
+                if ((doorkeeper[bit >>> 6] & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int spread(int hash) {
+            int h = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+            return (h >>> 16) ^ h;
+        }
+    }
+}
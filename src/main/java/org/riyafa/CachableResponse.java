@@ -16,8 +16,14 @@
  */
 package org.riyafa;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * This object holds the cached response and the related properties of the cache per request and will be stored in to
@@ -33,13 +39,42 @@ public class CachableResponse implements Serializable {
      * in a serializable format, but because the SOAPEnvelope or OMElement is not serializable response envelope has
      * kept as its serilaized format as a byte[]
      */
-    private byte[] responsePayload = null;
+    private volatile byte[] responsePayload = null;
+
+    /**
+     * This holds the handle to the response payload when it has been moved out of the heap. Only one of this and the
+     * responsePayload is set at a time, apart from the short moment in which the payload is being moved.
+     */
+    private transient volatile OffHeapPayloadStore.Handle offHeapPayload = null;
+
+    /**
+     * Swaps the handle to the off-heap payload atomically, so that only one of the threads that drop the handle
+     * releases it
+     */
+    private static final AtomicReferenceFieldUpdater<CachableResponse, OffHeapPayloadStore.Handle> OFF_HEAP_PAYLOAD =
+            AtomicReferenceFieldUpdater.newUpdater(CachableResponse.class, OffHeapPayloadStore.Handle.class,
+                                                   "offHeapPayload");
+
+    /**
+     * The name of the codec that compressed the payload, or null if the payload is stored as it is
+     */
+    private volatile String payloadCodec;
+
+    /**
+     * The length of the payload in bytes, which is kept after the payload is released for the accounting of the cache
+     */
+    private int payloadLength = -1;
+
+    /**
+     * The length of the payload in bytes as it is stored, which is less than the payloadLength if it is compressed
+     */
+    private int storedPayloadLength = -1;
 
     /**
      * This holds the hash value of the request payload which is calculated form the specified DigestGenerator, and is
      * used to index the cached response
      */
-    private String requestHash;
+    private CacheKey requestHash;
 
     /**
      * This holds the time at which this particular cached response expires, in the standard java system time format
@@ -73,6 +108,52 @@ public class CachableResponse implements Serializable {
      */
     private boolean json;
 
+    /**
+     * The header blocks of an XML response in the order they appear in the payload, or null if the response has no
+     * SOAP header
+     */
+    private XmlFragment[] headerFragments;
+
+    /**
+     * The first child of the body of an XML response, which follows the header blocks in the payload, or null if the
+     * body is empty
+     */
+    private XmlFragment bodyFragment;
+
+    /**
+     * The body of the response as it is sent in the raw response mode, encoded with gzip for the clients that accept
+     * it, or null if the response has no gzip variant
+     */
+    private volatile byte[] gzipBody;
+
+    /**
+     * The ETag header of the response, used to revalidate the response once it expires
+     */
+    private String eTag;
+
+    /**
+     * The Last-Modified header of the response, used to revalidate the response once it expires
+     */
+    private String lastModified;
+
+    /**
+     * The estimated number of bytes this response occupies in the cache, which is computed when it is stored
+     */
+    private transient int weight;
+
+    /**
+     * The stored and the logical lengths of the payload as they were accounted for when this response was stored, as
+     * the payload may be set again before the response is stored once more
+     */
+    private transient int accountedStoredLength;
+
+    private transient int accountedLogicalLength;
+
+    /**
+     * The time until which a revalidation of this response is in progress, in the standard java system time format
+     */
+    private transient long revalidationDeadline;
+
     /**
      * This method checks whether this cached response is expired or not
      *
@@ -82,6 +163,76 @@ public class CachableResponse implements Serializable {
         return timeout <= 0 || expireTimeMillis < System.currentTimeMillis();
     }
 
+    /**
+     * This method checks whether this cached response has been expired for longer than the given period
+     *
+     * @param gracePeriod the period in milliseconds for which an expired response is still usable
+     * @return boolean true if expired for longer than the grace period and false if not
+     */
+    public boolean isExpired(long gracePeriod) {
+        return timeout <= 0 || expireTimeMillis + gracePeriod < System.currentTimeMillis();
+    }
+
+    /**
+     * @return whether this response has a validator with which the backend can be asked whether it has changed
+     */
+    public boolean hasValidators() {
+        return eTag != null || lastModified != null;
+    }
+
+    /**
+     * Creates a response that is the same as this response and shares its payload, without copying the payload. The
+     * copy holds a reference of its own to an off-heap payload, which is released when the copy leaves the cache, or
+     * by {@link #releasePayload()} if the copy is never cached.
+     *
+     * @return the copy of this response, or null if the payload of this response has already been released
+     */
+    CachableResponse copy() {
+        CachableResponse copy = new CachableResponse();
+        byte[] payload = responsePayload;
+        if (payload != null) {
+            copy.responsePayload = payload;
+        } else {
+            OffHeapPayloadStore.Handle handle = offHeapPayload;
+            if (handle == null || !handle.retain()) {
+                return null;
+            }
+            copy.offHeapPayload = handle;
+        }
+        copy.payloadCodec = payloadCodec;
+        copy.payloadLength = payloadLength;
+        copy.storedPayloadLength = storedPayloadLength;
+        copy.requestHash = requestHash;
+        copy.expireTimeMillis = expireTimeMillis;
+        copy.timeout = timeout;
+        copy.headerProperties = headerProperties;
+        copy.statusCode = statusCode;
+        copy.statusReason = statusReason;
+        copy.json = json;
+        copy.headerFragments = headerFragments;
+        copy.bodyFragment = bodyFragment;
+        copy.gzipBody = gzipBody;
+        copy.eTag = eTag;
+        copy.lastModified = lastModified;
+        return copy;
+    }
+
+    /**
+     * Marks this response as being revalidated, unless a revalidation started earlier is still in progress. A
+     * revalidation that has not replaced this response within the given time is considered to have failed.
+     *
+     * @param maxWait the time in milliseconds to wait for the revalidation to complete
+     * @return true if the caller should revalidate this response and false if it is being revalidated already
+     */
+    synchronized boolean startRevalidation(long maxWait) {
+        long now = System.currentTimeMillis();
+        if (now < revalidationDeadline) {
+            return false;
+        }
+        revalidationDeadline = now + maxWait;
+        return true;
+    }
+
     /**
      * This method will refresh the cached response stored in this object. If further explained this method will set the
      * response envelope and the response hash to null and set the new refresh time as timeout + current time
@@ -94,8 +245,7 @@ public class CachableResponse implements Serializable {
         if (!isExpired()) {
             throw new IllegalStateException("Unexpired Cached Responses cannot be reincarnated");
         }
-        responsePayload = null;
-        headerProperties = null;
+        clean();
         expireTimeMillis = System.currentTimeMillis() + timeout * 1000;
         setTimeout(timeout);
     }
@@ -106,17 +256,164 @@ public class CachableResponse implements Serializable {
      */
     public void clean() {
         responsePayload = null;
+        gzipBody = null;
         headerProperties = null;
+        releasePayload();
     }
 
 
     /**
-     * This method gives the cached response payload as a byte array
+     * This method gives the cached response payload as a byte array. If the payload is held off the heap it is copied
+     * in to a new array, and if it is compressed it is decompressed in to a new array.
      *
      * @return byte[] representing the cached response payload
      */
     public byte[] getResponsePayload() {
-        return responsePayload;
+        String codec = payloadCodec;
+        byte[] payload = getStoredPayload();
+        return payload != null && codec != null ? PayloadCodec.forName(codec).decompress(payload, payloadLength) :
+                payload;
+    }
+
+    /**
+     * @return the payload as it is stored, compressed or not, or null if there is no payload
+     */
+    private byte[] getStoredPayload() {
+        byte[] payload = responsePayload;
+        if (payload == null) {
+            OffHeapPayloadStore.Handle handle = offHeapPayload;
+            if (handle != null) {
+                payload = handle.toByteArray();
+            }
+        }
+        return payload;
+    }
+
+    /**
+     * Acquires a reference to the payload held off the heap, for it to be written out without copying it in to the
+     * heap. The reference must be released after the use.
+     *
+     * @return the handle of the payload, or null if the payload is not held off the heap or has been released
+     */
+    OffHeapPayloadStore.Handle retainOffHeapPayload() {
+        OffHeapPayloadStore.Handle handle = offHeapPayload;
+        return handle != null && handle.retain() ? handle : null;
+    }
+
+    /**
+     * @return whether the payload is stored compressed by a codec
+     */
+    boolean isCompressed() {
+        return payloadCodec != null;
+    }
+
+    /**
+     * @return whether this response holds a payload
+     */
+    public boolean hasResponsePayload() {
+        return responsePayload != null || offHeapPayload != null;
+    }
+
+    /**
+     * @return the length of the cached response payload in bytes, or -1 if there is no payload
+     */
+    public int getResponsePayloadLength() {
+        return hasResponsePayload() ? payloadLength : -1;
+    }
+
+    /**
+     * @return the length of the payload in bytes as it was stored, whether or not it has been released since, or -1
+     * if no payload was set
+     */
+    int getStoredPayloadLength() {
+        return storedPayloadLength;
+    }
+
+    /**
+     * @return the length of the payload in bytes before it was compressed, whether or not it has been released since,
+     * or -1 if no payload was set
+     */
+    int getLogicalPayloadLength() {
+        return payloadLength;
+    }
+
+    /**
+     * Compresses the payload held in the heap, if it is not compressed already. The payload is stored compressed only
+     * if the codec makes it smaller. This is done before the response is cached, as the readers of a cached response
+     * do not expect the payload to change.
+     *
+     * @param codec the codec to compress the payload with
+     * @return whether the payload was compressed
+     */
+    boolean compress(PayloadCodec codec) {
+        byte[] payload = responsePayload;
+        if (payload == null || payloadCodec != null) {
+            return false;
+        }
+        byte[] compressed = codec.compress(payload);
+        if (compressed == null) {
+            return false;
+        }
+        storedPayloadLength = compressed.length;
+        responsePayload = compressed;
+        payloadCodec = codec.getName();
+        return true;
+    }
+
+    /**
+     * Moves the response payload out of the heap in to the given store. The payload remains readable throughout the
+     * move.
+     *
+     * @param store the store to move the payload to
+     * @return false if there is not enough free memory in the store
+     */
+    boolean moveToOffHeap(OffHeapPayloadStore store) {
+        byte[] payload = responsePayload;
+        if (payload == null) {
+            return offHeapPayload != null;
+        }
+        OffHeapPayloadStore.Handle handle = store.store(payload, 0, payload.length);
+        if (handle == null) {
+            return false;
+        }
+        // the handle has to be visible before the array is dropped, as readers look for the array first
+        if (!OFF_HEAP_PAYLOAD.compareAndSet(this, null, handle)) {
+            // the payload has been moved by another thread in the meantime
+            handle.release();
+            return true;
+        }
+        responsePayload = null;
+        return true;
+    }
+
+    /**
+     * Copies the response payload held out of the heap back in to the heap and releases its off-heap memory. The
+     * payload remains readable throughout the move.
+     */
+    void moveToHeap() {
+        OffHeapPayloadStore.Handle handle = offHeapPayload;
+        if (handle == null) {
+            return;
+        }
+        byte[] payload = handle.toByteArray();
+        if (payload == null) {
+            return;
+        }
+        // the array has to be visible before the handle is dropped, as readers look for the array first
+        responsePayload = payload;
+        if (OFF_HEAP_PAYLOAD.compareAndSet(this, handle, null)) {
+            handle.release();
+        }
+    }
+
+    /**
+     * Releases the off-heap memory held by the payload, if any. This is called when the response leaves the cache.
+     */
+    void releasePayload() {
+        OffHeapPayloadStore.Handle handle = OFF_HEAP_PAYLOAD.getAndSet(this, null);
+        if (handle != null) {
+            handle.release();
+        }
     }
 
     /**
@@ -125,27 +422,40 @@ public class CachableResponse implements Serializable {
      * @param responsePayload - response payload to be stored in to the cache as a byte array
      */
     public void setResponsePayload(byte[] responsePayload) {
+        releasePayload();
+        this.payloadCodec = null;
+        this.payloadLength = responsePayload != null ? responsePayload.length : -1;
+        this.storedPayloadLength = payloadLength;
         this.responsePayload = responsePayload;
     }
 
     /**
      * This method gives the hash value of the request payload stored in the cache
      *
-     * @return String hash of the request payload
+     * @return CacheKey hash of the request payload
      */
-    public String getRequestHash() {
+    public CacheKey getRequestHash() {
         return requestHash;
     }
 
     /**
      * This method sets the hash of the request to the cache
      *
-     * @param requestHash - hash of the request payload to be set as an String
+     * @param requestHash - hash of the request payload to be set as a CacheKey
      */
-    public void setRequestHash(String requestHash) {
+    public void setRequestHash(CacheKey requestHash) {
         this.requestHash = requestHash;
     }
 
+    /**
+     * This method gives the time at which this cached response expires
+     *
+     * @return expire time in the standard java system time format
+     */
+    public long getExpireTimeMillis() {
+        return expireTimeMillis;
+    }
+
     /**
      * This method sets the refresh time to the cached response
      *
@@ -207,6 +517,44 @@ public class CachableResponse implements Serializable {
         this.json = json;
     }
 
+    /**
+     * @return the estimated number of bytes this response occupies in the cache
+     */
+    int getWeight() {
+        return weight;
+    }
+
+    /**
+     * Sets the estimated number of bytes this response occupies in the cache
+     *
+     * @param weight the estimated number of bytes
+     */
+    void setWeight(int weight) {
+        this.weight = weight;
+    }
+
+    /**
+     * @return the stored length of the payload in bytes as it was accounted for when this response was stored
+     */
+    int getAccountedStoredLength() {
+        return accountedStoredLength;
+    }
+
+    /**
+     * @return the logical length of the payload in bytes as it was accounted for when this response was stored
+     */
+    int getAccountedLogicalLength() {
+        return accountedLogicalLength;
+    }
+
+    /**
+     * Records the current lengths of the payload as the lengths accounted for in the cache
+     */
+    void accountPayloadLengths() {
+        accountedStoredLength = Math.max(storedPayloadLength, 0);
+        accountedLogicalLength = Math.max(payloadLength, 0);
+    }
+
     /**
      * @return HTTP status code number of the response
      */
@@ -238,4 +586,128 @@ public class CachableResponse implements Serializable {
     public void setStatusReason(String statusReason) {
         this.statusReason = statusReason;
     }
+
+    /**
+     * @return the header blocks of an XML response, or null if the response has no SOAP header
+     */
+    XmlFragment[] getHeaderFragments() {
+        return headerFragments;
+    }
+
+    /**
+     * Sets the header blocks of an XML response
+     *
+     * @param headerFragments the header blocks in the order they appear in the payload
+     */
+    void setHeaderFragments(XmlFragment[] headerFragments) {
+        this.headerFragments = headerFragments;
+    }
+
+    /**
+     * @return the first child of the body of an XML response, or null if the body is empty
+     */
+    XmlFragment getBodyFragment() {
+        return bodyFragment;
+    }
+
+    /**
+     * Sets the first child of the body of an XML response
+     *
+     * @param bodyFragment the first child of the body
+     */
+    void setBodyFragment(XmlFragment bodyFragment) {
+        this.bodyFragment = bodyFragment;
+    }
+
+    /**
+     * @return the body of the response encoded with gzip, or null if the response has no gzip variant
+     */
+    byte[] getGzipBody() {
+        return gzipBody;
+    }
+
+    /**
+     * Encodes the body of the response with gzip, so that it is sent to the clients that accept gzip without being
+     * encoded on every hit. The body is the whole payload of a JSON response and the first child of the body of an XML
+     * response. The variant is kept only if it is smaller than the body. This is done before the response is cached,
+     * and before the payload is compressed by a codec.
+     *
+     * @return whether the gzip variant was created
+     */
+    boolean createGzipBody() {
+        byte[] payload = getResponsePayload();
+        if (payload == null) {
+            return false;
+        }
+        int offset = 0;
+        int length = payload.length;
+        if (!json) {
+            offset = bodyFragment != null ? bodyFragment.getOffset() : 0;
+            length = bodyFragment != null ? bodyFragment.getLength() : 0;
+        }
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream(length / 4 + 32);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(encoded)) {
+            gzip.write(payload, offset, length);
+        } catch (IOException e) {
+            // writing to the memory does not fail
+            throw new CachingException("Error in encoding the cached response with gzip", e);
+        }
+        if (encoded.size() >= length) {
+            return false;
+        }
+        gzipBody = encoded.toByteArray();
+        return true;
+    }
+
+    /**
+     * @return the ETag header of the response
+     */
+    public String getETag() {
+        return eTag;
+    }
+
+    /**
+     * Sets the ETag header of the response
+     *
+     * @param eTag the ETag header of the response
+     */
+    public void setETag(String eTag) {
+        this.eTag = eTag;
+    }
+
+    /**
+     * @return the Last-Modified header of the response
+     */
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Sets the Last-Modified header of the response
+     *
+     * @param lastModified the Last-Modified header of the response
+     */
+    public void setLastModified(String lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        // an off-heap payload is not part of the default form, hence written separately
+        out.writeObject(responsePayload == null ? getStoredPayload() : null);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        byte[] payload = (byte[]) in.readObject();
+        if (payload != null) {
+            responsePayload = payload;
+        }
+        if (payloadCodec == null) {
+            // the lengths are not in the form written before the payloads were compressed
+            payload = responsePayload;
+            payloadLength = payload != null ? payload.length : -1;
+            storedPayloadLength = payloadLength;
+        }
+    }
 }
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.riyafa;
+
+import java.util.Map;
+
+/**
+ * The engine that holds the completed responses of a {@link ResponseCache}, mapped by the request hash. The engine
+ * decides which responses to keep when it runs out of room, while the response cache takes care of the expiry, the
+ * revalidation, the disk tier and the accounting of the bytes held by the responses. The engine of a cache is chosen
+ * by the type of the implementation element of the cache mediator:
+ * <ul>
+ * <li>{@link CachingConstants#GUAVA_CACHE_ENGINE}, a Guava cache with LRU eviction, which is the default</li>
+ * <li>{@link CachingConstants#TINY_LFU_CACHE_ENGINE}, a striped hash table with W-TinyLFU admission and eviction,
+ * which keeps the frequently requested responses when the requests scan through many rare ones</li>
+ * <li>{@link CachingConstants#OFF_HEAP_CACHE_ENGINE}, which holds the payloads in a bounded amount of direct
+ * memory</li>
+ * </ul>
+ * An engine must be thread safe. The weight of a response, which bounds an engine by bytes, is set before the response
+ * is put in to the engine and does not change while it is there.
+ */
+public interface CacheEngine {
+
+    /**
+     * Gives the response mapped to the request hash, counting the lookup as a hit or a miss
+     *
+     * @param requestHash the hash of the request
+     * @return the response or null if there is none
+     */
+    CachableResponse get(CacheKey requestHash);
+
+    /**
+     * Maps the response to the request hash. The response that it replaces is not reported to the removal listener,
+     * but is given back for the caller to release.
+     *
+     * @param requestHash the hash of the request
+     * @param response    the response
+     * @return the response that was mapped to the request hash before, or null if there was none
+     */
+    CachableResponse put(CacheKey requestHash, CachableResponse response);
+
+    /**
+     * Removes the response mapped to the request hash, if it is still the given response
+     *
+     * @param requestHash the hash of the request
+     * @param response    the response expected to be mapped to the request hash
+     * @return whether the response was removed
+     */
+    boolean remove(CacheKey requestHash, CachableResponse response);
+
+    /**
+     * Removes the response mapped to the request hash, if there is one
+     *
+     * @param requestHash the hash of the request
+     */
+    void invalidate(CacheKey requestHash);
+
+    /**
+     * Removes all the responses
+     */
+    void invalidateAll();
+
+    /**
+     * @return the number of responses held by the engine
+     */
+    long size();
+
+    /**
+     * @return the statistics of the lookups and the evictions of the engine
+     */
+    CacheEngineStats stats();
+
+    /**
+     * Gives the responses held by the engine, without counting them as hits. The responses put or removed while the
+     * entries are traversed may or may not be given.
+     *
+     * @return the responses mapped by the request hash
+     */
+    Iterable<Map.Entry<CacheKey, CachableResponse>> entries();
+
+    /**
+     * Listens to the responses removed from an engine other than by being replaced
+     */
+    interface RemovalListener {
+
+        /**
+         * Called once a response has been removed from the engine, outside of any lock held by the engine
+         *
+         * @param requestHash the hash of the request
+         * @param response    the removed response
+         * @param evicted     whether the response was evicted to make room for the other responses, rather than
+         *                    removed explicitly or expired
+         */
+        void onRemoval(CacheKey requestHash, CachableResponse response, boolean evicted);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.riyafa;
+
+import java.io.Serializable;
+
+/**
+ * The key under which a response is cached, holding the 128 bit digest of the request as two longs. The digests are
+ * expected to be uniformly distributed, hence the hash code is taken from the digest as it is.
+ */
+public final class CacheKey implements Serializable {
+
+    /**
+     * The estimated number of bytes a key occupies in the heap
+     */
+    static final int SIZE = 32;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final long high;
+
+    private final long low;
+
+    /**
+     * @param high the most significant 64 bits of the digest
+     * @param low  the least significant 64 bits of the digest
+     */
+    public CacheKey(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    /**
+     * Creates the key of the given digest. The first 16 bytes of the digest are used, and a shorter digest is padded
+     * with zeros.
+     *
+     * @param digest the digest of the request
+     * @return the key of the digest
+     */
+    public static CacheKey fromBytes(byte[] digest) {
+        long high = 0;
+        long low = 0;
+        for (int i = 0; i < 8; i++) {
+            high = (high << 8) | (i < digest.length ? digest[i] & 0xff : 0);
+            low = (low << 8) | (i + 8 < digest.length ? digest[i + 8] & 0xff : 0);
+        }
+        return new CacheKey(high, low);
+    }
+
+    /**
+     * @return the most significant 64 bits of the digest
+     */
+    public long getHigh() {
+        return high;
+    }
+
+    /**
+     * @return the least significant 64 bits of the digest
+     */
+    public long getLow() {
+        return low;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CacheKey)) {
+            return false;
+        }
+        CacheKey other = (CacheKey) o;
+        return high == other.high && low == other.low;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) low;
+    }
+
+    /**
+     * @return the digest as 32 hexadecimal digits
+     */
+    @Override
+    public String toString() {
+        char[] chars = new char[32];
+        for (int i = 0; i < 16; i++) {
+            chars[15 - i] = HEX_DIGITS[(int) (high >>> (4 * i)) & 0xf];
+            chars[31 - i] = HEX_DIGITS[(int) (low >>> (4 * i)) & 0xf];
+        }
+        return new String(chars);
+    }
+}
@@ -16,44 +16,46 @@
  */
 package org.riyafa;
 
-import com.google.common.cache.LoadingCache;
-
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * There would be two instances of the cache mediator in a single mediation flow. Hence it must be possible for the
  * cache created in one instance to be reused in the next. This CacheManager enables this feature with static methods.
+ * The caches are created and cleaned under the lock of this class, so that only one cache exists for an id at a time.
  */
 class CacheManager {
 
     /**
-     * Maps the id with the relevant LoadingCache
+     * Maps the id with the relevant ResponseCache
      */
-    private static Map<String, LoadingCache<String, CachableResponse>> cacheMap = new ConcurrentHashMap<>();
+    private static Map<String, ResponseCache> cacheMap = new ConcurrentHashMap<>();
 
     /**
      * @param id the id of the mediator
      * @return the relevant cache of the mediator
      */
-    static LoadingCache<String, CachableResponse> get(String id) {
+    static ResponseCache get(String id) {
         return cacheMap.get(id);
     }
 
     /**
-     * Insert id and the LoadingCache to the CaccheManager
+     * Insert id and the ResponseCache to the CaccheManager
      *
      * @param id    the id of the cache mediator
-     * @param cache the Loading cache related to the id
+     * @param cache the ResponseCache related to the id
      */
-    static void put(String id, LoadingCache<String, CachableResponse> cache) {
+    static void put(String id, ResponseCache cache) {
         cacheMap.put(id, cache);
     }
 
     /**
      * Clears the CacheManager
      */
-    static void clean() {
+    static synchronized void clean() {
+        for (ResponseCache cache : cacheMap.values()) {
+            cache.close();
+        }
         cacheMap.clear();
     }
 
@@ -16,28 +16,65 @@
  */
 package org.riyafa;
 
-public class CacheStore {
+import java.util.regex.Pattern;
+
+/**
+ * The caching policy that is common to both the collector and the finder of a cache. A CacheStore is built once from
+ * the configuration of the finder and is immutable thereafter, so that it can be shared by any number of threads. The
+ * state of an individual request, such as its HTTP method, is kept in the operation context of the request instead.
+ */
+public final class CacheStore {
     /**
      * The maximum size of the messages to be cached. This is specified in bytes.
      */
-    private int maxMessageSize = -1;
+    private final int maxMessageSize;
 
     /**
      * The regex expression of the HTTP response code to be cached
      */
-    private String responseCodes = CachingConstants.RESPONSE_CODE;
+    private final String responseCodes;
 
     /**
-     * The protocol type used in caching
+     * The compiled regex expression of the HTTP response code to be cached
      */
-    private String protocolType = CachingConstants.HTTP_PROTOCOL_TYPE;
+    private final Pattern responseCodePattern;
 
-    private String httpMethod = null;
+    /**
+     * The protocol type used in caching
+     */
+    private final String protocolType;
 
     /**
      * The http method type that needs to be cached
      */
-    private String[] hTTPMethodsToCache = {CachingConstants.HTTP_METHOD_GET};
+    private final String[] hTTPMethodsToCache;
+
+    /**
+     * Whether the time for which a response is cached is derived from its Cache-Control and Expires headers
+     */
+    private final boolean honorCacheControl;
+
+    /**
+     * The minimum time in seconds for which a response is cached when the time is derived from its headers
+     */
+    private final long minTimeout;
+
+    /**
+     * The maximum time in seconds for which a response is cached when the time is derived from its headers, or -1 if
+     * unbounded
+     */
+    private final long maxTimeout;
+
+    private CacheStore(Builder builder) {
+        this.maxMessageSize = builder.maxMessageSize;
+        this.responseCodes = builder.responseCodes;
+        this.responseCodePattern = Pattern.compile(builder.responseCodes);
+        this.protocolType = builder.protocolType;
+        this.hTTPMethodsToCache = builder.hTTPMethodsToCache.clone();
+        this.honorCacheControl = builder.honorCacheControl;
+        this.minTimeout = builder.minTimeout;
+        this.maxTimeout = builder.maxTimeout;
+    }
 
     /**
      * This method gives the HTTP method that needs to be cached
@@ -45,16 +82,20 @@ public class CacheStore {
      * @return the HTTP method to be cached
      */
     public String[] getHTTPMethodsToCache() {
-        return hTTPMethodsToCache;
+        return hTTPMethodsToCache.clone();
     }
 
     /**
-     * This sets the HTTP method that needs to be cached
-     *
-     * @param hTTPMethodToCache the HTTP method to be cached
+     * @param httpMethod the HTTP method of a request
+     * @return whether the responses to the requests of the method are cached
      */
-    public void setHTTPMethodsToCache(String... hTTPMethodToCache) {
-        this.hTTPMethodsToCache = hTTPMethodToCache;
+    public boolean isHTTPMethodToCache(String httpMethod) {
+        for (String method : hTTPMethodsToCache) {
+            if (method.equals(httpMethod)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -64,15 +105,6 @@ public class CacheStore {
         return protocolType;
     }
 
-    /**
-     * This method sets protocolType of the messages.
-     *
-     * @param protocolType protocol type of the messages.
-     */
-    public void setProtocolType(String protocolType) {
-        this.protocolType = protocolType;
-    }
-
     /**
      * @return The regex expression of the HTTP response code of the messages to be cached
      */
@@ -81,12 +113,10 @@ public class CacheStore {
     }
 
     /**
-     * This method sets the response codes that needs to be cached.
-     *
-     * @param responseCodes the response codes to be cached in regex form.
+     * @return The compiled regex expression of the HTTP response code of the messages to be cached
      */
-    public void setResponseCodes(String responseCodes) {
-        this.responseCodes = responseCodes;
+    public Pattern getResponseCodePattern() {
+        return responseCodePattern;
     }
 
     /**
@@ -99,19 +129,134 @@ public class CacheStore {
     }
 
     /**
-     * This method sets the maximum size of the messages to be cached in bytes.
+     * @return whether the time for which a response is cached is derived from its Cache-Control and Expires headers
+     */
+    public boolean isHonorCacheControl() {
+        return honorCacheControl;
+    }
+
+    /**
+     * This method gives the minimum time for which a response is cached when the time is derived from its headers.
      *
-     * @param maxMessageSize maximum size of the messages to be set in bytes.
+     * @return minimum timeout in seconds.
      */
-    public void setMaxMessageSize(int maxMessageSize) {
-        this.maxMessageSize = maxMessageSize;
+    public long getMinTimeout() {
+        return minTimeout;
     }
 
-    public String getHttpMethod() {
-        return httpMethod;
+    /**
+     * This method gives the maximum time for which a response is cached when the time is derived from its headers.
+     *
+     * @return maximum timeout in seconds, or -1 if unbounded.
+     */
+    public long getMaxTimeout() {
+        return maxTimeout;
     }
 
-    public void setHttpMethod(String httpMethod) {
-        this.httpMethod = httpMethod;
+    /**
+     * Builds a CacheStore from the configuration of the finder. A builder is not thread safe and is meant to be used
+     * by the factory of the mediator only.
+     */
+    public static final class Builder {
+
+        private int maxMessageSize = -1;
+
+        private String responseCodes = CachingConstants.RESPONSE_CODE;
+
+        private String protocolType = CachingConstants.HTTP_PROTOCOL_TYPE;
+
+        private String[] hTTPMethodsToCache = {CachingConstants.HTTP_METHOD_GET};
+
+        private boolean honorCacheControl = false;
+
+        private long minTimeout = 0;
+
+        private long maxTimeout = -1;
+
+        /**
+         * This sets the HTTP method that needs to be cached
+         *
+         * @param hTTPMethodToCache the HTTP method to be cached
+         * @return this builder
+         */
+        public Builder setHTTPMethodsToCache(String... hTTPMethodToCache) {
+            this.hTTPMethodsToCache = hTTPMethodToCache.clone();
+            return this;
+        }
+
+        /**
+         * This method sets protocolType of the messages.
+         *
+         * @param protocolType protocol type of the messages.
+         * @return this builder
+         */
+        public Builder setProtocolType(String protocolType) {
+            this.protocolType = protocolType;
+            return this;
+        }
+
+        /**
+         * This method sets the response codes that needs to be cached.
+         *
+         * @param responseCodes the response codes to be cached in regex form.
+         * @return this builder
+         */
+        public Builder setResponseCodes(String responseCodes) {
+            this.responseCodes = responseCodes;
+            return this;
+        }
+
+        /**
+         * This method sets the maximum size of the messages to be cached in bytes.
+         *
+         * @param maxMessageSize maximum size of the messages to be set in bytes.
+         * @return this builder
+         */
+        public Builder setMaxMessageSize(int maxMessageSize) {
+            this.maxMessageSize = maxMessageSize;
+            return this;
+        }
+
+        /**
+         * This method sets whether the time for which a response is cached is derived from its Cache-Control and
+         * Expires headers.
+         *
+         * @param honorCacheControl whether to honor the caching headers of the responses.
+         * @return this builder
+         */
+        public Builder setHonorCacheControl(boolean honorCacheControl) {
+            this.honorCacheControl = honorCacheControl;
+            return this;
+        }
+
+        /**
+         * This method sets the minimum time for which a response is cached when the time is derived from its headers.
+         *
+         * @param minTimeout minimum timeout in seconds to be set.
+         * @return this builder
+         */
+        public Builder setMinTimeout(long minTimeout) {
+            this.minTimeout = minTimeout;
+            return this;
+        }
+
+        /**
+         * This method sets the maximum time for which a response is cached when the time is derived from its headers.
+         *
+         * @param maxTimeout maximum timeout in seconds to be set, or -1 if unbounded.
+         * @return this builder
+         */
+        public Builder setMaxTimeout(long maxTimeout) {
+            this.maxTimeout = maxTimeout;
+            return this;
+        }
+
+        /**
+         * @return the CacheStore with the values set in this builder
+         * @throws java.util.regex.PatternSyntaxException if the response codes are not a valid regex expression
+         */
+        public CacheStore build() {
+            return new CacheStore(this);
+        }
     }
 }
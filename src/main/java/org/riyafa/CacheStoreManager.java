@@ -25,6 +25,11 @@ import java.util.concurrent.ConcurrentHashMap;
  * the Collector instance.
  */
 class CacheStoreManager {
+    /**
+     * The CacheStore of a cache whose finder has not been created
+     */
+    static final CacheStore DEFAULT_CACHE_STORE = new CacheStore.Builder().build();
+
     /**
      * Maps the id with the relevant CacheStore
      */
@@ -32,15 +37,20 @@ class CacheStoreManager {
 
     /**
      * @param id the id of the mediator
-     * @return the relevant CacheStore of the mediator
+     * @return the relevant CacheStore of the mediator, or null if the finder of the mediator has not been created
      */
     static CacheStore get(String id) {
-        CacheStore cacheStore = cacheMap.get(id);
-        if (cacheStore == null) {
-            cacheStore = new CacheStore();
-            cacheMap.put(id, cacheStore );
-        }
-        return cacheStore;
+        return cacheMap.get(id);
+    }
+
+    /**
+     * Publishes the CacheStore built from the configuration of a finder to the collector of the same id
+     *
+     * @param id         the id of the mediator
+     * @param cacheStore the CacheStore of the mediator
+     */
+    static void put(String id, CacheStore cacheStore) {
+        cacheMap.put(id, cacheStore);
     }
 
     /**
@@ -48,5 +58,5 @@ class CacheStoreManager {
      */
     static void clean() {
         cacheMap.clear();
-    }//MAKE  package private
+    }
 }
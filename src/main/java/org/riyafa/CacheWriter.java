@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.riyafa;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stores the responses in the cache on a bounded pool of background threads, so that the client does not wait for the
+ * response to be weighed, stored, spilled to the disk or replicated. The writes wait in a bounded queue, and a write
+ * that finds the queue full is dropped rather than holding back the response, as a dropped write only costs a later
+ * cache miss.
+ */
+final class CacheWriter {
+
+    private static final Log log = LogFactory.getLog(CacheWriter.class);
+
+    /**
+     * The time in seconds for which the queued writes are given to complete when the cache is closed
+     */
+    private static final long SHUTDOWN_TIMEOUT = 5;
+
+    private final ThreadPoolExecutor executor;
+
+    private final BlockingQueue<Runnable> queue;
+
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private final AtomicLong completedCount = new AtomicLong();
+
+    /**
+     * @param name      the name of the cache, by which the threads are named
+     * @param threads   the number of threads that store the responses
+     * @param queueSize the maximum number of writes waiting for a thread
+     */
+    CacheWriter(final String name, int threads, int queueSize) {
+        queue = new ArrayBlockingQueue<>(queueSize);
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, queue, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "cache-writer-" + name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Queues a write, unless the queue is full
+     *
+     * @param write the write, which must not throw
+     * @return whether the write was queued, or else it was dropped
+     */
+    boolean submit(final Runnable write) {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        write.run();
+                    } catch (RuntimeException e) {
+                        log.error("Error in storing a response in the cache", e);
+                    } finally {
+                        completedCount.incrementAndGet();
+                    }
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            droppedCount.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * @return the number of writes waiting for a thread
+     */
+    int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return the number of writes dropped as the queue was full
+     */
+    long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return the number of writes completed
+     */
+    long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    /**
+     * Stops taking writes, and waits for a while for the queued ones to complete
+     */
+    void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS)) {
+                log.warn("The queued responses were not stored in the cache before it was closed");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -65,11 +65,153 @@ public class CachingConstants {
      */
     public static final String REQUEST_HASH = "requestHash";
 
+    /**
+     * String key to store the digests remembered for a request in the message context
+     */
+    public static final String DIGEST_MEMO = "cacheDigestMemo";
+
+    /**
+     * String key to store the HTTP method of a request in the operation context, for the collector to read
+     */
+    public static final String REQUEST_HTTP_METHOD = "cacheRequestHttpMethod";
+
+    /**
+     * The property of the message context that holds the stream of the JSON payload of a message
+     */
+    public static final String JSON_INPUT_STREAM = "org.apache.synapse.commons.json.JsonInputStream";
+
     /**
      * String key to store the cached response in the message context
      */
     public static final String CACHED_OBJECT = "CachableResponse";
 
+    /**
+     * String key to store the pending request that goes to the backend for a request hash in the operation context
+     */
+    public static final String PENDING_REQUEST = "cachePendingRequest";
+
+    /**
+     * The maximum number of requests that are tracked as pending between the request and the response
+     */
+    public static final int MAX_PENDING_REQUESTS = 10000;
+
+    /**
+     * The property that marks a request sent to the backend to revalidate a stale response
+     */
+    public static final String REVALIDATION = "cacheRevalidation";
+
+    /**
+     * The property that marks a request the mediator has made conditional on the validators of an expired response
+     */
+    public static final String CONDITIONAL_REQUEST = "cacheConditionalRequest";
+
+    /**
+     * The property that holds the copy of the expired response a conditional request revalidates
+     */
+    public static final String REVALIDATED_RESPONSE = "cacheRevalidatedResponse";
+
+    /**
+     * The message type of a response served from the cache as it is, for which no formatter is registered, so that
+     * the formatter set on the message is used
+     */
+    public static final String RAW_MESSAGE_TYPE = "application/x-eicache-raw";
+
+    /**
+     * The interval in seconds at which the responses that have expired are purged from the cache
+     */
+    public static final long EXPIRED_PURGE_INTERVAL = 60;
+
+    /**
+     * The default maximum time in milliseconds that a request waits for an in-flight request with the same hash
+     */
+    public static final long DEFAULT_COALESCING_MAX_WAIT = 5000;
+
+    /**
+     * The default maximum number of requests that wait for the same in-flight request
+     */
+    public static final int DEFAULT_COALESCING_MAX_WAITERS = 50;
+
+    /**
+     * The default maximum number of requests that wait for any in-flight request, which is kept well below the size of
+     * the PassThrough worker pool, as the response of an in-flight request needs a worker thread of the same pool
+     */
+    public static final int DEFAULT_COALESCING_MAX_TOTAL_WAITERS = 100;
+
+    /**
+     * The default number of distinct request hashes tracked by the admission filter of a cache
+     */
+    public static final long DEFAULT_ADMISSION_TRACKED_REQUESTS = 10000;
+
+    /**
+     * The default number of threads that store the responses in the cache off the response path
+     */
+    public static final int DEFAULT_ASYNC_STORE_THREADS = 1;
+
+    /**
+     * The default maximum number of responses waiting to be stored in the cache off the response path
+     */
+    public static final int DEFAULT_ASYNC_STORE_QUEUE_SIZE = 1000;
+
+    /**
+     * The cache engine backed by a Guava cache with LRU eviction
+     */
+    public static final String GUAVA_CACHE_ENGINE = "guava";
+
+    /**
+     * The cache engine backed by a striped hash table with W-TinyLFU admission and eviction
+     */
+    public static final String TINY_LFU_CACHE_ENGINE = "tinyLfu";
+
+    /**
+     * The cache engine that holds the payloads in a bounded amount of direct memory
+     */
+    public static final String OFF_HEAP_CACHE_ENGINE = "offHeap";
+
+    /**
+     * The cache engine used when none is specified
+     */
+    public static final String DEFAULT_CACHE_ENGINE = GUAVA_CACHE_ENGINE;
+
+    /**
+     * The codec that compresses the payloads fast, in the LZ4 block format
+     */
+    public static final String LZ4_COMPRESSION_CODEC = "lz4";
+
+    /**
+     * The codec that compresses the payloads further, with the Deflate algorithm
+     */
+    public static final String DEFLATE_COMPRESSION_CODEC = "deflate";
+
+    /**
+     * The default minimum size in bytes of the payloads to be compressed
+     */
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+
+    /**
+     * The suffix of the segment files of the disk cache
+     */
+    public static final String DISK_SEGMENT_SUFFIX = ".segment";
+
+    /**
+     * The default size of a segment file of the disk cache in bytes
+     */
+    public static final int DEFAULT_DISK_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * The default maximum number of bytes of the segment files of the disk cache together
+     */
+    public static final long DEFAULT_DISK_CACHE_SIZE = 1024L * 1024 * 1024;
+
+    /**
+     * The interval in seconds at which the segments of the disk cache are compacted
+     */
+    public static final long DISK_COMPACTION_INTERVAL = 60;
+
+    /**
+     * The maximum number of evicted responses waiting to be written to the disk cache, beyond which they are dropped
+     */
+    public static final int MAX_PENDING_DISK_WRITES = 1000;
+
     /**
      * The the header that would be used to return the hashed value to invalidate this value
      */
@@ -0,0 +1,409 @@
+/*
+ * Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.riyafa;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PushbackReader;
+import java.io.Reader;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Reads a JSON payload as a stream and feeds a canonical form of it in to a hasher, without building a tree. The
+ * members of the objects are hashed in the order of their names, the numbers are hashed by their values, and neither
+ * the whitespace between the tokens nor the escaping of the strings is hashed. The members with the names to be ignored
+ * are left out wherever they appear.
+ */
+final class CanonicalJson implements Serializable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int OBJECT = 11;
+
+    private static final int ARRAY = 12;
+
+    private static final int STRING = 13;
+
+    private static final int NUMBER = 14;
+
+    private static final int TRUE = 15;
+
+    private static final int FALSE = 16;
+
+    private static final int NULL = 17;
+
+    private final HashFunction hashFunction;
+
+    private final Set<String> fieldsToIgnore;
+
+    /**
+     * @param hashFunction   the function with which the members of the objects are hashed on their own
+     * @param fieldsToIgnore the names of the members to be left out
+     */
+    CanonicalJson(HashFunction hashFunction, Set<String> fieldsToIgnore) {
+        this.hashFunction = hashFunction;
+        this.fieldsToIgnore = fieldsToIgnore != null ? fieldsToIgnore : Collections.<String>emptySet();
+    }
+
+    /**
+     * @param payload the JSON payload
+     * @return the reader of the payload to be passed to the other methods
+     */
+    static PushbackReader newReader(InputStream payload) {
+        return new PushbackReader(new InputStreamReader(payload, UTF_8));
+    }
+
+    /**
+     * Feeds the canonical form of the whole payload in to the hasher
+     *
+     * @param hasher the hasher to which the payload is fed
+     * @param reader the reader of the payload
+     * @throws IOException if the payload cannot be read
+     */
+    void put(Hasher hasher, PushbackReader reader) throws IOException {
+        putValue(hasher, reader);
+        if (skipWhitespace(reader) != -1) {
+            throw new CachingException("Unexpected content after the JSON payload of the request");
+        }
+    }
+
+    /**
+     * Reads the payload in a single pass and hashes the values at the given paths. A value that is not in the payload
+     * has no hash, and a path that lies within the value of another path has no hash either, as the value is hashed
+     * as a whole for the other path.
+     *
+     * @param reader the reader of the payload
+     * @param paths  the paths of the values to be selected, each a list of member names and array indices
+     * @return the hashes of the selected values in the order of the paths, null for the values not selected
+     * @throws IOException if the payload cannot be read
+     */
+    HashCode[] select(PushbackReader reader, Object[][] paths) throws IOException {
+        HashCode[] selected = new HashCode[paths.length];
+        boolean[] matching = new boolean[paths.length];
+        for (int i = 0; i < matching.length; i++) {
+            matching[i] = true;
+        }
+        select(reader, paths, matching, 0, selected);
+        if (skipWhitespace(reader) != -1) {
+            throw new CachingException("Unexpected content after the JSON payload of the request");
+        }
+        return selected;
+    }
+
+    private void select(PushbackReader reader, Object[][] paths, boolean[] matching, int depth, HashCode[] selected)
+            throws IOException {
+        boolean descend = false;
+        for (int i = 0; i < paths.length; i++) {
+            if (matching[i] && paths[i].length == depth) {
+                Hasher hasher = hashFunction.newHasher();
+                putValue(hasher, reader);
+                HashCode value = hasher.hash();
+                for (int j = i; j < paths.length; j++) {
+                    if (matching[j] && paths[j].length == depth) {
+                        selected[j] = value;
+                    }
+                }
+                return;
+            }
+            descend |= matching[i];
+        }
+        int c = skipWhitespace(reader);
+        if (c == -1) {
+            throw invalid(c);
+        }
+        if (!descend || (c != '{' && c != '[')) {
+            reader.unread(c);
+            putValue(null, reader);
+            return;
+        }
+        boolean[] next = new boolean[paths.length];
+        if (c == '{') {
+            c = skipWhitespace(reader);
+            if (c == '}') {
+                return;
+            }
+            while (true) {
+                expect(c, '"');
+                String name = readString(reader);
+                expect(skipWhitespace(reader), ':');
+                for (int i = 0; i < paths.length; i++) {
+                    next[i] = matching[i] && name.equals(paths[i][depth]);
+                }
+                select(reader, paths, next, depth + 1, selected);
+                c = skipWhitespace(reader);
+                if (c != ',') {
+                    break;
+                }
+                c = skipWhitespace(reader);
+            }
+            expect(c, '}');
+        } else {
+            c = skipWhitespace(reader);
+            if (c == ']') {
+                return;
+            }
+            reader.unread(c);
+            int index = 0;
+            do {
+                for (int i = 0; i < paths.length; i++) {
+                    next[i] = matching[i] && Integer.valueOf(index).equals(paths[i][depth]);
+                }
+                select(reader, paths, next, depth + 1, selected);
+                index++;
+                c = skipWhitespace(reader);
+            } while (c == ',');
+            expect(c, ']');
+        }
+    }
+
+    /**
+     * Reads a JSON value and feeds its canonical form in to the hasher
+     *
+     * @param hasher the hasher to which the value is fed, or null if the value is to be skipped
+     * @param reader the reader positioned before the value
+     * @throws IOException if the payload cannot be read
+     */
+    private void putValue(Hasher hasher, PushbackReader reader) throws IOException {
+        int c = skipWhitespace(reader);
+        switch (c) {
+            case '{':
+                putObject(hasher, reader);
+                break;
+            case '[':
+                putInt(hasher, ARRAY);
+                c = skipWhitespace(reader);
+                if (c != ']') {
+                    reader.unread(c);
+                    do {
+                        putValue(hasher, reader);
+                        c = skipWhitespace(reader);
+                    } while (c == ',');
+                    expect(c, ']');
+                }
+                putInt(hasher, -ARRAY);
+                break;
+            case '"':
+                String value = readString(reader);
+                if (hasher != null) {
+                    hasher.putInt(STRING);
+                    MurmurHashGenerator.putString(hasher, value);
+                }
+                break;
+            case 't':
+                readLiteral(reader, "rue");
+                putInt(hasher, TRUE);
+                break;
+            case 'f':
+                readLiteral(reader, "alse");
+                putInt(hasher, FALSE);
+                break;
+            case 'n':
+                readLiteral(reader, "ull");
+                putInt(hasher, NULL);
+                break;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    reader.unread(c);
+                    String number = readNumber(reader);
+                    if (hasher != null) {
+                        putNumber(hasher, number);
+                    }
+                } else {
+                    throw invalid(c);
+                }
+        }
+    }
+
+    /**
+     * Reads the members of an object and feeds them in to the hasher in the order of their names. Each value is hashed
+     * on its own first, so that only the names and the hashes of the values are held until the object ends.
+     *
+     * @param hasher the hasher to which the object is fed, or null if the object is to be skipped
+     * @param reader the reader positioned after the opening brace of the object
+     * @throws IOException if the payload cannot be read
+     */
+    private void putObject(Hasher hasher, PushbackReader reader) throws IOException {
+        Map<String, HashCode> members = hasher != null ? new TreeMap<String, HashCode>() : null;
+        int c = skipWhitespace(reader);
+        if (c != '}') {
+            while (true) {
+                expect(c, '"');
+                String name = readString(reader);
+                expect(skipWhitespace(reader), ':');
+                if (members != null && !fieldsToIgnore.contains(name)) {
+                    Hasher member = hashFunction.newHasher();
+                    putValue(member, reader);
+                    members.put(name, member.hash());
+                } else {
+                    putValue(null, reader);
+                }
+                c = skipWhitespace(reader);
+                if (c != ',') {
+                    break;
+                }
+                c = skipWhitespace(reader);
+            }
+            expect(c, '}');
+        }
+        if (members != null) {
+            hasher.putInt(OBJECT);
+            hasher.putInt(members.size());
+            for (Map.Entry<String, HashCode> entry : members.entrySet()) {
+                MurmurHashGenerator.putString(hasher, entry.getKey());
+                hasher.putBytes(entry.getValue().asBytes());
+            }
+        }
+    }
+
+    private static void putInt(Hasher hasher, int value) {
+        if (hasher != null) {
+            hasher.putInt(value);
+        }
+    }
+
+    /**
+     * Feeds the value of the number in to the hasher, so that the same value written differently gives the same hash
+     *
+     * @param hasher the hasher to which the number is fed
+     * @param number the number as written in the payload
+     */
+    private static void putNumber(Hasher hasher, String number) {
+        BigDecimal value;
+        try {
+            value = new BigDecimal(number);
+        } catch (NumberFormatException e) {
+            throw new CachingException("Invalid number in the JSON payload of the request : " + number, e);
+        }
+        hasher.putInt(NUMBER);
+        if (value.signum() == 0) {
+            hasher.putInt(0);
+            MurmurHashGenerator.putString(hasher, "0");
+        } else {
+            value = value.stripTrailingZeros();
+            hasher.putInt(value.scale());
+            MurmurHashGenerator.putString(hasher, value.unscaledValue().toString());
+        }
+    }
+
+    private static String readString(Reader reader) throws IOException {
+        StringBuilder value = new StringBuilder();
+        while (true) {
+            int c = reader.read();
+            if (c == '"') {
+                return value.toString();
+            } else if (c == '\\') {
+                c = reader.read();
+                switch (c) {
+                    case 'b':
+                        value.append('\b');
+                        break;
+                    case 'f':
+                        value.append('\f');
+                        break;
+                    case 'n':
+                        value.append('\n');
+                        break;
+                    case 'r':
+                        value.append('\r');
+                        break;
+                    case 't':
+                        value.append('\t');
+                        break;
+                    case 'u':
+                        char[] digits = new char[4];
+                        for (int i = 0; i < digits.length; i++) {
+                            digits[i] = (char) reader.read();
+                        }
+                        try {
+                            value.append((char) Integer.parseInt(new String(digits), 16));
+                        } catch (NumberFormatException e) {
+                            throw new CachingException("Invalid escape sequence in the JSON payload of the request");
+                        }
+                        break;
+                    case '"':
+                    case '\\':
+                    case '/':
+                        value.append((char) c);
+                        break;
+                    default:
+                        throw invalid(c);
+                }
+            } else if (c == -1) {
+                throw invalid(c);
+            } else {
+                value.append((char) c);
+            }
+        }
+    }
+
+    private static String readNumber(PushbackReader reader) throws IOException {
+        StringBuilder number = new StringBuilder();
+        int c = reader.read();
+        while (c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E' || (c >= '0' && c <= '9')) {
+            number.append((char) c);
+            c = reader.read();
+        }
+        if (c != -1) {
+            reader.unread(c);
+        }
+        return number.toString();
+    }
+
+    private static void readLiteral(Reader reader, String rest) throws IOException {
+        for (int i = 0; i < rest.length(); i++) {
+            int c = reader.read();
+            if (c != rest.charAt(i)) {
+                throw invalid(c);
+            }
+        }
+    }
+
+    /**
+     * @param reader the reader of the payload
+     * @return the next character that is not whitespace, or -1 at the end of the payload
+     * @throws IOException if the payload cannot be read
+     */
+    private static int skipWhitespace(Reader reader) throws IOException {
+        int c = reader.read();
+        while (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+            c = reader.read();
+        }
+        return c;
+    }
+
+    private static void expect(int c, char expected) {
+        if (c != expected) {
+            throw invalid(c);
+        }
+    }
+
+    private static CachingException invalid(int c) {
+        return new CachingException(c == -1 ? "Unexpected end of the JSON payload of the request" :
+                                            "Unexpected character in the JSON payload of the request : " + (char) c);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.riyafa;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses the payloads with the Deflate algorithm of the JDK, which is slower than {@link Lz4Codec} but compresses
+ * the payloads further
+ */
+final class DeflateCodec extends PayloadCodec {
+
+    @Override
+    String getName() {
+        return CachingConstants.DEFLATE_COMPRESSION_CODEC;
+    }
+
+    @Override
+    byte[] compress(byte[] payload) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(payload);
+            deflater.finish();
+            // a compressed payload that fills the whole buffer is not smaller than the payload
+            byte[] buffer = new byte[payload.length];
+            int length = 0;
+            while (!deflater.finished() && length < buffer.length) {
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            if (!deflater.finished() || length >= payload.length) {
+                return null;
+            }
+            byte[] compressed = new byte[length];
+            System.arraycopy(buffer, 0, compressed, 0, length);
+            return compressed;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    byte[] decompress(byte[] compressed, int length) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] payload = new byte[length];
+            int read = 0;
+            while (read < length) {
+                int inflated = inflater.inflate(payload, read, length - read);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                read += inflated;
+            }
+            if (read != length) {
+                throw new CachingException("The compressed payload of the cached response is truncated");
+            }
+            return payload;
+        } catch (DataFormatException e) {
+            throw new CachingException("The compressed payload of the cached response is corrupt", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
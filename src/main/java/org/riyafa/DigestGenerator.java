@@ -39,8 +39,8 @@ public interface DigestGenerator extends Serializable {//have a init method
      * on the given XML node
      * 
      * @param msgContext - MessageContext on which the unique identifier will be generated
-     * @return Object representing the unique identifier for the msgContext
+     * @return the key representing the unique identifier for the msgContext
      * @throws CachingException if there is an error in generating the digest key
      */
-    String getDigest(MessageContext msgContext) throws CachingException;//pass only a map
+    CacheKey getDigest(MessageContext msgContext) throws CachingException;//pass only a map
 }
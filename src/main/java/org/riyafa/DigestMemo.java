@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.riyafa;
+
+import org.apache.axiom.soap.SOAPEnvelope;
+import org.apache.axis2.Constants;
+import org.apache.axis2.context.MessageContext;
+import org.apache.synapse.transport.passthru.PassThroughConstants;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers the digests generated for a request, so that a cache mediator or a {@link DigestGenerator} that needs the
+ * digest of the same request with the same configuration again can reuse it. The digests are held in the message
+ * context, mapped by the configuration of the generator, together with a fingerprint of the parts of the request that
+ * a digest is generated from. A digest is discarded once the fingerprint no longer matches, which happens when the
+ * envelope, the first element of the body, the JSON payload, the pass through pipe or the address of the request is
+ * replaced, or when the transport headers are changed. A mediator that changes the payload in place may discard the
+ * digests with {@link #invalidate(MessageContext)}.
+ */
+public final class DigestMemo {
+
+    private DigestMemo() {
+    }
+
+    /**
+     * Gives the digest remembered for the request, if the request has not changed since the digest was generated
+     *
+     * @param msgContext    the request
+     * @param configuration the configuration of the generator, which must implement equals and hashCode
+     * @return the remembered digest, or null if there is none
+     */
+    public static CacheKey get(MessageContext msgContext, Object configuration) {
+        Map<Object, Entry> memo = (Map<Object, Entry>) msgContext.getProperty(CachingConstants.DIGEST_MEMO);
+        if (memo == null) {
+            return null;
+        }
+        Entry entry = memo.get(configuration);
+        if (entry == null) {
+            return null;
+        }
+        if (!entry.matches(msgContext)) {
+            memo.remove(configuration);
+            return null;
+        }
+        return entry.digest;
+    }
+
+    /**
+     * Remembers the digest generated for the request
+     *
+     * @param msgContext    the request
+     * @param configuration the configuration of the generator, which must implement equals and hashCode
+     * @param digest        the digest of the request
+     */
+    public static void put(MessageContext msgContext, Object configuration, CacheKey digest) {
+        Map<Object, Entry> memo = (Map<Object, Entry>) msgContext.getProperty(CachingConstants.DIGEST_MEMO);
+        if (memo == null) {
+            memo = new HashMap<>();
+            msgContext.setProperty(CachingConstants.DIGEST_MEMO, memo);
+        }
+        memo.put(configuration, new Entry(msgContext, digest));
+    }
+
+    /**
+     * Discards the digests remembered for the request
+     *
+     * @param msgContext the request
+     */
+    public static void invalidate(MessageContext msgContext) {
+        msgContext.removeProperty(CachingConstants.DIGEST_MEMO);
+    }
+
+    /**
+     * A digest together with the fingerprint of the request it was generated for. The parts of the request are
+     * compared by their identity, except for the transport headers, which are also compared by their hash code.
+     */
+    private static final class Entry {
+
+        private final CacheKey digest;
+
+        private final SOAPEnvelope envelope;
+
+        private final Object firstElement;
+
+        private final Object jsonPayload;
+
+        private final Object pipe;
+
+        private final Object bufferedPayload;
+
+        private final String address;
+
+        private final String method;
+
+        private final Object headers;
+
+        private final int headersHashCode;
+
+        Entry(MessageContext msgContext, CacheKey digest) {
+            this.digest = digest;
+            this.envelope = msgContext.getEnvelope();
+            this.firstElement = getFirstElement(envelope);
+            this.jsonPayload = msgContext.getProperty(CachingConstants.JSON_INPUT_STREAM);
+            this.pipe = msgContext.getProperty(PassThroughConstants.PASS_THROUGH_PIPE);
+            this.bufferedPayload = msgContext.getProperty(PassThroughConstants.BUFFERED_INPUT_STREAM);
+            this.address = msgContext.getTo() != null ? msgContext.getTo().getAddress() : null;
+            this.method = (String) msgContext.getProperty(Constants.Configuration.HTTP_METHOD);
+            this.headers = msgContext.getProperty(MessageContext.TRANSPORT_HEADERS);
+            this.headersHashCode = headers != null ? headers.hashCode() : 0;
+        }
+
+        boolean matches(MessageContext msgContext) {
+            SOAPEnvelope currentEnvelope = msgContext.getEnvelope();
+            Object currentHeaders = msgContext.getProperty(MessageContext.TRANSPORT_HEADERS);
+            String currentAddress = msgContext.getTo() != null ? msgContext.getTo().getAddress() : null;
+            return envelope == currentEnvelope && firstElement == getFirstElement(currentEnvelope) &&
+                    jsonPayload == msgContext.getProperty(CachingConstants.JSON_INPUT_STREAM) &&
+                    pipe == msgContext.getProperty(PassThroughConstants.PASS_THROUGH_PIPE) &&
+                    bufferedPayload == msgContext.getProperty(PassThroughConstants.BUFFERED_INPUT_STREAM) &&
+                    (address != null ? address.equals(currentAddress) : currentAddress == null) &&
+                    (method != null ? method.equals(msgContext.getProperty(Constants.Configuration.HTTP_METHOD)) :
+                            msgContext.getProperty(Constants.Configuration.HTTP_METHOD) == null) &&
+                    headers == currentHeaders &&
+                    headersHashCode == (currentHeaders != null ? currentHeaders.hashCode() : 0);
+        }
+
+        private static Object getFirstElement(SOAPEnvelope envelope) {
+            return envelope != null && envelope.getBody() != null ? envelope.getBody().getFirstElement() : null;
+        }
+    }
+}
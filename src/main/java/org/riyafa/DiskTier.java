@@ -0,0 +1,495 @@
+/*
+ * Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.riyafa;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The second tier of the cache, which holds the responses evicted from the memory on the disk. The responses are
+ * appended to memory-mapped segment files, and an index kept in memory maps the request hash to the location of the
+ * response. A segment is never written in place; a response that is removed or expires only leaves dead space in its
+ * segment. The segments are compacted in the background by moving their live responses to the segment being written
+ * and deleting the segments that have nothing live left.
+ * <p>
+ * The evicted responses are written to the disk by the background thread that compacts the segments, so that the
+ * eviction, which happens on the thread that puts a response in to the memory, does not wait for the disk. A response
+ * is not found on the disk until it has been written.
+ * <p>
+ * An expired response is kept on the disk for the stale window after it expires, as the memory keeps it, so that it
+ * can still be served stale or revalidated once it is promoted back to the memory.
+ */
+class DiskTier {
+
+    /**
+     * Log object to use when logging is required in this class.
+     */
+    private static final Log log = LogFactory.getLog(DiskTier.class);
+
+    /**
+     * The number of bytes preceding each record in a segment, which hold the length of the record
+     */
+    private static final int RECORD_HEADER_SIZE = 4;
+
+    /**
+     * The segments with less than this fraction of live bytes are compacted
+     */
+    private static final double COMPACTION_THRESHOLD = 0.5;
+
+    /**
+     * The directory that holds the segment files
+     */
+    private final File directory;
+
+    /**
+     * The size of a segment file in bytes
+     */
+    private final int segmentSize;
+
+    /**
+     * The maximum number of segment files. The oldest segment is dropped when a new one would exceed this.
+     */
+    private final int maxSegments;
+
+    /**
+     * The time in milliseconds for which an expired response is kept on the disk to be served stale or revalidated
+     */
+    private final long staleWindow;
+
+    /**
+     * Whether a response has been too large to fit in a segment, which is logged only once
+     */
+    private final AtomicBoolean oversizedLogged = new AtomicBoolean();
+
+    /**
+     * Maps the request hash with the location of the response on the disk
+     */
+    private final ConcurrentMap<CacheKey, Location> index = new ConcurrentHashMap<>();
+
+    /**
+     * The responses evicted from the memory that are waiting to be written to the disk
+     */
+    private final ConcurrentMap<CacheKey, CachableResponse> spills = new ConcurrentHashMap<>();
+
+    /**
+     * The segments from the oldest to the one being written
+     */
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+
+    /**
+     * The sequence number of the next segment file
+     */
+    private int nextSegmentId = 0;
+
+    /**
+     * Runs the compaction of the segments and the writes of the evicted responses
+     */
+    private final ScheduledExecutorService compactor;
+
+    /**
+     * @param directory          the directory that holds the segment files
+     * @param segmentSize        the size of a segment file in bytes
+     * @param maxSize            the maximum number of bytes of the segment files together
+     * @param staleWindow        the time in seconds for which an expired response is kept on the disk
+     * @param compactionInterval the interval in seconds at which the segments are compacted
+     * @throws IOException if the directory cannot be created
+     */
+    DiskTier(File directory, int segmentSize, long maxSize, long staleWindow, long compactionInterval)
+            throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create the directory for the disk cache : " + directory);
+        }
+        // the index of a previous run is lost, hence its segments can never be read again
+        File[] staleSegments = directory.listFiles();
+        if (staleSegments != null) {
+            for (File segment : staleSegments) {
+                if (segment.getName().endsWith(CachingConstants.DISK_SEGMENT_SUFFIX) && !segment.delete()) {
+                    log.warn("Unable to delete the stale disk cache segment : " + segment);
+                }
+            }
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = (int) Math.max(2, maxSize / segmentSize);
+        this.staleWindow = staleWindow * 1000;
+        final String threadName = "eICache-disk-compactor-" + directory.getName();
+        this.compactor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, threadName);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        compactor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    compact();
+                } catch (Throwable e) {
+                    log.warn("Error while compacting the disk cache segments in : " + DiskTier.this.directory, e);
+                }
+            }
+        }, compactionInterval, compactionInterval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Hands a response evicted from the memory over to be written to the disk in the background, unless too many are
+     * waiting already. The payload of the response must be held in the heap.
+     *
+     * @param requestHash the hash of the request
+     * @param response    the response to be written
+     */
+    void put(final CacheKey requestHash, final CachableResponse response) {
+        // the responses are dropped rather than queued when the disk cannot keep up with the evictions
+        if (response.isExpired(staleWindow) || spills.size() >= CachingConstants.MAX_PENDING_DISK_WRITES) {
+            return;
+        }
+        spills.put(requestHash, response);
+        try {
+            compactor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    write(requestHash, response);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the disk tier has been closed
+            spills.remove(requestHash, response);
+        }
+    }
+
+    /**
+     * Writes an evicted response to the disk and indexes it, unless it has been replaced or invalidated meanwhile
+     *
+     * @param requestHash the hash of the request
+     * @param response    the response to be written
+     */
+    private void write(CacheKey requestHash, CachableResponse response) {
+        if (spills.get(requestHash) != response) {
+            return;
+        }
+        Location location = null;
+        try (ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+             ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(response);
+            out.flush();
+            byte[] record = bytes.toByteArray();
+            if (record.length + RECORD_HEADER_SIZE <= segmentSize) {
+                location = append(record, response.getExpireTimeMillis() + staleWindow);
+            } else if (oversizedLogged.compareAndSet(false, true)) {
+                log.warn("The response with request hash : " + requestHash + " takes " + record.length +
+                                 " bytes, which does not fit in a disk cache segment of " + segmentSize +
+                                 " bytes, hence it and the other responses that do not fit are not written to the " +
+                                 "disk cache in : " + directory);
+            }
+        } catch (IOException e) {
+            log.warn("Unable to write the response with request hash : " + requestHash + " to the disk cache", e);
+        }
+        synchronized (spills) {
+            if (!spills.remove(requestHash, response)) {
+                if (location != null) {
+                    location.discard();
+                }
+                return;
+            }
+            if (location != null) {
+                Location previous = index.put(requestHash, location);
+                if (previous != null) {
+                    previous.discard();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the response of the given request hash from the disk and removes it from the disk, as it is promoted to
+     * the memory by the caller
+     *
+     * @param requestHash the hash of the request
+     * @return the response, or null if there is no response on the disk that has not expired beyond the stale window
+     */
+    CachableResponse remove(CacheKey requestHash) {
+        Location location = index.get(requestHash);
+        if (location == null || !index.remove(requestHash, location)) {
+            return null;
+        }
+        location.discard();
+        if (location.isExpired()) {
+            return null;
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(location.read()))) {
+            return (CachableResponse) in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            log.warn("Unable to read the response with request hash : " + requestHash + " from the disk cache", e);
+            return null;
+        }
+    }
+
+    /**
+     * Removes the response of the given request hash from the disk without reading it
+     *
+     * @param requestHash the hash of the request
+     */
+    void invalidate(CacheKey requestHash) {
+        Location location;
+        // a response being written must not be indexed after it has been invalidated
+        synchronized (spills) {
+            spills.remove(requestHash);
+            location = index.remove(requestHash);
+        }
+        if (location != null) {
+            location.discard();
+        }
+    }
+
+    /**
+     * @return the number of responses on the disk
+     */
+    int size() {
+        return index.size();
+    }
+
+    /**
+     * Stops the compaction, drops the responses waiting to be written and deletes the segment files
+     */
+    void close() {
+        compactor.shutdownNow();
+        spills.clear();
+        index.clear();
+        synchronized (this) {
+            for (Segment segment : segments) {
+                segment.delete();
+            }
+            segments.clear();
+        }
+    }
+
+    /**
+     * @param record           the serialized response
+     * @param expireTimeMillis the time after which the response is dropped, the stale window included
+     * @return the location of the response
+     * @throws IOException if a new segment cannot be created
+     */
+    private synchronized Location append(byte[] record, long expireTimeMillis) throws IOException {
+        Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (segment == null || segment.remaining() < record.length + RECORD_HEADER_SIZE) {
+            if (segments.size() >= maxSegments) {
+                drop(segments.get(0));
+            }
+            segment = new Segment(new File(directory, nextSegmentId++ + CachingConstants.DISK_SEGMENT_SUFFIX),
+                                  segmentSize);
+            segments.add(segment);
+        }
+        return segment.append(record, expireTimeMillis);
+    }
+
+    /**
+     * Removes the responses of the given segment from the index and deletes the segment
+     *
+     * @param segment the segment to be dropped
+     */
+    private synchronized void drop(Segment segment) {
+        for (Map.Entry<CacheKey, Location> entry : index.entrySet()) {
+            if (entry.getValue().segment == segment) {
+                index.remove(entry.getKey(), entry.getValue());
+            }
+        }
+        segments.remove(segment);
+        segment.delete();
+    }
+
+    /**
+     * Removes the expired responses from the index, moves the live responses of the sparse segments to the segment
+     * being written, and deletes the segments that have nothing live left
+     */
+    private void compact() {
+        for (Map.Entry<CacheKey, Location> entry : index.entrySet()) {
+            Location location = entry.getValue();
+            if (location.isExpired() && index.remove(entry.getKey(), location)) {
+                location.discard();
+            }
+        }
+        List<Segment> candidates = new ArrayList<>(segments);
+        if (!candidates.isEmpty()) {
+            // the segment being written is not compacted
+            candidates.remove(candidates.size() - 1);
+        }
+        for (Segment segment : candidates) {
+            if (segment.liveBytes() < segmentSize * COMPACTION_THRESHOLD) {
+                for (Map.Entry<CacheKey, Location> entry : index.entrySet()) {
+                    Location location = entry.getValue();
+                    if (location.segment != segment) {
+                        continue;
+                    }
+                    try {
+                        Location moved = append(location.read(), location.expireTimeMillis);
+                        if (index.replace(entry.getKey(), location, moved)) {
+                            location.discard();
+                        } else {
+                            moved.discard();
+                        }
+                    } catch (IOException e) {
+                        log.warn("Unable to move the response with request hash : " + entry.getKey() +
+                                         " while compacting the disk cache", e);
+                    }
+                }
+            }
+            synchronized (this) {
+                if (segment.liveBytes() == 0 && segments.remove(segment)) {
+                    segment.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * A memory-mapped segment file to which the responses are appended
+     */
+    private static class Segment {
+
+        private final File file;
+
+        private final RandomAccessFile randomAccessFile;
+
+        private final MappedByteBuffer buffer;
+
+        /**
+         * The position at which the next record is written, guarded by the DiskTier
+         */
+        private int writePosition = 0;
+
+        /**
+         * The number of bytes of this segment that are still referred to by the index
+         */
+        private final AtomicInteger liveBytes = new AtomicInteger();
+
+        Segment(File file, int size) throws IOException {
+            this.file = file;
+            this.randomAccessFile = new RandomAccessFile(file, "rw");
+            try {
+                this.buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            } catch (IOException e) {
+                randomAccessFile.close();
+                throw e;
+            }
+        }
+
+        int remaining() {
+            return buffer.capacity() - writePosition;
+        }
+
+        int liveBytes() {
+            return liveBytes.get();
+        }
+
+        Location append(byte[] record, long expireTimeMillis) {
+            ByteBuffer view = buffer.duplicate();
+            view.position(writePosition);
+            view.putInt(record.length);
+            view.put(record);
+            Location location = new Location(this, writePosition + RECORD_HEADER_SIZE, record.length,
+                                             expireTimeMillis);
+            writePosition += record.length + RECORD_HEADER_SIZE;
+            liveBytes.addAndGet(record.length + RECORD_HEADER_SIZE);
+            return location;
+        }
+
+        byte[] read(int offset, int length) {
+            ByteBuffer view = buffer.duplicate();
+            view.position(offset);
+            byte[] record = new byte[length];
+            view.get(record);
+            return record;
+        }
+
+        void delete() {
+            // the mapping itself is released when the buffer is garbage collected, which keeps concurrent reads safe
+            try {
+                randomAccessFile.close();
+            } catch (IOException e) {
+                log.debug("Error while closing the disk cache segment : " + file, e);
+            }
+            if (!file.delete()) {
+                log.warn("Unable to delete the disk cache segment : " + file);
+            }
+        }
+    }
+
+    /**
+     * The location of a response on the disk
+     */
+    private static class Location {
+
+        private final Segment segment;
+
+        private final int offset;
+
+        private final int length;
+
+        /**
+         * The time after which the response is dropped, the stale window included
+         */
+        private final long expireTimeMillis;
+
+        Location(Segment segment, int offset, int length, long expireTimeMillis) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.expireTimeMillis = expireTimeMillis;
+        }
+
+        boolean isExpired() {
+            return expireTimeMillis < System.currentTimeMillis();
+        }
+
+        byte[] read() {
+            return segment.read(offset, length);
+        }
+
+        /**
+         * Marks the bytes of this location as dead in its segment
+         */
+        void discard() {
+            segment.liveBytes.addAndGet(-(length + RECORD_HEADER_SIZE));
+        }
+    }
+}
@@ -16,25 +16,22 @@
  */
 package org.riyafa;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 import org.apache.axiom.om.OMElement;
-import org.apache.axiom.om.util.AXIOMUtil;
+import org.apache.axiom.om.OMException;
+import org.apache.axiom.om.OMNamespace;
 import org.apache.axiom.soap.SOAPEnvelope;
 import org.apache.axiom.soap.SOAPFactory;
 import org.apache.axiom.soap.SOAPHeader;
-import org.apache.axiom.soap.SOAPHeaderBlock;
 import org.apache.axis2.AxisFault;
 import org.apache.axis2.Constants;
 import org.apache.axis2.clustering.ClusteringFault;
 import org.apache.axis2.clustering.state.Replicator;
 import org.apache.axis2.context.ConfigurationContext;
 import org.apache.axis2.context.OperationContext;
+import org.apache.http.protocol.HTTP;
 import org.apache.synapse.ManagedLifecycle;
 import org.apache.synapse.Mediator;
 import org.apache.synapse.MessageContext;
-import org.apache.synapse.SynapseException;
 import org.apache.synapse.SynapseLog;
 import org.apache.synapse.commons.json.JsonUtil;
 import org.apache.synapse.config.SynapseConfiguration;
@@ -47,19 +44,20 @@ import org.apache.synapse.mediators.AbstractMediator;
 import org.apache.synapse.mediators.base.SequenceMediator;
 import org.apache.synapse.transport.nhttp.NhttpConstants;
 import org.apache.synapse.transport.passthru.PassThroughConstants;
-import org.apache.synapse.util.FixedByteArrayOutputStream;
+import org.apache.synapse.transport.passthru.util.RelayUtils;
 import org.apache.synapse.util.MessageHelper;
 
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import javax.xml.stream.XMLStreamException;
 
 public class EICacheMediator extends AbstractMediator implements ManagedLifecycle, EnclosedInlinedSequence {
@@ -79,6 +77,17 @@ public class EICacheMediator extends AbstractMediator implements ManagedLifecycl
      */
     private long timeout = CachingConstants.DEFAULT_TIMEOUT;
 
+    /**
+     * The time duration for which an expired response is still served while it is being revalidated.
+     */
+    private long staleWhileRevalidate = 0;
+
+    /**
+     * The time duration for which an expired response with validators is kept to be revalidated with a conditional
+     * request.
+     */
+    private long revalidationWindow = 0;
+
     /**
      * This specifies whether the mediator should be in the incoming path (to check the request) or in the outgoing path
      * (to cache the response).
@@ -102,17 +111,49 @@ public class EICacheMediator extends AbstractMediator implements ManagedLifecycl
      */
     private boolean continueExecution = false;
 
+    /**
+     * Specifies whether the REST requests that hit the cache are answered with the cached bytes as they are, when there
+     * is no onCacheHit sequence that needs the message
+     */
+    private boolean rawResponse = false;
+
+    /**
+     * Specifies whether a gzip variant of each cached body is kept, to be sent as it is in the raw response mode to the
+     * clients that accept gzip
+     */
+    private boolean gzipVariants = false;
+
 
     /**
      * The headers to exclude when caching
      */
     private String[] headersToExcludeInHash = {""};
 
+    /**
+     * The names of the JSON fields to exclude when hashing
+     */
+    private String[] jsonFieldsToIgnore = {};
+
+    /**
+     * The normalizer of the addresses of the requests before they are hashed, or null if they are hashed as they are
+     */
+    private UrlNormalizer urlNormalizer;
+
+    /**
+     * The configuration of the digest generator, by which the digests of the requests are remembered
+     */
+    private volatile Object digestConfiguration;
+
     /**
      * This is used to define the logic used by the mediator to evaluate the hash values of incoming messages.
      */
     private DigestGenerator digestGenerator = CachingConstants.DEFAULT_HASH_GENERATOR;
 
+    /**
+     * The type of the engine that holds the cached responses, one of the cache engines of {@link CachingConstants}
+     */
+    private String cacheEngine = CachingConstants.DEFAULT_CACHE_ENGINE;
+
     /**
      * The size of the messages to be cached in memory. If this is 0 then no disk cache, and if there is no size
      * specified in the config  factory will assign a default value to enable disk based caching.
@@ -120,22 +161,97 @@ public class EICacheMediator extends AbstractMediator implements ManagedLifecycl
     private int inMemoryCacheSize = -1;
 
     /**
-     * Variable to represent 'NO_ENTITY_BODY' property of synapse
+     * The maximum number of bytes the cached responses may occupy in memory. If this is -1 the cache is not bounded by
+     * the size of the responses.
      */
-    private static final String NO_ENTITY_BODY = "NO_ENTITY_BODY";
+    private long inMemoryCacheBytes = -1;
+
+    /**
+     * The number of bytes of direct memory used to hold the cached payloads out of the heap. If this is -1 the payloads
+     * are kept in the heap.
+     */
+    private long offHeapCapacity = -1;
+
+    /**
+     * The directory that holds the responses evicted from the memory. If this is null the evicted responses are
+     * dropped.
+     */
+    private String diskCacheDirectory = null;
 
     /**
-     * String variable representing SOAP Header element
+     * The size of a segment file of the disk cache in bytes
      */
-    private static final String HEADER = "Header";
+    private int diskSegmentSize = CachingConstants.DEFAULT_DISK_SEGMENT_SIZE;
 
+    /**
+     * The maximum number of bytes of the segment files of the disk cache together
+     */
+    private long diskCacheSize = CachingConstants.DEFAULT_DISK_CACHE_SIZE;
+
+    /**
+     * Specifies whether concurrent requests with the same hash should wait for a single backend call on a cache miss
+     */
+    private boolean coalescing = false;
+
+    /**
+     * The maximum time in milliseconds a request waits for an in-flight request with the same hash
+     */
+    private long coalescingMaxWait = CachingConstants.DEFAULT_COALESCING_MAX_WAIT;
+
+    /**
+     * The maximum number of requests that wait for the same in-flight request
+     */
+    private int coalescingMaxWaiters = CachingConstants.DEFAULT_COALESCING_MAX_WAITERS;
+
+    /**
+     * The maximum number of requests that wait for any in-flight request
+     */
+    private int coalescingMaxTotalWaiters = CachingConstants.DEFAULT_COALESCING_MAX_TOTAL_WAITERS;
+
+    /**
+     * The number of times a request hash must have been seen lately for its response to be cached. If this is 0 every
+     * cacheable response is cached.
+     */
+    private int admissionMinFrequency = 0;
+
+    /**
+     * The number of distinct request hashes tracked by the admission filter. If this is -1 the number is derived from
+     * the size of the cache.
+     */
+    private long admissionTrackedRequests = -1;
+
+    /**
+     * The number of threads that store the responses in the cache off the response path. If this is 0 the responses
+     * are stored on the response path.
+     */
+    private int asyncStoreThreads = 0;
+
+    /**
+     * The maximum number of responses waiting to be stored off the response path, beyond which they are dropped
+     */
+    private int asyncStoreQueueSize = CachingConstants.DEFAULT_ASYNC_STORE_QUEUE_SIZE;
+
+    /**
+     * The codec that compresses the payloads of the cached responses, or null if the payloads are stored as they are
+     */
+    private String compressionCodec = null;
+
+    /**
+     * The minimum size in bytes of the payloads to be compressed
+     */
+    private int compressionThreshold = CachingConstants.DEFAULT_COMPRESSION_THRESHOLD;
 
     /**
-     * A store that stores values that are common to both the collector and finder
+     * Variable to represent 'NO_ENTITY_BODY' property of synapse
      */
-    private CacheStore cacheStore;
+    private static final String NO_ENTITY_BODY = "NO_ENTITY_BODY";
 
-    private Pattern responseCodePattern;
+
+    /**
+     * A store that stores values that are common to both the collector and finder, which the collector resolves by its
+     * id when it handles its first response
+     */
+    private volatile CacheStore cacheStore;
 
     /**
      * {@inheritDoc}
@@ -184,26 +300,82 @@ public class EICacheMediator extends AbstractMediator implements ManagedLifecycl
         boolean result = true;
         try {
             if (synCtx.isResponse()) {
-                processResponseMessage(synCtx, cfgCtx, synLog);
+                OperationContext opCtx = ((Axis2MessageContext) synCtx).getAxis2MessageContext()
+                        .getOperationContext();
+                try {
+                    processResponseMessage(synCtx, cfgCtx, synLog);
+                } finally {
+                    releasePendingRequest(opCtx);
+                }
+                // the client of a revalidation has already been served with the stale response
+                result = opCtx.getProperty(CachingConstants.REVALIDATION) == null;
             } else {
                 result = processRequestMessage(synCtx, synLog);
+                if (result && !isContentAware()) {
+                    // the payload has been read from the pipe to hash it, hence it cannot be passed through as it is
+                    buildMessage(synCtx);
+                }
             }
         } catch (ClusteringFault clusteringFault) {
             synLog.traceOrDebug("Unable to replicate Cache mediator state among the cluster");
-        } catch (ExecutionException e) {
-            synLog.traceOrDebug("Unable to get the response");
-
         }
         return result;
     }
 
     /**
-     * Caches the CachableResponse object with currently available attributes against the requestHash in
-     * LoadingCache<String, CachableResponse>. Called in the load method of CachingBuilder
+     * Gives the configuration of the digest generator by which the digests generated by the other cache mediators for
+     * the same request can be reused. The configuration of the generators of this package is described by the
+     * settings of the mediator, while any other generator is known only by itself.
+     *
+     * @return the configuration of the digest generator
+     */
+    private Object getDigestConfiguration() {
+        Object configuration = digestConfiguration;
+        if (configuration == null) {
+            Class generatorClass = digestGenerator.getClass();
+            if (generatorClass == HttpRequestHashGenerator.class || generatorClass == MurmurHashGenerator.class ||
+                    generatorClass == RawPayloadHashGenerator.class || generatorClass == JsonHashGenerator.class) {
+                configuration = Arrays.asList(generatorClass, Arrays.asList(headersToExcludeInHash),
+                                              Arrays.asList(jsonFieldsToIgnore), urlNormalizer);
+            } else {
+                configuration = digestGenerator;
+            }
+            digestConfiguration = configuration;
+        }
+        return configuration;
+    }
+
+    /**
+     * The finder need not build the message if its digest is generated from the raw payload, in which case the message
+     * is built only when the request is not served from the cache.
+     *
+     * @return whether the message must be built before the mediator is invoked
+     */
+    @Override
+    public boolean isContentAware() {
+        return collector || !(digestGenerator instanceof RawPayloadHashGenerator);
+    }
+
+    /**
+     * Builds the message from the payload buffered while generating its digest
+     *
+     * @param synCtx the request to be built
+     */
+    private void buildMessage(MessageContext synCtx) {
+        try {
+            RelayUtils.buildMessage(((Axis2MessageContext) synCtx).getAxis2MessageContext());
+        } catch (IOException | XMLStreamException e) {
+            handleException("Error in building the request message", e, synCtx);
+        }
+    }
+
+    /**
+     * Creates the CachableResponse object with currently available attributes against the requestHash, to be filled by
+     * the collector when the response arrives
      *
      * @param requestHash the request hash that has already been computed
      */
-    private CachableResponse cacheNewResponse(String requestHash) {
+    private CachableResponse cacheNewResponse(CacheKey requestHash) {
         CachableResponse response = new CachableResponse();
         response.setRequestHash(requestHash);
         response.setTimeout(timeout);
@@ -221,17 +393,26 @@ public class EICacheMediator extends AbstractMediator implements ManagedLifecycl
      * @throws ClusteringFault if there is an error in replicating the cfgCtx
      */
     private boolean processRequestMessage(MessageContext synCtx, SynapseLog synLog)
-            throws ExecutionException, ClusteringFault {
+            throws ClusteringFault {
         if (collector) {
             handleException("Request messages cannot be handled in a collector cache", synCtx);
         }
         OperationContext opCtx = ((Axis2MessageContext) synCtx).getAxis2MessageContext().getOperationContext();
         org.apache.axis2.context.MessageContext msgCtx =
                 ((Axis2MessageContext) synCtx).getAxis2MessageContext();
-        String requestHash = null;
-        cacheStore.setHttpMethod((String) msgCtx.getProperty(Constants.Configuration.HTTP_METHOD));
+        CacheKey requestHash = null;
+        // the collector decides whether to cache the response by the method of the request it answers
+        opCtx.setProperty(CachingConstants.REQUEST_HTTP_METHOD,
+                          msgCtx.getProperty(Constants.Configuration.HTTP_METHOD));
         try {
-            requestHash = digestGenerator.getDigest(((Axis2MessageContext) synCtx).getAxis2MessageContext());
+            Object digestConfiguration = getDigestConfiguration();
+            requestHash = DigestMemo.get(msgCtx, digestConfiguration);
+            if (requestHash == null) {
+                requestHash = digestGenerator.getDigest(msgCtx);
+                if (requestHash != null) {
+                    DigestMemo.put(msgCtx, digestConfiguration, requestHash);
+                }
+            }
             synCtx.setProperty(CachingConstants.REQUEST_HASH, requestHash);
         } catch (CachingException e) {
             handleException("Error in calculating the hash value of the request", e, synCtx);
@@ -240,122 +421,458 @@ public class EICacheMediator extends AbstractMediator implements ManagedLifecycl
             synLog.traceOrDebug("Generated request hash : " + requestHash);
         }
         opCtx.setProperty(CachingConstants.REQUEST_HASH, requestHash);
+        getMediatorCache().recordRequest(requestHash);
         CachableResponse cachedResponse = getMediatorCache().get(requestHash);
+        CachableResponse expiredResponse = null;
+        if (cachedResponse != null && cachedResponse.isExpired(staleWhileRevalidate * 1000)) {
+            // beyond the stale while revalidate window the response can only be revalidated conditionally
+            expiredResponse = cachedResponse;
+            cachedResponse = null;
+        }
+        if (cachedResponse == null) {
+            cachedResponse = getPendingResponse(requestHash, opCtx, synLog);
+            if (expiredResponse != null && !cachedResponse.hasResponsePayload()) {
+                addConditionalHeaders(msgCtx, expiredResponse, synLog);
+            }
+        }
         opCtx.setProperty(CachingConstants.CACHED_OBJECT, cachedResponse);
         Replicator.replicate(opCtx);
-        Map<String, Object> headerProperties;
 
-        if (cachedResponse.getResponsePayload() != null) {
-            // get the response from the cache and attach to the context and change the
-            // direction of the message
-            if (synLog.isTraceOrDebugEnabled()) {
-                synLog.traceOrDebug("Cache-hit for message ID : " + synCtx.getMessageID());
-            }
-            // mark as a response and replace envelope from cache
-            synCtx.setResponse(true);
-            try {
-                byte[] payload = cachedResponse.getResponsePayload();
-                if (cachedResponse.isJson()) {
-                    OMElement response = JsonUtil.getNewJsonPayload(msgCtx, payload, 0,
-                                                                    payload.length, false, false);
-                    if (msgCtx.getEnvelope().getBody().getFirstElement() != null) {
-                        msgCtx.getEnvelope().getBody().getFirstElement().detach();
+        if (cachedResponse.hasResponsePayload()) {
+            if (cachedResponse.isExpired()) {
+                if (!cachedResponse.startRevalidation(coalescingMaxWait)) {
+                    if (synLog.isTraceOrDebugEnabled()) {
+                        synLog.traceOrDebug("Serving the stale response for request hash : " + requestHash +
+                                                    " while it is being revalidated");
                     }
-                    msgCtx.getEnvelope().getBody().addChild(response);
-
                 } else {
-                    String replacementValue = new String(payload);
-
-                    OMElement response = AXIOMUtil.stringToOM(replacementValue);
-
-                    if (response != null) {
-                        // Set the headers of the message
-                        if (response.getFirstElement().getLocalName().contains(HEADER)) {
-                            Iterator childElements = msgCtx.getEnvelope().getHeader().getChildElements();
-                            while (childElements.hasNext()) {
-                                ((OMElement) childElements.next()).detach();
-                            }
-                            SOAPEnvelope env = synCtx.getEnvelope();
-                            SOAPHeader header = env.getHeader();
-                            SOAPFactory fac = (SOAPFactory) env.getOMFactory();
-
-                            Iterator headers = response.getFirstElement().getChildElements();
-                            while (headers.hasNext()) {
-                                OMElement soapHeader = (OMElement) headers.next();
-                                SOAPHeaderBlock hb = header.addHeaderBlock(soapHeader.getLocalName(),
-                                                                           fac.createOMNamespace(
-                                                                                   soapHeader.getNamespace()
-                                                                                           .getNamespaceURI(),
-                                                                                   soapHeader.getNamespace()
-                                                                                           .getPrefix()));
-                                hb.setText(soapHeader.getText());
-                            }
-                            response.getFirstElement().detach();
-                        }
-                        // Set the body of the message
-                        if (msgCtx.getEnvelope().getBody().getFirstElement() != null) {
-                            msgCtx.getEnvelope().getBody().getFirstElement().detach();
-                        }
-                        msgCtx.getEnvelope().getBody().addChild(response.getFirstElement().getFirstElement());
-
+                    // a copy of the request is served from the stale response while the request itself goes to the
+                    // backend, and the collector stores its response in place of the stale one
+                    if (synLog.isTraceOrDebugEnabled()) {
+                        synLog.traceOrDebug("Revalidating the stale response for request hash : " + requestHash);
                     }
-
+                    MessageContext staleCtx = null;
+                    try {
+                        staleCtx = MessageHelper.cloneMessageContext(synCtx);
+                    } catch (AxisFault e) {
+                        handleException("Error in copying the request to serve the stale response", e, synCtx);
+                    }
+                    serveCachedResponse(staleCtx, cachedResponse, synLog);
+                    PendingRequest revalidation = new PendingRequest(cacheNewResponse(requestHash), coalescingMaxWait);
+                    if (getMediatorCache().join(requestHash, revalidation) == revalidation) {
+                        opCtx.setProperty(CachingConstants.PENDING_REQUEST, revalidation);
+                        addConditionalHeaders(msgCtx, cachedResponse, synLog);
+                    }
+                    opCtx.setProperty(CachingConstants.CACHED_OBJECT, revalidation.getResponse());
+                    opCtx.setProperty(CachingConstants.REVALIDATION, Boolean.TRUE);
+                    Replicator.replicate(opCtx);
+                    return true;
                 }
-            } catch (XMLStreamException | AxisFault e) {
-                handleException("Error creating response OM from cache : " + id, synCtx);
+            }
+            serveCachedResponse(synCtx, cachedResponse, synLog);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Replaces the envelope of the given request with the cached response, marks it as a response and sends it back to
+     * the client, or executes the onCacheHit sequence on it if there is one.
+     *
+     * @param synCtx         the request to be served
+     * @param cachedResponse the cached response to serve the request with
+     * @param synLog         the Synapse log to use
+     */
+    private void serveCachedResponse(MessageContext synCtx, CachableResponse cachedResponse, SynapseLog synLog) {
+        // get the response from the cache and attach to the context and change the
+        // direction of the message
+        if (synLog.isTraceOrDebugEnabled()) {
+            synLog.traceOrDebug("Cache-hit for message ID : " + synCtx.getMessageID());
+        }
+        if (rawResponse && onCacheHitSequence == null && onCacheHitRef == null &&
+                ((Axis2MessageContext) synCtx).getAxis2MessageContext().isDoingREST() &&
+                cachedResponse.getHeaderProperties() != null) {
+            sendRawResponse(synCtx, cachedResponse, synLog);
+            return;
+        }
+        attachCachedResponse(synCtx, cachedResponse);
+
+        // take specified action on cache hit
+        if (onCacheHitSequence != null) {
+            // if there is an onCacheHit use that for the mediation
+            synLog.traceOrDebug("Delegating message to the onCachingHit "
+                                        + "Anonymous sequence");
+            ContinuationStackManager.addReliantContinuationState(synCtx, 0, getMediatorPosition());
+            if (onCacheHitSequence.mediate(synCtx)) {
+                ContinuationStackManager.removeReliantContinuationState(synCtx);
             }
 
-            if (CachingConstants.HTTP_PROTOCOL_TYPE.equals(cacheStore.getProtocolType())) {
-                msgCtx.setProperty(NhttpConstants.HTTP_SC, Integer.parseInt(cachedResponse.getStatusCode()));
-                msgCtx.setProperty(PassThroughConstants.HTTP_SC_DESC, cachedResponse.getStatusReason());
+        } else if (onCacheHitRef != null) {
+            if (synLog.isTraceOrDebugEnabled()) {
+                synLog.traceOrDebug("Delegating message to the onCachingHit " +
+                                            "sequence : " + onCacheHitRef);
             }
-            if (msgCtx.isDoingREST()) {
+            ContinuationStackManager.updateSeqContinuationState(synCtx, getMediatorPosition());
+            synCtx.getSequence(onCacheHitRef).mediate(synCtx);
 
-                if ((headerProperties = cachedResponse.getHeaderProperties()) != null) {
+        } else {
 
-                    msgCtx.removeProperty(NO_ENTITY_BODY);
-                    msgCtx.removeProperty(Constants.Configuration.CONTENT_TYPE);
-                    msgCtx.setProperty(org.apache.axis2.context.MessageContext.TRANSPORT_HEADERS,
-                                       headerProperties);
-                    msgCtx.setProperty(Constants.Configuration.MESSAGE_TYPE,
-                                       headerProperties.get(Constants.Configuration.MESSAGE_TYPE));
-                }
+            if (synLog.isTraceOrDebugEnabled()) {
+                synLog.traceOrDebug("Request message " + synCtx.getMessageID() +
+                                            " was served from the cache");
             }
+            // send the response back if there is not onCacheHit is specified
+            synCtx.setTo(null);
+            //Todo if needed
+            Axis2Sender.sendBack(synCtx);
 
+        }
+    }
 
-            // take specified action on cache hit
-            if (onCacheHitSequence != null) {
-                // if there is an onCacheHit use that for the mediation
-                synLog.traceOrDebug("Delegating message to the onCachingHit "
-                                            + "Anonymous sequence");
-                ContinuationStackManager.addReliantContinuationState(synCtx, 0, getMediatorPosition());
-                if (onCacheHitSequence.mediate(synCtx)) {
-                    ContinuationStackManager.removeReliantContinuationState(synCtx);
-                }
+    /**
+     * Sends the cached bytes of the response back to the client as they are. The message is marked as built, so that
+     * the transport writes the message through the formatter in to its output pipe, and the formatter writes the
+     * cached bytes in place of the envelope, which is left untouched. A client that accepts gzip is sent the gzip
+     * variant of the body, if the response has one.
+     *
+     * @param synCtx         the request to be served
+     * @param cachedResponse the cached response to serve the request with
+     * @param synLog         the Synapse log to use
+     */
+    private void sendRawResponse(MessageContext synCtx, CachableResponse cachedResponse, SynapseLog synLog) {
+        org.apache.axis2.context.MessageContext msgCtx = ((Axis2MessageContext) synCtx).getAxis2MessageContext();
+        // the gzip variant is sent as it is to the clients that accept it, instead of encoding the body on every hit
+        byte[] gzipBody = gzipVariants ? cachedResponse.getGzipBody() : null;
+        boolean gzip = gzipBody != null && HttpCacheHeaders.acceptsGzip(
+                (Map<String, ?>) msgCtx.getProperty(org.apache.axis2.context.MessageContext.TRANSPORT_HEADERS));
+        Map<String, Object> headerProperties = cachedResponse.getHeaderProperties();
+        String contentType = HttpCacheHeaders.getHeader(headerProperties, HTTP.CONTENT_TYPE);
+        if (contentType == null) {
+            contentType = (String) headerProperties.get(Constants.Configuration.MESSAGE_TYPE);
+        }
 
-            } else if (onCacheHitRef != null) {
-                if (synLog.isTraceOrDebugEnabled()) {
-                    synLog.traceOrDebug("Delegating message to the onCachingHit " +
-                                                "sequence : " + onCacheHitRef);
+        synCtx.setResponse(true);
+        if (CachingConstants.HTTP_PROTOCOL_TYPE.equals(getCacheStore().getProtocolType())) {
+            msgCtx.setProperty(NhttpConstants.HTTP_SC, Integer.parseInt(cachedResponse.getStatusCode()));
+            msgCtx.setProperty(PassThroughConstants.HTTP_SC_DESC, cachedResponse.getStatusReason());
+        }
+        msgCtx.removeProperty(NO_ENTITY_BODY);
+        msgCtx.removeProperty(Constants.Configuration.CONTENT_TYPE);
+        Map<String, Object> headers = new HashMap<>(headerProperties);
+        if (gzipVariants) {
+            HttpCacheHeaders.varyByAcceptEncoding(headers);
+        }
+        if (gzip) {
+            HttpCacheHeaders.removeHeader(headers, HttpCacheHeaders.CONTENT_ENCODING);
+            HttpCacheHeaders.removeHeader(headers, HttpCacheHeaders.CONTENT_LENGTH);
+            // the transport encodes the message with gzip once more if it finds the header spelt as Content-Encoding,
+            // while the header names are case insensitive to the client
+            headers.put(HttpCacheHeaders.CONTENT_ENCODING.toLowerCase(Locale.ENGLISH), HttpCacheHeaders.GZIP);
+        }
+        msgCtx.setProperty(org.apache.axis2.context.MessageContext.TRANSPORT_HEADERS, headers);
+        // the formatter is looked up by the message type first, hence a type without a formatter of its own is set
+        msgCtx.setProperty(Constants.Configuration.MESSAGE_TYPE, CachingConstants.RAW_MESSAGE_TYPE);
+
+        // a payload on the heap is used as it is, and one off the heap is written straight from the off-heap memory,
+        // while a compressed one has to be decompressed
+        OffHeapPayloadStore.Handle handle = gzip || cachedResponse.isCompressed() ? null :
+                cachedResponse.retainOffHeapPayload();
+        byte[] payload = gzip ? gzipBody : handle == null ? cachedResponse.getResponsePayload() : null;
+        if (handle == null && payload == null) {
+            handleException("Error creating response OM from cache : " + id + ", the cached payload has been evicted",
+                            synCtx);
+        }
+        int offset = 0;
+        int length = handle != null ? handle.getLength() : payload.length;
+        if (!gzip && !cachedResponse.isJson()) {
+            // the payload of a REST response is the first child of the body
+            XmlFragment bodyFragment = cachedResponse.getBodyFragment();
+            offset = bodyFragment != null ? bodyFragment.getOffset() : 0;
+            length = bodyFragment != null ? bodyFragment.getLength() : 0;
+        }
+        RawResponseFormatter formatter = handle != null ?
+                new RawResponseFormatter(handle, offset, length, contentType) :
+                new RawResponseFormatter(payload, offset, length, contentType);
+        msgCtx.setProperty(Constants.Configuration.MESSAGE_FORMATTER, formatter);
+        msgCtx.setProperty(PassThroughConstants.MESSAGE_BUILDER_INVOKED, Boolean.TRUE);
+
+        if (synLog.isTraceOrDebugEnabled()) {
+            synLog.traceOrDebug("Request message " + synCtx.getMessageID() +
+                                        " was served from the cache as it is");
+        }
+        synCtx.setTo(null);
+        try {
+            Axis2Sender.sendBack(synCtx);
+        } catch (RuntimeException e) {
+            // the formatter holds on to the off-heap payload until it writes it, which it does not after a failure
+            formatter.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Replaces the envelope, the status and the headers of the given message with the cached response, and marks it as
+     * a response
+     *
+     * @param synCtx         the message to be replaced
+     * @param cachedResponse the cached response to replace the message with
+     */
+    private void attachCachedResponse(MessageContext synCtx, CachableResponse cachedResponse) {
+        org.apache.axis2.context.MessageContext msgCtx = ((Axis2MessageContext) synCtx).getAxis2MessageContext();
+        Map<String, Object> headerProperties;
+        // mark as a response and replace envelope from cache
+        synCtx.setResponse(true);
+        try {
+            if (cachedResponse.isJson()) {
+                // the JSON payload is read lazily, hence it must not be backed by memory that can be freed
+                byte[] payload = cachedResponse.getResponsePayload();
+                if (payload == null) {
+                    throw new IOException("The cached payload has been evicted");
                 }
-                ContinuationStackManager.updateSeqContinuationState(synCtx, getMediatorPosition());
-                synCtx.getSequence(onCacheHitRef).mediate(synCtx);
+                OMElement response = JsonUtil.getNewJsonPayload(msgCtx, payload, 0,
+                                                                payload.length, false, false);
+                if (msgCtx.getEnvelope().getBody().getFirstElement() != null) {
+                    msgCtx.getEnvelope().getBody().getFirstElement().detach();
+                }
+                msgCtx.getEnvelope().getBody().addChild(response);
 
             } else {
+                // the elements are backed by the payload, hence it must not be backed by memory that can be freed
+                byte[] payload = cachedResponse.getResponsePayload();
+                if (payload == null) {
+                    throw new IOException("The cached payload has been evicted");
+                }
+                SOAPEnvelope env = synCtx.getEnvelope();
+                SOAPFactory fac = (SOAPFactory) env.getOMFactory();
+                // Set the headers of the message
+                XmlFragment[] headerFragments = cachedResponse.getHeaderFragments();
+                if (headerFragments != null) {
+                    SOAPHeader header = env.getHeader();
+                    if (header == null) {
+                        header = fac.createSOAPHeader(env);
+                    }
+                    Iterator childElements = header.getChildElements();
+                    while (childElements.hasNext()) {
+                        childElements.next();
+                        childElements.remove();
+                    }
+                    for (XmlFragment fragment : headerFragments) {
+                        header.addChild(fac.createSOAPHeaderBlock(
+                                fragment.getLocalName(),
+                                fac.createOMNamespace(fragment.getNamespaceURI(), fragment.getPrefix()),
+                                fragment.getDataSource(payload)));
+                    }
+                }
+                // Set the body of the message
+                if (env.getBody().getFirstElement() != null) {
+                    env.getBody().getFirstElement().detach();
+                }
+                XmlFragment bodyFragment = cachedResponse.getBodyFragment();
+                if (bodyFragment != null) {
+                    OMNamespace namespace = bodyFragment.getNamespaceURI() != null ?
+                            fac.createOMNamespace(bodyFragment.getNamespaceURI(), bodyFragment.getPrefix()) : null;
+                    env.getBody().addChild(fac.createOMElement(bodyFragment.getDataSource(payload),
+                                                               bodyFragment.getLocalName(), namespace));
+                }
+            }
+        } catch (IOException e) {
+            handleException("Error creating response OM from cache : " + id, synCtx);
+        }
+        // the envelope is complete, hence the transport must not read the message from the request pipe
+        msgCtx.setProperty(PassThroughConstants.MESSAGE_BUILDER_INVOKED, Boolean.TRUE);
 
-                if (synLog.isTraceOrDebugEnabled()) {
-                    synLog.traceOrDebug("Request message " + synCtx.getMessageID() +
-                                                " was served from the cache");
+        if (CachingConstants.HTTP_PROTOCOL_TYPE.equals(getCacheStore().getProtocolType())) {
+            msgCtx.setProperty(NhttpConstants.HTTP_SC, Integer.parseInt(cachedResponse.getStatusCode()));
+            msgCtx.setProperty(PassThroughConstants.HTTP_SC_DESC, cachedResponse.getStatusReason());
+        }
+        if (msgCtx.isDoingREST()) {
+
+            if ((headerProperties = cachedResponse.getHeaderProperties()) != null) {
+
+                msgCtx.removeProperty(NO_ENTITY_BODY);
+                msgCtx.removeProperty(Constants.Configuration.CONTENT_TYPE);
+                msgCtx.setProperty(org.apache.axis2.context.MessageContext.TRANSPORT_HEADERS,
+                                   headerProperties);
+                msgCtx.setProperty(Constants.Configuration.MESSAGE_TYPE,
+                                   headerProperties.get(Constants.Configuration.MESSAGE_TYPE));
+            }
+        }
+    }
+
+    /**
+     * Registers this request as the pending request for the request hash on a cache miss, so that the collector can
+     * fill the response when it arrives. If another request with the same hash is already pending and requests are
+     * coalesced, waits until its response is collected or the maximum wait elapses, and looks up the cache again. A
+     * request that still misses after the wait falls through to the backend, and so does a request that finds too many
+     * requests waiting already, as the waiting requests hold the worker threads the pending responses need.
+     *
+     * @param requestHash the hash of the request
+     * @param opCtx       the operation context of the request
+     * @param synLog      the Synapse log to use
+     * @return the response to be used for the request
+     */
+    private CachableResponse getPendingResponse(CacheKey requestHash, OperationContext opCtx, SynapseLog synLog) {
+        ResponseCache cache = getMediatorCache();
+        PendingRequest candidate = new PendingRequest(cacheNewResponse(requestHash), coalescingMaxWait);
+        PendingRequest pendingRequest = cache.join(requestHash, candidate);
+        if (pendingRequest == candidate) {
+            if (coalescing) {
+                // the previous pending request may have stored the response after the lookup of this request
+                CachableResponse cachedResponse = getServableResponse(cache, requestHash);
+                if (cachedResponse != null) {
+                    cache.release(requestHash, candidate);
+                    return cachedResponse;
                 }
-                // send the response back if there is not onCacheHit is specified
-                synCtx.setTo(null);
-                //Todo if needed
-                Axis2Sender.sendBack(synCtx);
+            }
+            opCtx.setProperty(CachingConstants.PENDING_REQUEST, candidate);
+            return candidate.getResponse();
+        }
+        if (coalescing && !pendingRequest.startWaiting(coalescingMaxWaiters, coalescingMaxTotalWaiters)) {
+            if (synLog.isTraceOrDebugEnabled()) {
+                synLog.traceOrDebug("Too many requests are waiting, not waiting for the pending request with request " +
+                                            "hash : " + requestHash);
+            }
+        } else if (coalescing) {
+            if (synLog.isTraceOrDebugEnabled()) {
+                synLog.traceOrDebug("Waiting for the pending request with request hash : " + requestHash);
+            }
+            if (!pendingRequest.await() && synLog.isTraceOrDebugEnabled()) {
+                synLog.traceOrDebug("Timed out waiting for the pending request with request hash : " + requestHash);
+            }
+            CachableResponse cachedResponse = getServableResponse(cache, requestHash);
+            if (cachedResponse != null) {
+                return cachedResponse;
+            }
+        }
+        return cacheNewResponse(requestHash);
+    }
+
+    /**
+     * @param cache       the cache to look up
+     * @param requestHash the hash of the request
+     * @return the response cached for the request hash, or null if there is none or if it has expired beyond the stale
+     * while revalidate window
+     */
+    private CachableResponse getServableResponse(ResponseCache cache, CacheKey requestHash) {
+        CachableResponse cachedResponse = cache.get(requestHash);
+        if (cachedResponse != null && cachedResponse.isExpired(staleWhileRevalidate * 1000)) {
+            return null;
+        }
+        return cachedResponse;
+    }
+
+    /**
+     * Makes the request to the backend conditional on the validators of the expired response, so that the backend
+     * answers with 304 Not Modified if the response has not changed. This is done only for the request registered as
+     * the pending request, and only if the client has not made the request conditional itself, in which case the client
+     * expects the 304 as it is. A copy of the expired response is kept with the request for the collector, as the
+     * pending request may expire or be evicted while the request is in flight.
+     *
+     * @param msgCtx          the request
+     * @param expiredResponse the expired response to be revalidated
+     * @param synLog          the Synapse log to use
+     */
+    @SuppressWarnings("unchecked")
+    private void addConditionalHeaders(org.apache.axis2.context.MessageContext msgCtx,
+                                       CachableResponse expiredResponse, SynapseLog synLog) {
+        PendingRequest pendingRequest =
+                (PendingRequest) msgCtx.getOperationContext().getProperty(CachingConstants.PENDING_REQUEST);
+        Map<String, Object> headers =
+                (Map<String, Object>) msgCtx.getProperty(org.apache.axis2.context.MessageContext.TRANSPORT_HEADERS);
+        if (pendingRequest == null || headers == null || !expiredResponse.hasValidators() ||
+                HttpCacheHeaders.isConditional(headers)) {
+            return;
+        }
+        CachableResponse revalidatedResponse = expiredResponse.copy();
+        if (revalidatedResponse == null) {
+            return;
+        }
+        // the copy is dropped with the request if no response reaches the collector, hence it holds no off-heap memory
+        revalidatedResponse.moveToHeap();
+        OperationContext opCtx = msgCtx.getOperationContext();
+        opCtx.setProperty(CachingConstants.REVALIDATED_RESPONSE, revalidatedResponse);
+        opCtx.setProperty(CachingConstants.CONDITIONAL_REQUEST, Boolean.TRUE);
+        if (expiredResponse.getETag() != null) {
+            headers.put(HttpCacheHeaders.IF_NONE_MATCH, expiredResponse.getETag());
+        }
+        if (expiredResponse.getLastModified() != null) {
+            headers.put(HttpCacheHeaders.IF_MODIFIED_SINCE, expiredResponse.getLastModified());
+        }
+        if (synLog.isTraceOrDebugEnabled()) {
+            synLog.traceOrDebug("Revalidating the expired response for request hash : " +
+                                        expiredResponse.getRequestHash() + " with a conditional request");
+        }
+    }
 
+    /**
+     * Refreshes the expiry of the response revalidated by a 304 Not Modified response, and replaces the 304 with the
+     * revalidated response unless the client has already been served with it. The payload is neither transferred from
+     * the backend nor serialized again.
+     *
+     * @param synCtx              the 304 response
+     * @param cache               the cache of the mediator, or null if it has been cleaned since the request
+     * @param revalidatedResponse the copy of the expired response that has been revalidated
+     * @param synLog              the Synapse log to use
+     */
+    @SuppressWarnings("unchecked")
+    private void refreshRevalidatedResponse(MessageContext synCtx, ResponseCache cache,
+                                            CachableResponse revalidatedResponse, SynapseLog synLog) {
+        CacheStore cacheStore = getCacheStore();
+        org.apache.axis2.context.MessageContext msgCtx = ((Axis2MessageContext) synCtx).getAxis2MessageContext();
+        Map<String, ?> headers =
+                (Map<String, ?>) msgCtx.getProperty(org.apache.axis2.context.MessageContext.TRANSPORT_HEADERS);
+        long timeToLive = revalidatedResponse.getTimeout();
+        if (cacheStore.isHonorCacheControl()) {
+            timeToLive = HttpCacheHeaders.getTimeToLive(headers, timeToLive, cacheStore.getMinTimeout(),
+                                                        cacheStore.getMaxTimeout());
+        }
+        if (headers != null) {
+            // a 304 carries the validators of the response if they have changed
+            String eTag = HttpCacheHeaders.getHeader(headers, HttpCacheHeaders.ETAG);
+            if (eTag != null) {
+                revalidatedResponse.setETag(eTag);
+            }
+            String lastModified = HttpCacheHeaders.getHeader(headers, HttpCacheHeaders.LAST_MODIFIED);
+            if (lastModified != null) {
+                revalidatedResponse.setLastModified(lastModified);
+            }
+        }
+        if (msgCtx.getOperationContext().getProperty(CachingConstants.REVALIDATION) == null) {
+            attachCachedResponse(synCtx, revalidatedResponse);
+        }
+        if (timeToLive > 0 && cache != null) {
+            revalidatedResponse.setTimeout(timeToLive);
+            revalidatedResponse.setExpireTimeMillis(System.currentTimeMillis() + timeToLive * 1000);
+            cache.put(revalidatedResponse.getRequestHash(), revalidatedResponse);
+            if (synLog.isTraceOrDebugEnabled()) {
+                synLog.traceOrDebug("The response for request hash : " + revalidatedResponse.getRequestHash() +
+                                            " has been revalidated for " + timeToLive + " seconds");
+            }
+        } else {
+            revalidatedResponse.releasePayload();
+            if (cache != null) {
+                cache.invalidate(revalidatedResponse.getRequestHash());
+            }
+        }
+    }
+
+    /**
+     * Removes the pending request of this request, if this request was the one registered for its request hash, and
+     * releases the requests waiting on it
+     *
+     * @param opCtx the operation context of the request
+     */
+    private void releasePendingRequest(OperationContext opCtx) {
+        PendingRequest pendingRequest = (PendingRequest) opCtx.getProperty(CachingConstants.PENDING_REQUEST);
+        if (pendingRequest != null) {
+            opCtx.removeProperty(CachingConstants.PENDING_REQUEST);
+            ResponseCache cache = getMediatorCache();
+            if (cache != null) {
+                cache.release((CacheKey) opCtx.getProperty(CachingConstants.REQUEST_HASH), pendingRequest);
+            } else {
+                pendingRequest.release();
             }
-            return false;
         }
-        return true;
     }
 
     /**
@@ -370,18 +887,44 @@ public class EICacheMediator extends AbstractMediator implements ManagedLifecycl
     @SuppressWarnings("unchecked")
     private void processResponseMessage(MessageContext synCtx, ConfigurationContext cfgCtx, SynapseLog synLog)
             throws ClusteringFault {
+        CacheStore cacheStore = getCacheStore();
         if (!collector) {
             handleException("Response messages cannot be handled in a non collector cache", synCtx);
         }
         org.apache.axis2.context.MessageContext msgCtx = ((Axis2MessageContext) synCtx).getAxis2MessageContext();
         OperationContext operationContext = msgCtx.getOperationContext();
         CachableResponse response = (CachableResponse) operationContext.getProperty(CachingConstants.CACHED_OBJECT);
+        // the cache is created by the finder, and is gone if it has been cleaned since the request
+        ResponseCache cache = getMediatorCache();
+
+        CachableResponse revalidatedResponse =
+                (CachableResponse) operationContext.getProperty(CachingConstants.REVALIDATED_RESPONSE);
+        boolean conditional = operationContext.getProperty(CachingConstants.CONDITIONAL_REQUEST) != null;
+        operationContext.removeProperty(CachingConstants.REVALIDATED_RESPONSE);
+        operationContext.removeProperty(CachingConstants.CONDITIONAL_REQUEST);
+        if (conditional && CachingConstants.HTTP_PROTOCOL_TYPE.equals(cacheStore.getProtocolType()) &&
+                HttpCacheHeaders.NOT_MODIFIED.equals(String.valueOf(msgCtx.getProperty(NhttpConstants.HTTP_SC)))) {
+            if (revalidatedResponse == null || !revalidatedResponse.hasResponsePayload()) {
+                // the client did not make the request conditional, hence it cannot be answered with the 304
+                handleException("The expired response revalidated by the 304 Not Modified response is no longer " +
+                                        "available to answer the request", synCtx);
+            }
+            refreshRevalidatedResponse(synCtx, cache, revalidatedResponse, synLog);
+            return;
+        }
+        if (cache == null) {
+            if (synLog.isTraceOrDebugEnabled()) {
+                synLog.traceOrDebug("The cache with ID : " + id + " has not been created by its finder, hence not " +
+                                            "storing the response for this request");
+            }
+            return;
+        }
 
         boolean toCache;
         if (CachingConstants.HTTP_PROTOCOL_TYPE.equals(cacheStore.getProtocolType())) {
             String statusCode = msgCtx.getProperty(NhttpConstants.HTTP_SC).toString();
             // Now create matcher object.
-            Matcher m = responseCodePattern.matcher(statusCode);
+            Matcher m = cacheStore.getResponseCodePattern().matcher(statusCode);
             if (m.matches()) {
                 toCache = true;
                 if (response != null) {
@@ -392,63 +935,95 @@ public class EICacheMediator extends AbstractMediator implements ManagedLifecycl
                 toCache = false;
             }
             if (toCache) {
-                toCache = false;
-                String httpMethod = cacheStore.getHttpMethod();
-                for (String method : cacheStore.getHTTPMethodsToCache()) {
-                    if (method.equals(httpMethod)) {
-                        toCache = true;
-                    }
-                }
+                toCache = cacheStore.isHTTPMethodToCache(
+                        (String) operationContext.getProperty(CachingConstants.REQUEST_HTTP_METHOD));
             }
         } else {
             toCache = true;
         }
+        if (toCache && response != null && cacheStore.isHonorCacheControl()) {
+            long timeToLive = HttpCacheHeaders.getTimeToLive(
+                    (Map<String, ?>) msgCtx.getProperty(org.apache.axis2.context.MessageContext.TRANSPORT_HEADERS),
+                    response.getTimeout(), cacheStore.getMinTimeout(), cacheStore.getMaxTimeout());
+            if (timeToLive > 0) {
+                response.setTimeout(timeToLive);
+            } else {
+                if (synLog.isTraceOrDebugEnabled()) {
+                    synLog.traceOrDebug("The caching headers of the response do not allow it to be cached, hence " +
+                                                "not storing the response for this request");
+                }
+                // a response cached earlier for the request is no longer valid either
+                cache.invalidate(response.getRequestHash());
+                return;
+            }
+        }
+        // the response that refreshes a cached one has been admitted before
+        if (toCache && response != null && operationContext.getProperty(CachingConstants.REVALIDATION) == null &&
+                !cache.admit(response.getRequestHash())) {
+            if (synLog.isTraceOrDebugEnabled()) {
+                synLog.traceOrDebug("The request hash : " + response.getRequestHash() + " has not been seen often " +
+                                            "enough to be admitted, hence not storing the response for this request");
+            }
+            return;
+        }
         if (toCache) {
             if (response != null) {
                 String contentType = ((String) msgCtx.getProperty(Constants.Configuration.CONTENT_TYPE)).split(";")[0];
 
+                // the payload is serialized on the response thread, as the message is live, while it is adopted as
+                // the payload of the response by whichever thread stores the response
+                ResponseBuffer payload;
                 if (contentType.equals(JSON_CONTENT_TYPE)) {
-                    byte[] responsePayload = JsonUtil.jsonPayloadToByteArray(msgCtx);
+                    // the JSON stream is written in full, as a write cut short may leave the stream unread for the
+                    // client
+                    payload = new ResponseBuffer(-1);
+                    try {
+                        JsonUtil.writeAsJson(msgCtx, payload);
+                    } catch (AxisFault e) {
+                        // the response is still sent to the client, only without being cached
+                        log.warn("Unable to serialize the JSON response to be stored in the cache with ID : " + id, e);
+                        return;
+                    }
                     if (cacheStore.getMaxMessageSize() > -1) {
-                        if (responsePayload.length > cacheStore.getMaxMessageSize()) {
+                        if (payload.size() > cacheStore.getMaxMessageSize()) {
                             synLog.traceOrDebug(
                                     "Message size exceeds the upper bound for caching, request will not be cached");
                             return;
                         }
                     }
-
-                    response.setResponsePayload(responsePayload);
                     response.setJson(true);
                 } else {
-                    if (cacheStore.getMaxMessageSize() > -1) {
-                        FixedByteArrayOutputStream fbaos = new FixedByteArrayOutputStream(
-                                cacheStore.getMaxMessageSize());
-                        try {
-                            MessageHelper.cloneSOAPEnvelope(synCtx.getEnvelope()).serialize(fbaos);
-                        } catch (XMLStreamException e) {
-                            handleException("Error in checking the message size", e, synCtx);
-                        } catch (SynapseException syne) {
-                            synLog.traceOrDebug(
-                                    "Message size exceeds the upper bound for caching, request will not be cached");
-                            return;
-                        } finally {
-                            try {
-                                fbaos.close();
-                            } catch (IOException e) {
-                                handleException("Error occurred while closing the FixedByteArrayOutputStream ", e,
-                                                synCtx);
+                    // the response is serialized once in to a buffer bounded by the maximum size
+                    ResponseBuffer outStream = new ResponseBuffer(cacheStore.getMaxMessageSize());
+                    try {
+                        // the header blocks and the body are serialized separately, so that a hit can use them as
+                        // they are without parsing the whole envelope
+                        SOAPEnvelope envelope = synCtx.getEnvelope();
+                        XmlFragment[] headerFragments = null;
+                        if (envelope.getHeader() != null) {
+                            List<XmlFragment> fragments = new ArrayList<>();
+                            Iterator headerBlocks = envelope.getHeader().getChildElements();
+                            while (headerBlocks.hasNext()) {
+                                fragments.add(XmlFragment.write((OMElement) headerBlocks.next(), outStream));
                             }
+                            headerFragments = fragments.toArray(new XmlFragment[fragments.size()]);
                         }
-                    }
-                    try (ByteArrayOutputStream outStream = new ByteArrayOutputStream()) {
-                        synCtx.getEnvelope().serialize(outStream);
-                        response.setResponsePayload(outStream.toByteArray());
+                        OMElement body = envelope.getBody().getFirstElement();
+                        response.setHeaderFragments(headerFragments);
+                        response.setBodyFragment(body != null ? XmlFragment.write(body, outStream) : null);
                         response.setJson(false);
-                    } catch (XMLStreamException e) {
-                        handleException("Unable to set the response to the Cache", e, synCtx);
-                    } catch (IOException e) {
-                        handleException("Error occurred while closing the FixedByteArrayOutputStream ", e, synCtx);
+                    } catch (XMLStreamException | OMException e) {
+                        // the serializer wraps the error of the buffer when the response exceeds the maximum size
+                        if (!outStream.isLimitExceeded()) {
+                            handleException("Unable to set the response to the Cache", e, synCtx);
+                        }
                     }
+                    if (outStream.isLimitExceeded()) {
+                        synLog.traceOrDebug(
+                                "Message size exceeds the upper bound for caching, request will not be cached");
+                        return;
+                    }
+                    payload = outStream;
                 }
 
                 if (synLog.isTraceOrDebugEnabled()) {
@@ -476,24 +1051,41 @@ public class EICacheMediator extends AbstractMediator implements ManagedLifecycl
                         headerProperties.put(entry.getKey(), entry.getValue());
                     }
                     headerProperties.put(Constants.Configuration.MESSAGE_TYPE, messageType);
-                    headerProperties.put(CachingConstants.CACHE_KEY, response.getRequestHash());
+                    headerProperties.put(CachingConstants.CACHE_KEY, response.getRequestHash().toString());
                     response.setHeaderProperties(headerProperties);
                     msgCtx.setProperty(org.apache.axis2.context.MessageContext.TRANSPORT_HEADERS, headerProperties);
                 }
-                getMediatorCache().put(response.getRequestHash(), response);
-                // Finally, we may need to replicate the changes in the cache
-                Replicator.replicate(cfgCtx);
+                Map<String, ?> transportHeaders = (Map<String, ?>) msgCtx.getProperty(
+                        org.apache.axis2.context.MessageContext.TRANSPORT_HEADERS);
+                if (transportHeaders != null) {
+                    response.setETag(HttpCacheHeaders.getHeader(transportHeaders, HttpCacheHeaders.ETAG));
+                    response.setLastModified(
+                            HttpCacheHeaders.getHeader(transportHeaders, HttpCacheHeaders.LAST_MODIFIED));
+                }
+                if (cache.getWriter() != null) {
+                    storeAsync(cache, response, payload, operationContext, cfgCtx, synLog);
+                } else {
+                    response.setResponsePayload(payload.toPayload());
+                    cache.put(response.getRequestHash(), response);
+                    if (synLog.isTraceOrDebugEnabled()) {
+                        synLog.traceOrDebug("Cache with ID : " + id + " now holds " + cache.weightedSize() + " bytes");
+                        if (cache.offHeapSize() > -1) {
+                            synLog.traceOrDebug("Cache with ID : " + id + " now holds " + cache.offHeapSize() +
+                                                        " bytes off the heap");
+                        }
+                    }
+                    // Finally, we may need to replicate the changes in the cache
+                    Replicator.replicate(cfgCtx);
+                }
             } else {
                 synLog.auditWarn("A response message without a valid mapping to the " +
                                          "request hash found. Unable to store the response in cache");
             }
         } else {
-            response.clean();
-            getMediatorCache().put(response.getRequestHash(), response);
             if (synLog.isTraceOrDebugEnabled()) {
                 synLog.traceOrDebug(
-                        "Received a response status that could not be cached. Hence resetting the cache for this " +
-                                "request");
+                        "Received a response status that could not be cached. Hence not storing the response for " +
+                                "this request");
             }
             operationContext.setProperty(CachingConstants.CACHED_OBJECT, response);
             Replicator.replicate(operationContext);
@@ -502,37 +1094,118 @@ public class EICacheMediator extends AbstractMediator implements ManagedLifecycl
     }
 
     /**
-     * Creates default cache to keep mediator cache
+     * Hands the response over to the writer of the cache, to be stored and replicated off the response path. The
+     * buffer holding the serialized payload is handed over as it is, and the writer adopts it as the payload, so that
+     * the response thread neither copies the payload nor compresses, weighs or spills the response. The buffer is no
+     * longer touched by the response thread, hence it needs no reference counting. The requests waiting on this
+     * request are released once the response is stored, or at once if the writer drops it.
      *
-     * @return global cache
+     * @param cache    the cache of the mediator
+     * @param response the response to be stored
+     * @param payload  the buffer holding the serialized payload of the response
+     * @param opCtx    the operation context of the response
+     * @param cfgCtx   the configuration context to be replicated
+     * @param synLog   the Synapse log to use
      */
-    public LoadingCache<String, CachableResponse> getMediatorCache() {
-        LoadingCache<String, CachableResponse> cache = CacheManager.get(id);
-        if (cache == null) {
-            if (inMemoryCacheSize > -1) {
-                cache = CacheBuilder.newBuilder().expireAfterWrite(timeout,
-                                                                   TimeUnit.SECONDS).maximumSize(inMemoryCacheSize)
-                        .build(new CacheLoader<String, CachableResponse>() {
-                            @Override
-                            public CachableResponse load(String requestHash) throws Exception {
-                                return cacheNewResponse(requestHash);
-                            }
-                        });
-            } else {
-                cache = CacheBuilder.newBuilder().expireAfterWrite(timeout,
-                                                                   TimeUnit.SECONDS).build(
-                        new CacheLoader<String, CachableResponse>() {
-                            @Override
-                            public CachableResponse load(String requestHash) throws Exception {
-                                return cacheNewResponse(requestHash);
-                            }
-                        });
+    private void storeAsync(final ResponseCache cache, final CachableResponse response, final ResponseBuffer payload,
+                            OperationContext opCtx, final ConfigurationContext cfgCtx, SynapseLog synLog) {
+        final PendingRequest pendingRequest = (PendingRequest) opCtx.getProperty(CachingConstants.PENDING_REQUEST);
+        final CacheKey requestHash = (CacheKey) opCtx.getProperty(CachingConstants.REQUEST_HASH);
+        // the writer releases the pending request instead of the mediator
+        opCtx.removeProperty(CachingConstants.PENDING_REQUEST);
+        boolean queued = cache.getWriter().submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    response.setResponsePayload(payload.toPayload());
+                    cache.put(response.getRequestHash(), response);
+                    Replicator.replicate(cfgCtx);
+                } catch (ClusteringFault e) {
+                    log.error("Unable to replicate the cache with ID : " + id, e);
+                } finally {
+                    if (pendingRequest != null) {
+                        cache.release(requestHash, pendingRequest);
+                    }
+                }
+            }
+        });
+        if (!queued) {
+            if (pendingRequest != null) {
+                cache.release(requestHash, pendingRequest);
+            }
+            if (synLog.isTraceOrDebugEnabled()) {
+                synLog.traceOrDebug("The responses waiting to be stored in the cache with ID : " + id + " exceed " +
+                                            "the queue size of its writer, hence not storing the response for this " +
+                                            "request");
+            }
+        } else if (synLog.isTraceOrDebugEnabled()) {
+            synLog.traceOrDebug("Queued the response to be stored in the cache with ID : " + id);
+        }
+    }
+
+    /**
+     * Gives the cache of this mediator. The finder creates the cache from its configuration when there is none, while
+     * the collector, which lacks the configuration of the cache, only resolves the cache created by its finder.
+     *
+     * @return the cache, or null if this is a collector and the finder of the same id has not created the cache
+     */
+    public ResponseCache getMediatorCache() {
+        ResponseCache cache = CacheManager.get(id);
+        if (cache == null && !collector) {
+            // a second cache of the same id would delete the disk segments of the first, hence only one is created
+            synchronized (CacheManager.class) {
+                cache = CacheManager.get(id);
+                if (cache == null) {
+                    cache = createMediatorCache();
+                    CacheManager.put(id, cache);
+                }
             }
-            CacheManager.put(id, cache);
         }
         return cache;
     }
 
+    /**
+     * Creates the cache of this mediator from its configuration
+     *
+     * @return the new cache
+     */
+    private ResponseCache createMediatorCache() {
+        CacheStore cacheStore = getCacheStore();
+        long maxTimeout = timeout;
+        if (cacheStore.isHonorCacheControl()) {
+            // the responses are expired individually as the caching headers allow
+            maxTimeout = cacheStore.getMaxTimeout() > -1 ? Math.max(timeout, cacheStore.getMaxTimeout()) : -1;
+        }
+        // the expired responses are kept for as long as they may be served stale or revalidated
+        long staleWindow = Math.max(staleWhileRevalidate, revalidationWindow);
+        DiskTier diskTier = null;
+        if (diskCacheDirectory != null) {
+            File directory = new File(diskCacheDirectory, "".equals(id) ? "default" : id);
+            try {
+                diskTier = new DiskTier(directory, diskSegmentSize, diskCacheSize, staleWindow,
+                                        CachingConstants.DISK_COMPACTION_INTERVAL);
+            } catch (IOException e) {
+                log.error("Unable to create the disk cache in : " + directory + ", hence the responses " +
+                                  "evicted from the memory will be dropped", e);
+            }
+        }
+        AdmissionFilter admissionFilter = null;
+        if (admissionMinFrequency > 0) {
+            long trackedRequests = admissionTrackedRequests;
+            if (trackedRequests < 0) {
+                trackedRequests = inMemoryCacheSize > 0 ? inMemoryCacheSize :
+                        CachingConstants.DEFAULT_ADMISSION_TRACKED_REQUESTS;
+            }
+            admissionFilter = new AdmissionFilter(admissionMinFrequency, trackedRequests);
+        }
+        CacheWriter writer = asyncStoreThreads > 0 ?
+                new CacheWriter("".equals(id) ? "default" : id, asyncStoreThreads, asyncStoreQueueSize) : null;
+        return new ResponseCache(cacheEngine, maxTimeout, staleWindow, inMemoryCacheSize, inMemoryCacheBytes,
+                                 offHeapCapacity, coalescingMaxWait, diskTier, admissionFilter, writer,
+                                 compressionCodec != null ? PayloadCodec.forName(compressionCodec) : null,
+                                 compressionThreshold, gzipVariants);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -581,6 +1254,7 @@ public class EICacheMediator extends AbstractMediator implements ManagedLifecycl
      */
     public void setDigestGenerator(DigestGenerator digestGenerator) {
         this.digestGenerator = digestGenerator;
+        this.digestConfiguration = null;
     }
 
     /**
@@ -601,6 +1275,84 @@ public class EICacheMediator extends AbstractMediator implements ManagedLifecycl
         this.timeout = timeout;
     }
 
+    /**
+     * This method gives the time duration for which an expired response is still served while it is being
+     * revalidated.
+     *
+     * @return the stale while revalidate window in seconds.
+     */
+    public long getStaleWhileRevalidate() {
+        return staleWhileRevalidate;
+    }
+
+    /**
+     * This method sets the time duration for which an expired response is still served while it is being
+     * revalidated.
+     *
+     * @param staleWhileRevalidate the stale while revalidate window in seconds to be set.
+     */
+    public void setStaleWhileRevalidate(long staleWhileRevalidate) {
+        this.staleWhileRevalidate = staleWhileRevalidate;
+    }
+
+    /**
+     * This method gives the time duration for which an expired response with validators is kept to be revalidated with
+     * a conditional request.
+     *
+     * @return the revalidation window in seconds.
+     */
+    public long getRevalidationWindow() {
+        return revalidationWindow;
+    }
+
+    /**
+     * This method sets the time duration for which an expired response with validators is kept to be revalidated with
+     * a conditional request.
+     *
+     * @param revalidationWindow the revalidation window in seconds to be set.
+     */
+    public void setRevalidationWindow(long revalidationWindow) {
+        this.revalidationWindow = revalidationWindow;
+    }
+
+    /**
+     * This method gives whether the REST requests that hit the cache are answered with the cached bytes as they are.
+     *
+     * @return boolean true if the cached bytes are sent as they are.
+     */
+    public boolean isRawResponse() {
+        return rawResponse;
+    }
+
+    /**
+     * This method sets whether the REST requests that hit the cache are answered with the cached bytes as they are,
+     * when there is no onCacheHit sequence.
+     *
+     * @param rawResponse whether to send the cached bytes as they are.
+     */
+    public void setRawResponse(boolean rawResponse) {
+        this.rawResponse = rawResponse;
+    }
+
+    /**
+     * This method gives whether a gzip variant of each cached body is kept for the clients that accept gzip.
+     *
+     * @return boolean true if the gzip variants are kept.
+     */
+    public boolean isGzipVariants() {
+        return gzipVariants;
+    }
+
+    /**
+     * This method sets whether a gzip variant of each cached body is kept, to be sent as it is in the raw response
+     * mode to the clients that accept gzip.
+     *
+     * @param gzipVariants whether to keep the gzip variants.
+     */
+    public void setGzipVariants(boolean gzipVariants) {
+        this.gzipVariants = gzipVariants;
+    }
+
     /**
      * This method gives whether the mediator should be in the incoming path or in the outgoing path as a boolean.
      *
@@ -635,6 +1387,45 @@ public class EICacheMediator extends AbstractMediator implements ManagedLifecycl
      */
     public void setHeadersToExcludeInHash(String... headersToExcludeInHash) {
         this.headersToExcludeInHash = headersToExcludeInHash;
+        this.digestConfiguration = null;
+    }
+
+    /**
+     * This method gives array of JSON fields that would be excluded when hashing.
+     *
+     * @return array of JSON fields to exclude from hashing
+     */
+    public String[] getJsonFieldsToIgnore() {
+        return jsonFieldsToIgnore;
+    }
+
+    /**
+     * This method sets the array of JSON fields that would be excluded when hashing
+     *
+     * @param jsonFieldsToIgnore array of JSON fields to exclude from hashing.
+     */
+    public void setJsonFieldsToIgnore(String... jsonFieldsToIgnore) {
+        this.jsonFieldsToIgnore = jsonFieldsToIgnore;
+        this.digestConfiguration = null;
+    }
+
+    /**
+     * This method gives the normalizer of the addresses of the requests before they are hashed.
+     *
+     * @return the normalizer, or null if the addresses are hashed as they are
+     */
+    public UrlNormalizer getUrlNormalizer() {
+        return urlNormalizer;
+    }
+
+    /**
+     * This method sets the normalizer of the addresses of the requests before they are hashed.
+     *
+     * @param urlNormalizer the normalizer, or null to hash the addresses as they are
+     */
+    public void setUrlNormalizer(UrlNormalizer urlNormalizer) {
+        this.urlNormalizer = urlNormalizer;
+        this.digestConfiguration = null;
     }
 
     /**
@@ -709,14 +1500,417 @@ public class EICacheMediator extends AbstractMediator implements ManagedLifecycl
         this.inMemoryCacheSize = inMemoryCacheSize;
     }
 
+    /**
+     * This method gives the maximum number of bytes the cached responses may occupy in memory.
+     *
+     * @return memory cache size in bytes.
+     */
+    public long getInMemoryCacheBytes() {
+        return inMemoryCacheBytes;
+    }
+
+    /**
+     * This method sets the maximum number of bytes the cached responses may occupy in memory.
+     *
+     * @param inMemoryCacheBytes value(number of bytes) to be set as memory cache size.
+     */
+    public void setInMemoryCacheBytes(long inMemoryCacheBytes) {
+        this.inMemoryCacheBytes = inMemoryCacheBytes;
+    }
+
+    /**
+     * This method gives the type of the engine that holds the cached responses.
+     *
+     * @return the type of the cache engine.
+     */
+    public String getCacheEngine() {
+        return cacheEngine;
+    }
+
+    /**
+     * This method sets the type of the engine that holds the cached responses.
+     *
+     * @param cacheEngine the type of the cache engine, one of the cache engines of {@link CachingConstants}.
+     */
+    public void setCacheEngine(String cacheEngine) {
+        this.cacheEngine = cacheEngine;
+    }
+
+    /**
+     * This method gives the number of bytes of direct memory used to hold the cached payloads out of the heap.
+     *
+     * @return off-heap capacity in bytes, or -1 if the payloads are kept in the heap.
+     */
+    public long getOffHeapCapacity() {
+        return offHeapCapacity;
+    }
+
+    /**
+     * This method sets the number of bytes of direct memory used to hold the cached payloads out of the heap.
+     *
+     * @param offHeapCapacity value(number of bytes) to be set as the off-heap capacity.
+     */
+    public void setOffHeapCapacity(long offHeapCapacity) {
+        this.offHeapCapacity = offHeapCapacity;
+    }
+
+    /**
+     * This method gives the directory that holds the responses evicted from the memory.
+     *
+     * @return the directory of the disk cache, or null if there is no disk cache.
+     */
+    public String getDiskCacheDirectory() {
+        return diskCacheDirectory;
+    }
+
+    /**
+     * This method sets the directory that holds the responses evicted from the memory.
+     *
+     * @param diskCacheDirectory the directory of the disk cache to be set.
+     */
+    public void setDiskCacheDirectory(String diskCacheDirectory) {
+        this.diskCacheDirectory = diskCacheDirectory;
+    }
+
+    /**
+     * This method gives the size of a segment file of the disk cache.
+     *
+     * @return segment size in bytes.
+     */
+    public int getDiskSegmentSize() {
+        return diskSegmentSize;
+    }
+
+    /**
+     * This method sets the size of a segment file of the disk cache.
+     *
+     * @param diskSegmentSize value(number of bytes) to be set as the segment size.
+     */
+    public void setDiskSegmentSize(int diskSegmentSize) {
+        this.diskSegmentSize = diskSegmentSize;
+    }
+
+    /**
+     * This method gives the maximum number of bytes of the segment files of the disk cache together.
+     *
+     * @return disk cache size in bytes.
+     */
+    public long getDiskCacheSize() {
+        return diskCacheSize;
+    }
+
+    /**
+     * This method sets the maximum number of bytes of the segment files of the disk cache together.
+     *
+     * @param diskCacheSize value(number of bytes) to be set as the disk cache size.
+     */
+    public void setDiskCacheSize(long diskCacheSize) {
+        this.diskCacheSize = diskCacheSize;
+    }
+
+    /**
+     * This method gives the estimated number of bytes currently occupied by the cached responses.
+     *
+     * @return current memory footprint of the cache in bytes.
+     */
+    public long getCacheSizeInBytes() {
+        ResponseCache cache = getMediatorCache();
+        return cache != null ? cache.weightedSize() : 0;
+    }
+
+    /**
+     * This method gives the statistics of the lookups and the evictions of the cache.
+     *
+     * @return the statistics of the cache engine.
+     */
+    public CacheEngineStats getCacheStats() {
+        ResponseCache cache = getMediatorCache();
+        return cache != null ? cache.stats() : new CacheEngineStats(0, 0, 0);
+    }
+
+    /**
+     * This method gives whether concurrent requests with the same hash wait for a single backend call on a cache miss.
+     *
+     * @return true if the requests are coalesced false if not.
+     */
+    public boolean isCoalescing() {
+        return coalescing;
+    }
+
+    /**
+     * This method sets whether concurrent requests with the same hash wait for a single backend call on a cache miss.
+     *
+     * @param coalescing boolean value of coalescing.
+     */
+    public void setCoalescing(boolean coalescing) {
+        this.coalescing = coalescing;
+    }
+
+    /**
+     * This method gives the maximum time a request waits for an in-flight request with the same hash.
+     *
+     * @return maximum wait in milliseconds.
+     */
+    public long getCoalescingMaxWait() {
+        return coalescingMaxWait;
+    }
+
+    /**
+     * This method sets the maximum time a request waits for an in-flight request with the same hash.
+     *
+     * @param coalescingMaxWait maximum wait in milliseconds to be set.
+     */
+    public void setCoalescingMaxWait(long coalescingMaxWait) {
+        this.coalescingMaxWait = coalescingMaxWait;
+    }
+
+    /**
+     * This method gives the maximum number of requests that wait for the same in-flight request.
+     *
+     * @return maximum number of waiting requests per request hash.
+     */
+    public int getCoalescingMaxWaiters() {
+        return coalescingMaxWaiters;
+    }
+
+    /**
+     * This method sets the maximum number of requests that wait for the same in-flight request.
+     *
+     * @param coalescingMaxWaiters maximum number of waiting requests per request hash to be set.
+     */
+    public void setCoalescingMaxWaiters(int coalescingMaxWaiters) {
+        this.coalescingMaxWaiters = coalescingMaxWaiters;
+    }
+
+    /**
+     * This method gives the maximum number of requests that wait for any in-flight request.
+     *
+     * @return maximum number of waiting requests in total.
+     */
+    public int getCoalescingMaxTotalWaiters() {
+        return coalescingMaxTotalWaiters;
+    }
+
+    /**
+     * This method sets the maximum number of requests that wait for any in-flight request.
+     *
+     * @param coalescingMaxTotalWaiters maximum number of waiting requests in total to be set.
+     */
+    public void setCoalescingMaxTotalWaiters(int coalescingMaxTotalWaiters) {
+        this.coalescingMaxTotalWaiters = coalescingMaxTotalWaiters;
+    }
+
+    /**
+     * This method gives the number of times a request hash must have been seen lately for its response to be cached.
+     *
+     * @return the minimum frequency, or 0 if every cacheable response is cached.
+     */
+    public int getAdmissionMinFrequency() {
+        return admissionMinFrequency;
+    }
+
+    /**
+     * This method sets the number of times a request hash must have been seen lately for its response to be cached.
+     *
+     * @param admissionMinFrequency the minimum frequency to be set, or 0 to cache every cacheable response.
+     */
+    public void setAdmissionMinFrequency(int admissionMinFrequency) {
+        this.admissionMinFrequency = admissionMinFrequency;
+    }
+
+    /**
+     * This method gives the number of distinct request hashes tracked by the admission filter.
+     *
+     * @return the number of tracked request hashes, or -1 if derived from the size of the cache.
+     */
+    public long getAdmissionTrackedRequests() {
+        return admissionTrackedRequests;
+    }
+
+    /**
+     * This method sets the number of distinct request hashes tracked by the admission filter.
+     *
+     * @param admissionTrackedRequests the number of tracked request hashes to be set.
+     */
+    public void setAdmissionTrackedRequests(long admissionTrackedRequests) {
+        this.admissionTrackedRequests = admissionTrackedRequests;
+    }
+
+    /**
+     * This method gives the number of bytes the payloads of the cached responses occupy as they are stored, which is
+     * less than the logical size when they are compressed.
+     *
+     * @return the stored size of the payloads in bytes.
+     */
+    public long getStoredPayloadBytes() {
+        ResponseCache cache = getMediatorCache();
+        return cache != null ? cache.storedPayloadSize() : 0;
+    }
+
+    /**
+     * This method gives the number of bytes the payloads of the cached responses would occupy uncompressed.
+     *
+     * @return the logical size of the payloads in bytes.
+     */
+    public long getLogicalPayloadBytes() {
+        ResponseCache cache = getMediatorCache();
+        return cache != null ? cache.logicalPayloadSize() : 0;
+    }
+
+    /**
+     * This method gives the codec that compresses the payloads of the cached responses.
+     *
+     * @return the name of the codec, or null if the payloads are stored as they are.
+     */
+    public String getCompressionCodec() {
+        return compressionCodec;
+    }
+
+    /**
+     * This method sets the codec that compresses the payloads of the cached responses.
+     *
+     * @param compressionCodec the name of the codec to be set, or null to store the payloads as they are.
+     */
+    public void setCompressionCodec(String compressionCodec) {
+        this.compressionCodec = compressionCodec;
+    }
+
+    /**
+     * This method gives the minimum size of the payloads to be compressed.
+     *
+     * @return the minimum size in bytes.
+     */
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * This method sets the minimum size of the payloads to be compressed.
+     *
+     * @param compressionThreshold the minimum size in bytes to be set.
+     */
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * This method gives the number of threads that store the responses in the cache off the response path.
+     *
+     * @return the number of threads, or 0 if the responses are stored on the response path.
+     */
+    public int getAsyncStoreThreads() {
+        return asyncStoreThreads;
+    }
+
+    /**
+     * This method sets the number of threads that store the responses in the cache off the response path.
+     *
+     * @param asyncStoreThreads the number of threads to be set, or 0 to store the responses on the response path.
+     */
+    public void setAsyncStoreThreads(int asyncStoreThreads) {
+        this.asyncStoreThreads = asyncStoreThreads;
+    }
+
+    /**
+     * This method gives the maximum number of responses waiting to be stored off the response path.
+     *
+     * @return the maximum number of waiting responses.
+     */
+    public int getAsyncStoreQueueSize() {
+        return asyncStoreQueueSize;
+    }
+
+    /**
+     * This method sets the maximum number of responses waiting to be stored off the response path.
+     *
+     * @param asyncStoreQueueSize the maximum number of waiting responses to be set.
+     */
+    public void setAsyncStoreQueueSize(int asyncStoreQueueSize) {
+        this.asyncStoreQueueSize = asyncStoreQueueSize;
+    }
+
+    /**
+     * This method gives the number of responses currently waiting to be stored off the response path.
+     *
+     * @return the number of waiting responses, or 0 if the responses are stored on the response path.
+     */
+    public int getAsyncStoreQueueDepth() {
+        CacheWriter writer = getAsyncStoreWriter();
+        return writer != null ? writer.getQueueDepth() : 0;
+    }
+
+    /**
+     * This method gives the number of responses dropped as too many were waiting to be stored off the response path.
+     *
+     * @return the number of dropped responses.
+     */
+    public long getAsyncStoreDroppedCount() {
+        CacheWriter writer = getAsyncStoreWriter();
+        return writer != null ? writer.getDroppedCount() : 0;
+    }
+
+    /**
+     * This method gives the number of responses stored off the response path.
+     *
+     * @return the number of stored responses.
+     */
+    public long getAsyncStoreCompletedCount() {
+        CacheWriter writer = getAsyncStoreWriter();
+        return writer != null ? writer.getCompletedCount() : 0;
+    }
+
+    /**
+     * @return the writer of the cache, or null if the responses are stored on the response path or there is no cache
+     */
+    private CacheWriter getAsyncStoreWriter() {
+        ResponseCache cache = getMediatorCache();
+        return cache != null ? cache.getWriter() : null;
+    }
+
+    /**
+     * This method gives the number of responses the admission filter has let in to the cache.
+     *
+     * @return the number of admitted responses.
+     */
+    public long getAdmittedResponseCount() {
+        ResponseCache cache = getMediatorCache();
+        return cache != null ? cache.admittedCount() : 0;
+    }
+
+    /**
+     * This method gives the number of responses the admission filter has kept out of the cache.
+     *
+     * @return the number of rejected responses.
+     */
+    public long getRejectedResponseCount() {
+        ResponseCache cache = getMediatorCache();
+        return cache != null ? cache.rejectedCount() : 0;
+    }
+
+    /**
+     * Gives the store that stores values that are common to both the collector and finder. The collector resolves the
+     * store of the finder with the same id, and keeps to the default values until the finder has been created.
+     *
+     * @return the store of the cache
+     */
+    public CacheStore getCacheStore() {
+        CacheStore store = cacheStore;
+        if (store == null) {
+            store = CacheStoreManager.get(id);
+            if (store == null) {
+                return CacheStoreManager.DEFAULT_CACHE_STORE;
+            }
+            cacheStore = store;
+        }
+        return store;
+    }
+
     /**
      * Sets the store that stores values that are common to both the collector and finder
+     *
+     * @param cacheStore the store of the cache
      */
     public void setCacheStore(CacheStore cacheStore) {
         this.cacheStore = cacheStore;
     }
-
-    public void initPattern() {
-        responseCodePattern = Pattern.compile(cacheStore.getResponseCodes());
-    }
 }
@@ -21,11 +21,15 @@ import org.apache.axiom.om.OMElement;
 import org.apache.synapse.Mediator;
 import org.apache.synapse.config.xml.AbstractMediatorFactory;
 import org.apache.synapse.config.xml.SequenceMediatorFactory;
+import org.apache.synapse.config.xml.SynapseXPathFactory;
 import org.apache.synapse.config.xml.XMLConfigConstants;
+import org.jaxen.JaxenException;
 
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Properties;
+import java.util.regex.PatternSyntaxException;
 import javax.xml.namespace.QName;
 
 public class EICacheMediatorFactory extends AbstractMediatorFactory {
@@ -40,6 +44,26 @@ public class EICacheMediatorFactory extends AbstractMediatorFactory {
      */
     private static final QName ATT_TIMEOUT = new QName("timeout");
 
+    /**
+     * QName of the stale while revalidate window
+     */
+    private static final QName ATT_STALE_WHILE_REVALIDATE = new QName("staleWhileRevalidate");
+
+    /**
+     * QName of the window in which expired responses are revalidated with conditional requests
+     */
+    private static final QName ATT_REVALIDATION_WINDOW = new QName("revalidationWindow");
+
+    /**
+     * QName of the raw response mode
+     */
+    private static final QName ATT_RAW_RESPONSE = new QName("rawResponse");
+
+    /**
+     * QName of whether a gzip variant of each cached body is kept
+     */
+    private static final QName ATT_GZIP_VARIANTS = new QName("gzipVariants");
+
     /**
      * QName of the collector
      */
@@ -86,11 +110,84 @@ public class EICacheMediatorFactory extends AbstractMediatorFactory {
     private static final QName HEADERS_TO_EXCLUDE_IN_HASH_Q = new QName(XMLConfigConstants.SYNAPSE_NAMESPACE,
                                                                         "headersToExcludeInHash");
 
+    /**
+     * QName of the jsonFieldsToIgnore
+     */
+    private static final QName JSON_FIELDS_TO_IGNORE_Q = new QName(XMLConfigConstants.SYNAPSE_NAMESPACE,
+                                                                   "jsonFieldsToIgnore");
+
+    /**
+     * QName of the URL normalization
+     */
+    private static final QName URL_NORMALIZATION_Q = new QName(XMLConfigConstants.SYNAPSE_NAMESPACE,
+                                                               "urlNormalization");
+
+    /**
+     * QName of whether the query parameters are sorted
+     */
+    private static final QName ATT_SORT_QUERY = new QName("sortQuery");
+
+    /**
+     * QName of whether the fragment is stripped
+     */
+    private static final QName ATT_STRIP_FRAGMENT = new QName("stripFragment");
+
+    /**
+     * QName of the query parameters to be dropped
+     */
+    private static final QName ATT_IGNORE_PARAMETERS = new QName("ignoreParameters");
+
+    /**
+     * QName of the key template
+     */
+    private static final QName KEY_TEMPLATE_Q = new QName(XMLConfigConstants.SYNAPSE_NAMESPACE, "keyTemplate");
+
+    /**
+     * QName of the query parameters of the key template
+     */
+    private static final QName QUERY_PARAMETERS_Q = new QName(XMLConfigConstants.SYNAPSE_NAMESPACE,
+                                                              "queryParameters");
+
+    /**
+     * QName of the headers of the key template
+     */
+    private static final QName HEADERS_Q = new QName(XMLConfigConstants.SYNAPSE_NAMESPACE, "headers");
+
+    /**
+     * QName of an XPath expression of the key template
+     */
+    private static final QName BODY_XPATH_Q = new QName(XMLConfigConstants.SYNAPSE_NAMESPACE, "bodyXPath");
+
+    /**
+     * QName of a JSON path expression of the key template
+     */
+    private static final QName BODY_JSON_PATH_Q = new QName(XMLConfigConstants.SYNAPSE_NAMESPACE, "bodyJsonPath");
+
+    /**
+     * QName of the expression of a body selector of the key template
+     */
+    private static final QName ATT_EXPRESSION = new QName("expression");
+
     /**
      * QName of the response codes to include when hashing
      */
     private static final QName RESPONSE_CODES_Q = new QName(XMLConfigConstants.SYNAPSE_NAMESPACE, "responseCodes");
 
+    /**
+     * QName of the element that enables deriving the timeout of a response from its caching headers
+     */
+    private static final QName CACHE_CONTROL_Q = new QName(XMLConfigConstants.SYNAPSE_NAMESPACE, "cacheControl");
+
+    /**
+     * QName of the minimum timeout
+     */
+    private static final QName ATT_MIN_TIMEOUT = new QName("minTimeout");
+
+    /**
+     * QName of the maximum timeout
+     */
+    private static final QName ATT_MAX_TIMEOUT = new QName("maxTimeout");
+
     /**
      * QName of the digest generator
      */
@@ -101,6 +198,71 @@ public class EICacheMediatorFactory extends AbstractMediatorFactory {
      */
     private static final QName ATT_HASH_GENERATOR = new QName("hashGenerator");
 
+    /**
+     * QName of the request coalescing configuration
+     */
+    private static final QName COALESCING_Q = new QName(XMLConfigConstants.SYNAPSE_NAMESPACE, "coalescing");
+
+    /**
+     * QName of the maximum time a request waits for an in-flight request with the same hash
+     */
+    private static final QName ATT_MAX_WAIT = new QName("maxWait");
+
+    /**
+     * QName of the maximum number of requests that wait for the same in-flight request
+     */
+    private static final QName ATT_MAX_WAITERS = new QName("maxWaiters");
+
+    /**
+     * QName of the maximum number of requests that wait for any in-flight request
+     */
+    private static final QName ATT_MAX_TOTAL_WAITERS = new QName("maxTotalWaiters");
+
+    /**
+     * QName of the admission filter configuration
+     */
+    private static final QName ADMISSION_Q = new QName(XMLConfigConstants.SYNAPSE_NAMESPACE, "admission");
+
+    /**
+     * QName of the number of times a request hash must have been seen for its response to be cached
+     */
+    private static final QName ATT_MIN_FREQUENCY = new QName("minFrequency");
+
+    /**
+     * QName of the number of distinct request hashes tracked by the admission filter
+     */
+    private static final QName ATT_TRACKED_REQUESTS = new QName("trackedRequests");
+
+    /**
+     * QName of the configuration of storing the responses off the response path
+     */
+    private static final QName ASYNC_STORE_Q = new QName(XMLConfigConstants.SYNAPSE_NAMESPACE, "asyncStore");
+
+    /**
+     * QName of the number of threads that store the responses
+     */
+    private static final QName ATT_THREADS = new QName("threads");
+
+    /**
+     * QName of the maximum number of responses waiting to be stored
+     */
+    private static final QName ATT_QUEUE_SIZE = new QName("queueSize");
+
+    /**
+     * QName of the compression of the cached payloads
+     */
+    private static final QName COMPRESSION_Q = new QName(XMLConfigConstants.SYNAPSE_NAMESPACE, "compression");
+
+    /**
+     * QName of the codec that compresses the payloads
+     */
+    private static final QName ATT_CODEC = new QName("codec");
+
+    /**
+     * QName of the minimum size of the payloads to be compressed
+     */
+    private static final QName ATT_THRESHOLD = new QName("threshold");
+
     /**
      * QName of the cache implementation
      */
@@ -112,10 +274,29 @@ public class EICacheMediatorFactory extends AbstractMediatorFactory {
     private static final QName ATT_SIZE = new QName("maxSize");
 
     /**
-     * Stores certain parameters that are common to both Collector and Finder instances of the cache mediator
+     * QName of the maximum number of bytes the cached responses may occupy
      */
-    private CacheStore cacheStore;
+    private static final QName ATT_MAX_BYTES = new QName("maxBytes");
 
+    /**
+     * QName of the number of bytes of direct memory used to hold the cached payloads
+     */
+    private static final QName ATT_OFF_HEAP_CAPACITY = new QName("offHeapCapacity");
+
+    /**
+     * QName of the disk tier of the cache implementation
+     */
+    private static final QName DISK_TIER_Q = new QName(XMLConfigConstants.SYNAPSE_NAMESPACE, "diskTier");
+
+    /**
+     * QName of the directory of the disk tier
+     */
+    private static final QName ATT_DIRECTORY = new QName("directory");
+
+    /**
+     * QName of the size of a segment file of the disk tier
+     */
+    private static final QName ATT_SEGMENT_SIZE = new QName("segmentSize");
 
     /**
      * {@inheritDoc}
@@ -128,24 +309,19 @@ public class EICacheMediatorFactory extends AbstractMediatorFactory {
 
         EICacheMediator cache = new EICacheMediator();
         OMAttribute idAttr = elem.getAttribute(ATT_ID);
-        String id;
-        //get cache store using the id of the mediator
-        if (idAttr != null && (id = idAttr.getAttributeValue()) != null) {
-            cacheStore = CacheStoreManager.get(id);
+        if (idAttr != null && idAttr.getAttributeValue() != null) {
             cache.setId(idAttr.getAttributeValue());
-        } else {
-            cacheStore = CacheStoreManager.get("");
         }
 
-        cache.setCacheStore(cacheStore);
-
         OMAttribute collectorAttr = elem.getAttribute(ATT_COLLECTOR);
         if (collectorAttr != null && collectorAttr.getAttributeValue() != null &&
                 "true".equals(collectorAttr.getAttributeValue())) {
+            // the collector resolves the CacheStore of the finder when it handles its first response
             cache.setCollector(true);
-            cache.initPattern();
         } else {
             cache.setCollector(false);
+            //the parameters common to both the collector and the finder are collected in to the cache store
+            CacheStore.Builder cacheStore = new CacheStore.Builder();
 
             OMAttribute timeoutAttr = elem.getAttribute(ATT_TIMEOUT);
             if (timeoutAttr != null && timeoutAttr.getAttributeValue() != null) {
@@ -154,12 +330,37 @@ public class EICacheMediatorFactory extends AbstractMediatorFactory {
                 cache.setTimeout(CachingConstants.DEFAULT_TIMEOUT);
             }
 
+            OMAttribute staleWhileRevalidateAttr = elem.getAttribute(ATT_STALE_WHILE_REVALIDATE);
+            if (staleWhileRevalidateAttr != null && staleWhileRevalidateAttr.getAttributeValue() != null) {
+                cache.setStaleWhileRevalidate(Long.parseLong(staleWhileRevalidateAttr.getAttributeValue()));
+            }
+
+            OMAttribute revalidationWindowAttr = elem.getAttribute(ATT_REVALIDATION_WINDOW);
+            if (revalidationWindowAttr != null && revalidationWindowAttr.getAttributeValue() != null) {
+                cache.setRevalidationWindow(Long.parseLong(revalidationWindowAttr.getAttributeValue()));
+            }
+
+            OMAttribute rawResponseAttr = elem.getAttribute(ATT_RAW_RESPONSE);
+            if (rawResponseAttr != null && rawResponseAttr.getAttributeValue() != null) {
+                cache.setRawResponse(Boolean.parseBoolean(rawResponseAttr.getAttributeValue()));
+            }
+
+            OMAttribute gzipVariantsAttr = elem.getAttribute(ATT_GZIP_VARIANTS);
+            if (gzipVariantsAttr != null && gzipVariantsAttr.getAttributeValue() != null) {
+                cache.setGzipVariants(Boolean.parseBoolean(gzipVariantsAttr.getAttributeValue()));
+                if (cache.isGzipVariants() && !cache.isRawResponse()) {
+                    handleException("The gzip variants are only sent in the raw response mode, hence gzipVariants " +
+                                            "requires rawResponse");
+                }
+            }
+
             OMAttribute maxMessageSizeAttr = elem.getAttribute(ATT_MAX_MSG_SIZE);
             if (maxMessageSizeAttr != null && maxMessageSizeAttr.getAttributeValue() != null) {
                 cacheStore.setMaxMessageSize(Integer.parseInt(maxMessageSizeAttr.getAttributeValue()));
             }
 
             String className = null;
+            KeyTemplate keyTemplate = null;
             OMElement protocolElem = elem.getFirstChildWithName(PROTOCOL_Q);
             Map<String, Object> props = new HashMap<>();
             if (protocolElem != null) {
@@ -203,6 +404,29 @@ public class EICacheMediatorFactory extends AbstractMediatorFactory {
                             cache.setHeadersToExcludeInHash("");
                         }
 
+                        OMElement jsonFieldsToIgnore = protocolElem.getFirstChildWithName(JSON_FIELDS_TO_IGNORE_Q);
+                        if (jsonFieldsToIgnore != null) {
+                            String[] fields = jsonFieldsToIgnore.getText().split(",");
+                            for (int i = 0; i < fields.length; i++) {
+                                fields[i] = fields[i].trim();
+                            }
+                            cache.setJsonFieldsToIgnore(fields);
+                        }
+
+                        OMElement urlNormalizationElem = protocolElem.getFirstChildWithName(URL_NORMALIZATION_Q);
+                        if (urlNormalizationElem != null) {
+                            String ignoreParameters = urlNormalizationElem.getAttributeValue(ATT_IGNORE_PARAMETERS);
+                            cache.setUrlNormalizer(new UrlNormalizer(
+                                    Boolean.parseBoolean(urlNormalizationElem.getAttributeValue(ATT_SORT_QUERY)),
+                                    Boolean.parseBoolean(urlNormalizationElem.getAttributeValue(ATT_STRIP_FRAGMENT)),
+                                    ignoreParameters != null ? getNames(ignoreParameters) : new String[0]));
+                        }
+
+                        OMElement keyTemplateElem = protocolElem.getFirstChildWithName(KEY_TEMPLATE_Q);
+                        if (keyTemplateElem != null) {
+                            keyTemplate = createKeyTemplate(keyTemplateElem);
+                        }
+
                         OMElement responseElem = protocolElem.getFirstChildWithName(RESPONSE_CODES_Q);
                         if (responseElem != null) {
                             String responses = responseElem.getText();
@@ -210,7 +434,28 @@ public class EICacheMediatorFactory extends AbstractMediatorFactory {
                                 cacheStore.setResponseCodes(responses);
                             }
                         }
+
+                        OMElement cacheControlElem = protocolElem.getFirstChildWithName(CACHE_CONTROL_Q);
+                        if (cacheControlElem != null) {
+                            cacheStore.setHonorCacheControl(true);
+                            long minTimeout = 0;
+                            long maxTimeout = -1;
+                            OMAttribute minTimeoutAttr = cacheControlElem.getAttribute(ATT_MIN_TIMEOUT);
+                            if (minTimeoutAttr != null && minTimeoutAttr.getAttributeValue() != null) {
+                                minTimeout = Long.parseLong(minTimeoutAttr.getAttributeValue());
+                            }
+                            OMAttribute maxTimeoutAttr = cacheControlElem.getAttribute(ATT_MAX_TIMEOUT);
+                            if (maxTimeoutAttr != null && maxTimeoutAttr.getAttributeValue() != null) {
+                                maxTimeout = Long.parseLong(maxTimeoutAttr.getAttributeValue());
+                            }
+                            if (maxTimeout > -1 && maxTimeout < minTimeout) {
+                                handleException("The maxTimeout of cacheControl cannot be less than its minTimeout");
+                            }
+                            cacheStore.setMinTimeout(minTimeout).setMaxTimeout(maxTimeout);
+                        }
                         props.put("headers-to-exclude", cache.getHeadersToExcludeInHash());
+                        props.put("json-fields-to-ignore", cache.getJsonFieldsToIgnore());
+                        props.put("url-normalizer", cache.getUrlNormalizer());
                     }
                 }
             } else {
@@ -219,7 +464,12 @@ public class EICacheMediatorFactory extends AbstractMediatorFactory {
                     className = hashGeneratorAttr.getAttributeValue();
                 }
             }
-            if (className != null && !"".equals(className)) {
+            if (keyTemplate != null) {
+                if (className != null && !"".equals(className)) {
+                    handleException("A keyTemplate cannot be used together with a hashGenerator");
+                }
+                cache.setDigestGenerator(keyTemplate);
+            } else if (className != null && !"".equals(className)) {
                 try {
                     Class generator = Class.forName(className);
                     Object o = generator.newInstance();
@@ -242,6 +492,13 @@ public class EICacheMediatorFactory extends AbstractMediatorFactory {
             }
             cache.getDigestGenerator().init(props);
 
+            try {
+                cache.setCacheStore(cacheStore.build());
+            } catch (PatternSyntaxException e) {
+                handleException("Invalid regex expression for the response codes : " + e.getPattern(), e);
+            }
+            CacheStoreManager.put(cache.getId(), cache.getCacheStore());
+
             String val;
             OMElement onCacheHitElem = elem.getFirstChildWithName(ON_CACHE_HIT_Q);
             if (onCacheHitElem != null) {
@@ -265,6 +522,81 @@ public class EICacheMediatorFactory extends AbstractMediatorFactory {
                 }
             }
 
+            OMElement coalescingElem = elem.getFirstChildWithName(COALESCING_Q);
+            if (coalescingElem != null) {
+                cache.setCoalescing(true);
+                OMAttribute maxWaitAttr = coalescingElem.getAttribute(ATT_MAX_WAIT);
+                if (maxWaitAttr != null && maxWaitAttr.getAttributeValue() != null) {
+                    cache.setCoalescingMaxWait(Long.parseLong(maxWaitAttr.getAttributeValue()));
+                }
+                OMAttribute maxWaitersAttr = coalescingElem.getAttribute(ATT_MAX_WAITERS);
+                if (maxWaitersAttr != null && maxWaitersAttr.getAttributeValue() != null) {
+                    cache.setCoalescingMaxWaiters(Integer.parseInt(maxWaitersAttr.getAttributeValue()));
+                }
+                OMAttribute maxTotalWaitersAttr = coalescingElem.getAttribute(ATT_MAX_TOTAL_WAITERS);
+                if (maxTotalWaitersAttr != null && maxTotalWaitersAttr.getAttributeValue() != null) {
+                    cache.setCoalescingMaxTotalWaiters(Integer.parseInt(maxTotalWaitersAttr.getAttributeValue()));
+                }
+                if (cache.getCoalescingMaxWaiters() < 0 || cache.getCoalescingMaxTotalWaiters() < 0) {
+                    handleException("The maxWaiters and the maxTotalWaiters of coalescing must not be negative");
+                }
+            }
+
+            OMElement admissionElem = elem.getFirstChildWithName(ADMISSION_Q);
+            if (admissionElem != null) {
+                OMAttribute minFrequencyAttr = admissionElem.getAttribute(ATT_MIN_FREQUENCY);
+                int minFrequency = 2;
+                if (minFrequencyAttr != null && minFrequencyAttr.getAttributeValue() != null) {
+                    minFrequency = Integer.parseInt(minFrequencyAttr.getAttributeValue());
+                }
+                if (minFrequency < 1 || minFrequency > AdmissionFilter.MAX_MIN_FREQUENCY) {
+                    handleException("The minFrequency of admission must be from 1 to " +
+                                            AdmissionFilter.MAX_MIN_FREQUENCY);
+                }
+                cache.setAdmissionMinFrequency(minFrequency);
+                OMAttribute trackedRequestsAttr = admissionElem.getAttribute(ATT_TRACKED_REQUESTS);
+                if (trackedRequestsAttr != null && trackedRequestsAttr.getAttributeValue() != null) {
+                    cache.setAdmissionTrackedRequests(Long.parseLong(trackedRequestsAttr.getAttributeValue()));
+                }
+            }
+
+            OMElement asyncStoreElem = elem.getFirstChildWithName(ASYNC_STORE_Q);
+            if (asyncStoreElem != null) {
+                cache.setAsyncStoreThreads(CachingConstants.DEFAULT_ASYNC_STORE_THREADS);
+                OMAttribute threadsAttr = asyncStoreElem.getAttribute(ATT_THREADS);
+                if (threadsAttr != null && threadsAttr.getAttributeValue() != null) {
+                    cache.setAsyncStoreThreads(Integer.parseInt(threadsAttr.getAttributeValue()));
+                }
+                OMAttribute queueSizeAttr = asyncStoreElem.getAttribute(ATT_QUEUE_SIZE);
+                if (queueSizeAttr != null && queueSizeAttr.getAttributeValue() != null) {
+                    cache.setAsyncStoreQueueSize(Integer.parseInt(queueSizeAttr.getAttributeValue()));
+                }
+                if (cache.getAsyncStoreThreads() < 1 || cache.getAsyncStoreQueueSize() < 1) {
+                    handleException("The threads and the queueSize of asyncStore must be positive");
+                }
+            }
+
+            OMElement compressionElem = elem.getFirstChildWithName(COMPRESSION_Q);
+            if (compressionElem != null) {
+                cache.setCompressionCodec(CachingConstants.LZ4_COMPRESSION_CODEC);
+                OMAttribute codecAttr = compressionElem.getAttribute(ATT_CODEC);
+                if (codecAttr != null && codecAttr.getAttributeValue() != null) {
+                    String codec = codecAttr.getAttributeValue().trim();
+                    if (!CachingConstants.LZ4_COMPRESSION_CODEC.equals(codec) &&
+                            !CachingConstants.DEFLATE_COMPRESSION_CODEC.equals(codec)) {
+                        handleException("Unknown compression codec : " + codec);
+                    }
+                    cache.setCompressionCodec(codec);
+                }
+                OMAttribute thresholdAttr = compressionElem.getAttribute(ATT_THRESHOLD);
+                if (thresholdAttr != null && thresholdAttr.getAttributeValue() != null) {
+                    cache.setCompressionThreshold(Integer.parseInt(thresholdAttr.getAttributeValue()));
+                    if (cache.getCompressionThreshold() < 0) {
+                        handleException("The threshold of compression must not be negative");
+                    }
+                }
+            }
+
             OMElement implElem = elem.getFirstChildWithName(IMPLEMENTATION_Q);
             if (implElem != null) {
                 OMAttribute sizeAttr = implElem.getAttribute(ATT_SIZE);
@@ -272,11 +604,124 @@ public class EICacheMediatorFactory extends AbstractMediatorFactory {
                         sizeAttr.getAttributeValue() != null) {
                     cache.setInMemoryCacheSize(Integer.parseInt(sizeAttr.getAttributeValue()));
                 }
+                OMAttribute maxBytesAttr = implElem.getAttribute(ATT_MAX_BYTES);
+                if (maxBytesAttr != null && maxBytesAttr.getAttributeValue() != null) {
+                    if (cache.getInMemoryCacheSize() > -1) {
+                        handleException("Only one of maxSize and maxBytes can be specified for the cache " +
+                                                "implementation");
+                    }
+                    cache.setInMemoryCacheBytes(Long.parseLong(maxBytesAttr.getAttributeValue()));
+                }
+                OMAttribute offHeapCapacityAttr = implElem.getAttribute(ATT_OFF_HEAP_CAPACITY);
+                if (offHeapCapacityAttr != null && offHeapCapacityAttr.getAttributeValue() != null) {
+                    if (cache.getInMemoryCacheSize() > -1 || cache.getInMemoryCacheBytes() > -1) {
+                        handleException("The cache implementation with an offHeapCapacity is bounded by that " +
+                                                "capacity, hence maxSize and maxBytes cannot be specified");
+                    }
+                    cache.setOffHeapCapacity(Long.parseLong(offHeapCapacityAttr.getAttributeValue()));
+                }
+
+                OMAttribute engineAttr = implElem.getAttribute(ATT_TYPE);
+                String engine = engineAttr != null ? engineAttr.getAttributeValue() : null;
+                if (engine == null || "".equals(engine) || "memory".equals(engine)) {
+                    // an offHeapCapacity alone selects the off-heap engine
+                    engine = cache.getOffHeapCapacity() > -1 ? CachingConstants.OFF_HEAP_CACHE_ENGINE :
+                            CachingConstants.DEFAULT_CACHE_ENGINE;
+                }
+                if (CachingConstants.OFF_HEAP_CACHE_ENGINE.equals(engine)) {
+                    if (cache.getOffHeapCapacity() < 0) {
+                        handleException("The offHeapCapacity must be specified for the offHeap cache implementation");
+                    }
+                } else if (CachingConstants.GUAVA_CACHE_ENGINE.equals(engine) ||
+                        CachingConstants.TINY_LFU_CACHE_ENGINE.equals(engine)) {
+                    if (cache.getOffHeapCapacity() > -1) {
+                        handleException("An offHeapCapacity can only be specified for the offHeap cache " +
+                                                "implementation");
+                    }
+                } else {
+                    handleException("Unknown cache implementation type : " + engine);
+                }
+                cache.setCacheEngine(engine);
+
+                OMElement diskTierElem = implElem.getFirstChildWithName(DISK_TIER_Q);
+                if (diskTierElem != null) {
+                    OMAttribute directoryAttr = diskTierElem.getAttribute(ATT_DIRECTORY);
+                    if (directoryAttr == null || directoryAttr.getAttributeValue() == null) {
+                        handleException("The directory of the disk tier must be specified");
+                    } else {
+                        cache.setDiskCacheDirectory(directoryAttr.getAttributeValue());
+                    }
+                    OMAttribute segmentSizeAttr = diskTierElem.getAttribute(ATT_SEGMENT_SIZE);
+                    if (segmentSizeAttr != null && segmentSizeAttr.getAttributeValue() != null) {
+                        cache.setDiskSegmentSize(Integer.parseInt(segmentSizeAttr.getAttributeValue()));
+                    }
+                    OMAttribute diskSizeAttr = diskTierElem.getAttribute(ATT_SIZE);
+                    if (diskSizeAttr != null && diskSizeAttr.getAttributeValue() != null) {
+                        cache.setDiskCacheSize(Long.parseLong(diskSizeAttr.getAttributeValue()));
+                    }
+                }
             }
         }
         return cache;
     }
 
+    /**
+     * Compiles the key template of the cache from its configuration
+     *
+     * @param keyTemplateElem the keyTemplate element
+     * @return the compiled key template
+     */
+    private KeyTemplate createKeyTemplate(OMElement keyTemplateElem) {
+        KeyTemplate keyTemplate = new KeyTemplate(getNames(keyTemplateElem.getFirstChildWithName(QUERY_PARAMETERS_Q)),
+                                                  getNames(keyTemplateElem.getFirstChildWithName(HEADERS_Q)));
+        Iterator xpaths = keyTemplateElem.getChildrenWithName(BODY_XPATH_Q);
+        while (xpaths.hasNext()) {
+            OMElement xpathElem = (OMElement) xpaths.next();
+            try {
+                keyTemplate.addBodyXPath(SynapseXPathFactory.getSynapseXPath(xpathElem, ATT_EXPRESSION));
+            } catch (JaxenException e) {
+                handleException("Invalid XPath expression in the keyTemplate : " +
+                                        xpathElem.getAttributeValue(ATT_EXPRESSION), e);
+            }
+        }
+        Iterator jsonPaths = keyTemplateElem.getChildrenWithName(BODY_JSON_PATH_Q);
+        while (jsonPaths.hasNext()) {
+            String expression = ((OMElement) jsonPaths.next()).getAttributeValue(ATT_EXPRESSION);
+            if (expression == null) {
+                handleException("The expression of a bodyJsonPath of the keyTemplate must be specified");
+            }
+            try {
+                keyTemplate.addBodyJsonPath(expression);
+            } catch (CachingException e) {
+                handleException(e.getMessage(), e);
+            }
+        }
+        return keyTemplate;
+    }
+
+    /**
+     * @param namesElem the element with a comma separated list of names, or null
+     * @return the names in the list
+     */
+    private static String[] getNames(OMElement namesElem) {
+        return namesElem != null ? getNames(namesElem.getText()) : new String[0];
+    }
+
+    /**
+     * @param namesText a comma separated list of names
+     * @return the names in the list
+     */
+    private static String[] getNames(String namesText) {
+        if (namesText.trim().isEmpty()) {
+            return new String[0];
+        }
+        String[] names = namesText.split(",");
+        for (int i = 0; i < names.length; i++) {
+            names[i] = names[i].trim();
+        }
+        return names;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -21,6 +21,8 @@ import org.apache.synapse.Mediator;
 import org.apache.synapse.config.xml.AbstractMediatorSerializer;
 import org.apache.synapse.config.xml.MediatorSerializer;
 import org.apache.synapse.config.xml.MediatorSerializerFinder;
+import org.apache.synapse.config.xml.SynapseXPathSerializer;
+import org.apache.synapse.util.xpath.SynapseXPath;
 
 import java.util.List;
 
@@ -29,11 +31,6 @@ import java.util.List;
  */
 public class EICacheMediatorSerializer extends AbstractMediatorSerializer {
 
-    /**
-     * Stores certain parameters that are common to both Collector and Finder instances of the cache mediator
-     */
-    private CacheStore cacheStore;
-
     /**
      * {@inheritDoc}
      */
@@ -46,11 +43,9 @@ public class EICacheMediatorSerializer extends AbstractMediatorSerializer {
         OMElement cacheElem = fac.createOMElement(CachingConstants.CACHE_LOCAL_NAME, synNS);
         saveTracingState(cacheElem, mediator);
 
+        CacheStore cacheStore = cacheMediator.getCacheStore();
         if (cacheMediator.getId() != null) {
-            cacheStore = CacheStoreManager.get(cacheMediator.getId());
             cacheElem.addAttribute(fac.createOMAttribute("id", nullNS, cacheMediator.getId()));
-        } else {
-            cacheStore = CacheStoreManager.get("");
         }
 
         if (cacheMediator.isCollector()) {
@@ -63,6 +58,24 @@ public class EICacheMediatorSerializer extends AbstractMediatorSerializer {
                         fac.createOMAttribute("timeout", nullNS, Long.toString(cacheMediator.getTimeout())));
             }
 
+            if (cacheMediator.getStaleWhileRevalidate() > 0) {
+                cacheElem.addAttribute(fac.createOMAttribute(
+                        "staleWhileRevalidate", nullNS, Long.toString(cacheMediator.getStaleWhileRevalidate())));
+            }
+
+            if (cacheMediator.getRevalidationWindow() > 0) {
+                cacheElem.addAttribute(fac.createOMAttribute(
+                        "revalidationWindow", nullNS, Long.toString(cacheMediator.getRevalidationWindow())));
+            }
+
+            if (cacheMediator.isRawResponse()) {
+                cacheElem.addAttribute(fac.createOMAttribute("rawResponse", nullNS, "true"));
+            }
+
+            if (cacheMediator.isGzipVariants()) {
+                cacheElem.addAttribute(fac.createOMAttribute("gzipVariants", nullNS, "true"));
+            }
+
             if (cacheStore.getMaxMessageSize() != 0) {
                 cacheElem.addAttribute(
                         fac.createOMAttribute("maxMessageSize", nullNS,
@@ -123,14 +136,56 @@ public class EICacheMediatorSerializer extends AbstractMediatorSerializer {
                     protocolElem.addChild(headerElem);
                 }
 
+                String[] jsonFields = cacheMediator.getJsonFieldsToIgnore();
+                if (jsonFields.length > 0) {
+                    StringBuilder field = new StringBuilder();
+                    for (int i = 0; i < jsonFields.length; i++) {
+                        if (i != jsonFields.length - 1) {
+                            field.append(jsonFields[i]).append(",");
+                        } else {
+                            field.append(jsonFields[i]);
+                        }
+                    }
+                    OMElement jsonFieldsElem = fac.createOMElement("jsonFieldsToIgnore", synNS);
+                    jsonFieldsElem.setText(field.toString());
+                    protocolElem.addChild(jsonFieldsElem);
+                }
+
+                UrlNormalizer urlNormalizer = cacheMediator.getUrlNormalizer();
+                if (urlNormalizer != null) {
+                    OMElement urlNormalizationElem = fac.createOMElement("urlNormalization", synNS);
+                    urlNormalizationElem.addAttribute(fac.createOMAttribute(
+                            "sortQuery", nullNS, Boolean.toString(urlNormalizer.isSortQuery())));
+                    urlNormalizationElem.addAttribute(fac.createOMAttribute(
+                            "stripFragment", nullNS, Boolean.toString(urlNormalizer.isStripFragment())));
+                    if (urlNormalizer.getIgnoredParameters().length > 0) {
+                        urlNormalizationElem.addAttribute(fac.createOMAttribute(
+                                "ignoreParameters", nullNS, join(urlNormalizer.getIgnoredParameters())));
+                    }
+                    protocolElem.addChild(urlNormalizationElem);
+                }
+
                 String responseCodes = cacheStore.getResponseCodes();
                 OMElement responseCodesElem = fac.createOMElement("responseCodes", synNS);
                 responseCodesElem.setText(responseCodes);
                 protocolElem.addChild(responseCodesElem);
 
+                if (cacheStore.isHonorCacheControl()) {
+                    OMElement cacheControlElem = fac.createOMElement("cacheControl", synNS);
+                    cacheControlElem.addAttribute(
+                            fac.createOMAttribute("minTimeout", nullNS, Long.toString(cacheStore.getMinTimeout())));
+                    if (cacheStore.getMaxTimeout() > -1) {
+                        cacheControlElem.addAttribute(fac.createOMAttribute(
+                                "maxTimeout", nullNS, Long.toString(cacheStore.getMaxTimeout())));
+                    }
+                    protocolElem.addChild(cacheControlElem);
+                }
+
             }
 
-            if (cacheMediator.getDigestGenerator() != null) {
+            if (cacheMediator.getDigestGenerator() instanceof KeyTemplate) {
+                protocolElem.addChild(serializeKeyTemplate((KeyTemplate) cacheMediator.getDigestGenerator()));
+            } else if (cacheMediator.getDigestGenerator() != null) {
                 OMElement hashGeneratorElem = fac.createOMElement("hashGenerator", synNS);
                 hashGeneratorElem.setText(cacheMediator.getDigestGenerator().getClass().getName());
                 protocolElem.addChild(hashGeneratorElem);
@@ -138,16 +193,121 @@ public class EICacheMediatorSerializer extends AbstractMediatorSerializer {
 
             cacheElem.addChild(protocolElem);
 
-            if (cacheMediator.getInMemoryCacheSize() > -1) {
+            if (cacheMediator.isCoalescing()) {
+                OMElement coalescingElem = fac.createOMElement("coalescing", synNS);
+                coalescingElem.addAttribute(fac.createOMAttribute("maxWait", nullNS,
+                                                                  Long.toString(cacheMediator.getCoalescingMaxWait())));
+                coalescingElem.addAttribute(fac.createOMAttribute(
+                        "maxWaiters", nullNS, Integer.toString(cacheMediator.getCoalescingMaxWaiters())));
+                coalescingElem.addAttribute(fac.createOMAttribute(
+                        "maxTotalWaiters", nullNS, Integer.toString(cacheMediator.getCoalescingMaxTotalWaiters())));
+                cacheElem.addChild(coalescingElem);
+            }
+
+            if (cacheMediator.getCompressionCodec() != null) {
+                OMElement compressionElem = fac.createOMElement("compression", synNS);
+                compressionElem.addAttribute(fac.createOMAttribute(
+                        "codec", nullNS, cacheMediator.getCompressionCodec()));
+                compressionElem.addAttribute(fac.createOMAttribute(
+                        "threshold", nullNS, Integer.toString(cacheMediator.getCompressionThreshold())));
+                cacheElem.addChild(compressionElem);
+            }
+
+            if (cacheMediator.getAsyncStoreThreads() > 0) {
+                OMElement asyncStoreElem = fac.createOMElement("asyncStore", synNS);
+                asyncStoreElem.addAttribute(fac.createOMAttribute(
+                        "threads", nullNS, Integer.toString(cacheMediator.getAsyncStoreThreads())));
+                asyncStoreElem.addAttribute(fac.createOMAttribute(
+                        "queueSize", nullNS, Integer.toString(cacheMediator.getAsyncStoreQueueSize())));
+                cacheElem.addChild(asyncStoreElem);
+            }
+
+            if (cacheMediator.getAdmissionMinFrequency() > 0) {
+                OMElement admissionElem = fac.createOMElement("admission", synNS);
+                admissionElem.addAttribute(fac.createOMAttribute(
+                        "minFrequency", nullNS, Integer.toString(cacheMediator.getAdmissionMinFrequency())));
+                if (cacheMediator.getAdmissionTrackedRequests() > -1) {
+                    admissionElem.addAttribute(fac.createOMAttribute(
+                            "trackedRequests", nullNS, Long.toString(cacheMediator.getAdmissionTrackedRequests())));
+                }
+                cacheElem.addChild(admissionElem);
+            }
+
+            if (!CachingConstants.DEFAULT_CACHE_ENGINE.equals(cacheMediator.getCacheEngine()) ||
+                    cacheMediator.getInMemoryCacheSize() > -1 || cacheMediator.getInMemoryCacheBytes() > -1 ||
+                    cacheMediator.getOffHeapCapacity() > -1 || cacheMediator.getDiskCacheDirectory() != null) {
                 OMElement implElem = fac.createOMElement("implementation", synNS);
-                implElem.addAttribute(fac.createOMAttribute("maxSize", nullNS,
-                                                            Integer.toString(cacheMediator.getInMemoryCacheSize())));
+                implElem.addAttribute(fac.createOMAttribute("type", nullNS, cacheMediator.getCacheEngine()));
+                if (cacheMediator.getInMemoryCacheSize() > -1) {
+                    implElem.addAttribute(fac.createOMAttribute(
+                            "maxSize", nullNS, Integer.toString(cacheMediator.getInMemoryCacheSize())));
+                }
+                if (cacheMediator.getInMemoryCacheBytes() > -1) {
+                    implElem.addAttribute(fac.createOMAttribute(
+                            "maxBytes", nullNS, Long.toString(cacheMediator.getInMemoryCacheBytes())));
+                }
+                if (cacheMediator.getOffHeapCapacity() > -1) {
+                    implElem.addAttribute(fac.createOMAttribute(
+                            "offHeapCapacity", nullNS, Long.toString(cacheMediator.getOffHeapCapacity())));
+                }
+                if (cacheMediator.getDiskCacheDirectory() != null) {
+                    OMElement diskTierElem = fac.createOMElement("diskTier", synNS);
+                    diskTierElem.addAttribute(
+                            fac.createOMAttribute("directory", nullNS, cacheMediator.getDiskCacheDirectory()));
+                    diskTierElem.addAttribute(fac.createOMAttribute(
+                            "segmentSize", nullNS, Integer.toString(cacheMediator.getDiskSegmentSize())));
+                    diskTierElem.addAttribute(
+                            fac.createOMAttribute("maxSize", nullNS, Long.toString(cacheMediator.getDiskCacheSize())));
+                    implElem.addChild(diskTierElem);
+                }
                 cacheElem.addChild(implElem);
             }
         }
         return cacheElem;
     }
 
+    /**
+     * Creates the XML representation of the key template
+     *
+     * @param keyTemplate the key template
+     * @return the keyTemplate element
+     */
+    private OMElement serializeKeyTemplate(KeyTemplate keyTemplate) {
+        OMElement keyTemplateElem = fac.createOMElement("keyTemplate", synNS);
+        if (keyTemplate.getQueryParameters().length > 0) {
+            OMElement queryParametersElem = fac.createOMElement("queryParameters", synNS);
+            queryParametersElem.setText(join(keyTemplate.getQueryParameters()));
+            keyTemplateElem.addChild(queryParametersElem);
+        }
+        if (keyTemplate.getHeaders().length > 0) {
+            OMElement headersElem = fac.createOMElement("headers", synNS);
+            headersElem.setText(join(keyTemplate.getHeaders()));
+            keyTemplateElem.addChild(headersElem);
+        }
+        for (SynapseXPath xpath : keyTemplate.getBodyXPaths()) {
+            OMElement xpathElem = fac.createOMElement("bodyXPath", synNS);
+            SynapseXPathSerializer.serializeXPath(xpath, xpathElem, "expression");
+            keyTemplateElem.addChild(xpathElem);
+        }
+        for (String jsonPath : keyTemplate.getBodyJsonPaths()) {
+            OMElement jsonPathElem = fac.createOMElement("bodyJsonPath", synNS);
+            jsonPathElem.addAttribute(fac.createOMAttribute("expression", nullNS, jsonPath));
+            keyTemplateElem.addChild(jsonPathElem);
+        }
+        return keyTemplateElem;
+    }
+
+    private static String join(String[] names) {
+        StringBuilder joined = new StringBuilder();
+        for (int i = 0; i < names.length; i++) {
+            if (i != 0) {
+                joined.append(",");
+            }
+            joined.append(names[i]);
+        }
+        return joined.toString();
+    }
+
     /**
      * {@inheritDoc}
      */
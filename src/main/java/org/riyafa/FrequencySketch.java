@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ * This class is derived from the FrequencySketch of the Caffeine caching library
+ * (https://github.com/ben-manes/caffeine), Copyright 2015 Ben Manes, licensed under the Apache License, Version 2.0.
+ */
+package org.riyafa;
+
+/**
+ * Estimates how often the keys have been seen lately, with a count-min sketch of four bit counters. Each key is counted
+ * in four counters, and the smallest of them is its estimated frequency, which can only be overestimated. Once the
+ * number of increments reaches ten times the expected number of keys, all the counters are halved, so that the keys
+ * that were popular in the past give way to the keys that are popular now.
+ * <p>
+ * The layout of the counters, the hash seeds and the reset follow the FrequencySketch of Caffeine.
+ * <p>
+ * A sketch is not thread safe, and must be guarded by the lock of its owner.
+ */
+final class FrequencySketch {
+
+    /**
+     * The seeds of the four hash functions that pick the counters of a key
+     */
+    private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL,
+                                         0xcbf29ce484222325L};
+
+    /**
+     * Keeps the lower three bits of each counter after the counters are shifted right by one
+     */
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    /**
+     * Selects the lowest bit of each counter
+     */
+    private static final long ONE_MASK = 0x1111111111111111L;
+
+    /**
+     * The highest estimated frequency of a key
+     */
+    static final int MAX_FREQUENCY = 15;
+
+    /**
+     * The counters, sixteen of four bits in each element
+     */
+    private final long[] table;
+
+    private final int tableMask;
+
+    /**
+     * The number of increments after which the counters are halved
+     */
+    private final int sampleSize;
+
+    /**
+     * The number of increments since the counters were last halved
+     */
+    private int size;
+
+    /**
+     * @param expectedKeys the number of keys expected to be tracked, such as the maximum number of entries of a cache
+     */
+    FrequencySketch(long expectedKeys) {
+        int maximum = (int) Math.min(Math.max(expectedKeys, 1), 1 << 30);
+        int length = Integer.highestOneBit(maximum);
+        if (length < maximum) {
+            length <<= 1;
+        }
+        table = new long[length];
+        tableMask = length - 1;
+        sampleSize = (int) Math.min(10L * maximum, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param hash the hash code of a key
+     * @return the estimated number of times the key has been seen lately, at most {@link #MAX_FREQUENCY}
+     */
+    int frequency(int hash) {
+        int spread = spread(hash);
+        int start = (spread & 3) << 2;
+        int frequency = MAX_FREQUENCY;
+        for (int i = 0; i < SEEDS.length; i++) {
+            int count = (int) ((table[indexOf(spread, i)] >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * Counts one more sighting of a key, unless its counters are all saturated
+     *
+     * @param hash the hash code of a key
+     */
+    void increment(int hash) {
+        int spread = spread(hash);
+        int start = (spread & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            added |= incrementAt(indexOf(spread, i), start + i);
+        }
+        if (added && ++size >= sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * @param i the index of the element of the table
+     * @param j the index of the counter in the element
+     * @return whether the counter was incremented, which it is not once it is saturated
+     */
+    private boolean incrementAt(int i, int j) {
+        int offset = j << 2;
+        long mask = 0xfL << offset;
+        if ((table[i] & mask) != mask) {
+            table[i] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Halves all the counters, so that the frequencies decay over time
+     */
+    private void reset() {
+        int odd = 0;
+        for (int i = 0; i < table.length; i++) {
+            odd += Long.bitCount(table[i] & ONE_MASK);
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size = (size - (odd >>> 2)) >>> 1;
+    }
+
+    /**
+     * @param hash the spread hash code of a key
+     * @param i    the index of the hash function
+     * @return the index of the element of the table that holds the counter of the key for the hash function
+     */
+    private int indexOf(int hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return ((int) h) & tableMask;
+    }
+
+    /**
+     * Spreads the bits of a hash code, as the hash codes of the keys may only differ in a few bits
+     */
+    private static int spread(int hash) {
+        int h = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        h = ((h >>> 16) ^ h) * 0x45d9f3b;
+        return (h >>> 16) ^ h;
+    }
+}
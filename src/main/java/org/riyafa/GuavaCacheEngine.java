@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.riyafa;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@link CacheEngine} backed by a Guava cache, which evicts the least recently used responses
+ */
+final class GuavaCacheEngine implements CacheEngine {
+
+    private final Cache<CacheKey, CachableResponse> responses;
+
+    /**
+     * @param expireAfterWrite the time in milliseconds after which a response is removed, or -1 if never
+     * @param maxSize          the maximum number of responses, or -1 if unbounded
+     * @param maxWeight        the maximum total weight of the responses, or -1 if unbounded
+     * @param listener         the listener of the removed responses
+     */
+    GuavaCacheEngine(long expireAfterWrite, int maxSize, long maxWeight, final RemovalListener listener) {
+        CacheBuilder<CacheKey, CachableResponse> builder = CacheBuilder.newBuilder().recordStats()
+                .removalListener(new com.google.common.cache.RemovalListener<CacheKey, CachableResponse>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<CacheKey, CachableResponse> notification) {
+                        // the replaced responses are given back by put
+                        if (notification.getCause() != RemovalCause.REPLACED) {
+                            listener.onRemoval(notification.getKey(), notification.getValue(),
+                                               notification.getCause() == RemovalCause.SIZE);
+                        }
+                    }
+                });
+        if (expireAfterWrite > -1) {
+            builder.expireAfterWrite(expireAfterWrite, TimeUnit.MILLISECONDS);
+        }
+        if (maxWeight > -1) {
+            builder.maximumWeight(maxWeight).weigher(new Weigher<CacheKey, CachableResponse>() {
+                @Override
+                public int weigh(CacheKey requestHash, CachableResponse response) {
+                    return response.getWeight();
+                }
+            });
+        } else if (maxSize > -1) {
+            builder.maximumSize(maxSize);
+        }
+        responses = builder.build();
+    }
+
+    @Override
+    public CachableResponse get(CacheKey requestHash) {
+        return responses.getIfPresent(requestHash);
+    }
+
+    @Override
+    public CachableResponse put(CacheKey requestHash, CachableResponse response) {
+        return responses.asMap().put(requestHash, response);
+    }
+
+    @Override
+    public boolean remove(CacheKey requestHash, CachableResponse response) {
+        return responses.asMap().remove(requestHash, response);
+    }
+
+    @Override
+    public void invalidate(CacheKey requestHash) {
+        responses.invalidate(requestHash);
+    }
+
+    @Override
+    public void invalidateAll() {
+        responses.invalidateAll();
+    }
+
+    @Override
+    public long size() {
+        return responses.size();
+    }
+
+    @Override
+    public CacheEngineStats stats() {
+        CacheStats stats = responses.stats();
+        return new CacheEngineStats(stats.hitCount(), stats.missCount(), stats.evictionCount());
+    }
+
+    @Override
+    public Iterable<Map.Entry<CacheKey, CachableResponse>> entries() {
+        return responses.asMap().entrySet();
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.riyafa;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The headers to be left out of the digest of a request, compiled from the headersToExcludeInHash of the mediator. The
+ * names are matched case insensitively, and the headers of a request are filtered in to a sorted copy, so that neither
+ * the headers of the request are changed nor the order of the headers in the request changes the digest.
+ */
+final class HeaderExclusions implements Serializable {
+
+    /**
+     * The headers that are never hashed as they differ among the requests of the same content
+     */
+    private static final String[] IGNORED_HEADERS = {"Date", "User-Agent"};
+
+    private static final SortedMap<String, String> NO_HEADERS =
+            Collections.unmodifiableSortedMap(new TreeMap<String, String>());
+
+    private final Set<String> excluded = new HashSet<>();
+
+    private final boolean excludeAll;
+
+    /**
+     * @param headers the names of the headers to be excluded, or {@link HttpRequestHashGenerator#EXCLUDE_ALL_VAL} to
+     *                exclude all the headers
+     */
+    HeaderExclusions(String[] headers) {
+        excludeAll = headers != null && headers.length > 0 &&
+                HttpRequestHashGenerator.EXCLUDE_ALL_VAL.equals(headers[0]);
+        for (String header : IGNORED_HEADERS) {
+            excluded.add(header.toLowerCase(Locale.ENGLISH));
+        }
+        if (headers != null) {
+            for (String header : headers) {
+                excluded.add(header.trim().toLowerCase(Locale.ENGLISH));
+            }
+        }
+    }
+
+    /**
+     * @return whether all the headers are excluded
+     */
+    boolean isExcludeAll() {
+        return excludeAll;
+    }
+
+    /**
+     * Gives the headers of a request that are to be hashed, leaving the headers of the request as they are. The names
+     * of the headers are in lower case and in their natural order.
+     *
+     * @param headers the transport headers of a request, or null
+     * @return the headers to be hashed, which must not be changed
+     */
+    SortedMap<String, String> filter(Map<String, String> headers) {
+        if (excludeAll || headers == null || headers.isEmpty()) {
+            return NO_HEADERS;
+        }
+        SortedMap<String, String> filtered = new TreeMap<>();
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            String name = header.getKey().toLowerCase(Locale.ENGLISH);
+            if (!excluded.contains(name)) {
+                filtered.put(name, header.getValue());
+            }
+        }
+        return Collections.unmodifiableSortedMap(filtered);
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.riyafa;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Reads the HTTP caching headers of the responses received from the backend, and the headers of the requests that
+ * decide how a cached response is served.
+ */
+final class HttpCacheHeaders {
+
+    /**
+     * The time to live of a response that must not be cached
+     */
+    static final long NOT_CACHEABLE = -1;
+
+    /**
+     * The status code of a response that tells that the response cached for a conditional request is still valid
+     */
+    static final String NOT_MODIFIED = "304";
+
+    static final String ETAG = "ETag";
+
+    static final String LAST_MODIFIED = "Last-Modified";
+
+    static final String IF_NONE_MATCH = "If-None-Match";
+
+    static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    static final String CONTENT_ENCODING = "Content-Encoding";
+
+    static final String CONTENT_LENGTH = "Content-Length";
+
+    static final String GZIP = "gzip";
+
+    private static final String X_GZIP = "x-gzip";
+
+    private static final String ACCEPT_ENCODING = "Accept-Encoding";
+
+    private static final String VARY = "Vary";
+
+    private static final String CACHE_CONTROL = "Cache-Control";
+
+    private static final String EXPIRES = "Expires";
+
+    private static final String DATE = "Date";
+
+    private static final String AGE = "Age";
+
+    private static final String NO_STORE = "no-store";
+
+    private static final String MAX_AGE = "max-age";
+
+    private static final String S_MAXAGE = "s-maxage";
+
+    /**
+     * The format of the HTTP dates as specified in RFC 1123
+     */
+    private static final String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+
+    private HttpCacheHeaders() {
+    }
+
+    /**
+     * Derives the time for which a response may be cached from its Cache-Control and Expires headers. s-maxage takes
+     * precedence over max-age, which takes precedence over Expires. The time derived from the headers is kept within
+     * the given bounds, unless the response is already stale, and the default is used when the headers do not specify
+     * the time.
+     *
+     * @param headers        the transport headers of the response
+     * @param defaultTimeout the time in seconds to be used when the headers do not specify it
+     * @param minTimeout     the minimum time in seconds derived from the headers
+     * @param maxTimeout     the maximum time in seconds derived from the headers, or -1 if unbounded
+     * @return the time to live in seconds, or {@link #NOT_CACHEABLE} if the response must not be cached
+     */
+    static long getTimeToLive(Map<String, ?> headers, long defaultTimeout, long minTimeout, long maxTimeout) {
+        if (headers == null) {
+            return defaultTimeout;
+        }
+        long maxAge = -1;
+        long sharedMaxAge = -1;
+        String cacheControl = getHeader(headers, CACHE_CONTROL);
+        if (cacheControl != null) {
+            for (String directive : cacheControl.split(",")) {
+                String[] nameValue = directive.split("=", 2);
+                String name = nameValue[0].trim().toLowerCase(Locale.ENGLISH);
+                if (NO_STORE.equals(name)) {
+                    return NOT_CACHEABLE;
+                } else if (MAX_AGE.equals(name) && nameValue.length == 2) {
+                    maxAge = parseSeconds(nameValue[1]);
+                } else if (S_MAXAGE.equals(name) && nameValue.length == 2) {
+                    sharedMaxAge = parseSeconds(nameValue[1]);
+                }
+            }
+        }
+        long timeToLive;
+        if (sharedMaxAge > -1 || maxAge > -1) {
+            long age = Math.max(0, parseSeconds(getHeader(headers, AGE)));
+            timeToLive = (sharedMaxAge > -1 ? sharedMaxAge : maxAge) - age;
+        } else {
+            String expires = getHeader(headers, EXPIRES);
+            if (expires == null) {
+                return defaultTimeout;
+            }
+            // an invalid Expires header means that the response has already expired
+            long expiresMillis = parseDate(expires);
+            long dateMillis = parseDate(getHeader(headers, DATE));
+            timeToLive = expiresMillis < 0 ? 0 :
+                    (expiresMillis - (dateMillis < 0 ? System.currentTimeMillis() : dateMillis)) / 1000;
+        }
+        if (timeToLive <= 0) {
+            // the minimum time is not meant to keep a response that is already stale
+            return NOT_CACHEABLE;
+        }
+        timeToLive = Math.max(timeToLive, minTimeout);
+        return maxTimeout > -1 ? Math.min(timeToLive, maxTimeout) : timeToLive;
+    }
+
+    /**
+     * @param headers the transport headers of a request
+     * @return whether the client has made the request conditional itself
+     */
+    static boolean isConditional(Map<String, ?> headers) {
+        return getHeader(headers, IF_NONE_MATCH) != null || getHeader(headers, IF_MODIFIED_SINCE) != null;
+    }
+
+    /**
+     * Gives the value of a header, matching its name case insensitively
+     *
+     * @param headers the transport headers
+     * @param name    the name of the header
+     * @return the value of the header, or null if there is no such header
+     */
+    static String getHeader(Map<String, ?> headers, String name) {
+        Object value = headers.get(name);
+        if (value == null) {
+            for (Map.Entry<String, ?> entry : headers.entrySet()) {
+                if (name.equalsIgnoreCase(entry.getKey())) {
+                    value = entry.getValue();
+                    break;
+                }
+            }
+        }
+        return value != null ? value.toString() : null;
+    }
+
+    /**
+     * Tells whether the client accepts a gzip encoded response, going by the Accept-Encoding header of the request. The
+     * gzip coding is acceptable if it is listed, or matched by the * wildcard, with a quality value above zero.
+     *
+     * @param headers the transport headers of the request, or null
+     * @return whether the client accepts a gzip encoded response
+     */
+    static boolean acceptsGzip(Map<String, ?> headers) {
+        String acceptEncoding = headers != null ? getHeader(headers, ACCEPT_ENCODING) : null;
+        if (acceptEncoding == null) {
+            return false;
+        }
+        boolean wildcard = false;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parameters = coding.split(";");
+            String name = parameters[0].trim();
+            if (GZIP.equalsIgnoreCase(name) || X_GZIP.equalsIgnoreCase(name)) {
+                return parseQuality(parameters) > 0;
+            } else if ("*".equals(name)) {
+                wildcard = parseQuality(parameters) > 0;
+            }
+        }
+        return wildcard;
+    }
+
+    /**
+     * Removes a header, matching its name case insensitively
+     *
+     * @param headers the transport headers
+     * @param name    the name of the header
+     */
+    static void removeHeader(Map<String, ?> headers, String name) {
+        Iterator<? extends Map.Entry<String, ?>> entries = headers.entrySet().iterator();
+        while (entries.hasNext()) {
+            if (name.equalsIgnoreCase(entries.next().getKey())) {
+                entries.remove();
+            }
+        }
+    }
+
+    /**
+     * Adds Accept-Encoding to the Vary header of a response, so that the caches down the line keep the encoded and the
+     * identity responses apart
+     *
+     * @param headers the transport headers of the response
+     */
+    static void varyByAcceptEncoding(Map<String, Object> headers) {
+        String vary = getHeader(headers, VARY);
+        if (vary != null && !vary.trim().isEmpty()) {
+            for (String name : vary.split(",")) {
+                if ("*".equals(name.trim()) || ACCEPT_ENCODING.equalsIgnoreCase(name.trim())) {
+                    return;
+                }
+            }
+            removeHeader(headers, VARY);
+            headers.put(VARY, vary + ", " + ACCEPT_ENCODING);
+        } else {
+            headers.put(VARY, ACCEPT_ENCODING);
+        }
+    }
+
+    /**
+     * @param parameters a content coding of the Accept-Encoding header followed by its parameters
+     * @return the quality value of the coding, which is 1 unless given otherwise
+     */
+    private static double parseQuality(String[] parameters) {
+        for (int i = 1; i < parameters.length; i++) {
+            String parameter = parameters[i].trim();
+            if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2).trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * @param value the delta seconds value of a header, which may be quoted
+     * @return the number of seconds, or -1 if the value is not a valid number of seconds
+     */
+    private static long parseSeconds(String value) {
+        if (value == null) {
+            return -1;
+        }
+        String seconds = value.trim();
+        if (seconds.length() > 1 && seconds.startsWith("\"") && seconds.endsWith("\"")) {
+            seconds = seconds.substring(1, seconds.length() - 1);
+        }
+        try {
+            return Math.max(0, Long.parseLong(seconds));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @param value the HTTP date value of a header
+     * @return the date in the standard java system time format, or -1 if the value is not a valid date
+     */
+    private static long parseDate(String value) {
+        if (value == null) {
+            return -1;
+        }
+        SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            Date date = format.parse(value.trim());
+            return date.getTime();
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+}
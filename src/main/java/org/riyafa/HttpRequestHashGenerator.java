@@ -55,35 +55,39 @@ public class HttpRequestHashGenerator implements DigestGenerator {
 
     String[] headers = {""};
 
+    /**
+     * The headers to be excluded, compiled from the headers when the generator is initialized
+     */
+    private HeaderExclusions exclusions = new HeaderExclusions(headers);
+
+    /**
+     * The normalizer of the addresses of the requests, or null if the addresses are hashed as they are
+     */
+    private UrlNormalizer urlNormalizer;
+
     /**
      * {@inheritDoc}
      */
-    public String getDigest(MessageContext msgContext) throws CachingException {
-        boolean excludeAllHeaders = EXCLUDE_ALL_VAL.equals(headers[0]);
+    public CacheKey getDigest(MessageContext msgContext) throws CachingException {
+        boolean excludeAllHeaders = exclusions.isExcludeAll();
         String method = (String) msgContext.getProperty(Constants.Configuration.HTTP_METHOD);
         boolean isGet = msgContext.isDoingREST() && (("GET").equals(method) || ("DELETE").equals(method) ||
                 ("HEAD").equals(method));
         //If some or all headers need to be included in the hash
         if (!excludeAllHeaders) {
-            Map<String, String> transportHeaders =
-                    (Map<String, String>) msgContext.getProperty(MessageContext.TRANSPORT_HEADERS);
-            for (String header : headers) {
-                transportHeaders.remove(header);
-            }
+            Map<String, String> transportHeaders = exclusions.filter(
+                    (Map<String, String>) msgContext.getProperty(MessageContext.TRANSPORT_HEADERS));
             //If the HTTP method is GET do not hash the payload. Hash only url and headers.
             if (isGet) {
-                if (msgContext.getTo() == null) {
+                String toAddress = UrlNormalizer.getToAddress(msgContext, urlNormalizer);
+                if (toAddress == null) {
                     return null;
                 }
-                String toAddress = msgContext.getTo().getAddress();
                 byte[] digest = getDigest(toAddress, transportHeaders, MD5_DIGEST_ALGORITHM);
-                return digest != null ? getStringRepresentation(digest) : null;
+                return digest != null ? CacheKey.fromBytes(digest) : null;
             } else {//If the HTTP method is POST hash the payload along with the url and the headers
                 OMNode body = msgContext.getEnvelope().getBody();
-                String toAddress = null;
-                if (msgContext.getTo() != null) {
-                    toAddress = msgContext.getTo().getAddress();
-                }
+                String toAddress = UrlNormalizer.getToAddress(msgContext, urlNormalizer);
                 if (body != null) {
                     byte[] digest;
                     if (toAddress != null) {
@@ -91,25 +95,22 @@ public class HttpRequestHashGenerator implements DigestGenerator {
                     } else {
                         digest = getDigest(body, MD5_DIGEST_ALGORITHM);
                     }
-                    return digest != null ? getStringRepresentation(digest) : null;
+                    return digest != null ? CacheKey.fromBytes(digest) : null;
                 } else {
                     return null;
                 }
             }
         } else { //Do not hash the headers
             if (isGet) {
-                if (msgContext.getTo() == null) {
+                String toAddress = UrlNormalizer.getToAddress(msgContext, urlNormalizer);
+                if (toAddress == null) {
                     return null;
                 }
-                String toAddress = msgContext.getTo().getAddress();
                 byte[] digest = getDigest(toAddress, MD5_DIGEST_ALGORITHM);
-                return digest != null ? getStringRepresentation(digest) : null;
+                return digest != null ? CacheKey.fromBytes(digest) : null;
             } else {
                 OMNode body = msgContext.getEnvelope().getBody();
-                String toAddress = null;
-                if (msgContext.getTo() != null) {
-                    toAddress = msgContext.getTo().getAddress();
-                }
+                String toAddress = UrlNormalizer.getToAddress(msgContext, urlNormalizer);
                 if (body != null) {
                     byte[] digest;
                     if (toAddress != null) {
@@ -117,7 +118,7 @@ public class HttpRequestHashGenerator implements DigestGenerator {
                     } else {
                         digest = getDigest(body, MD5_DIGEST_ALGORITHM);
                     }
-                    return digest != null ? getStringRepresentation(digest) : null;
+                    return digest != null ? CacheKey.fromBytes(digest) : null;
                 } else {
                     return null;
                 }
@@ -533,5 +534,7 @@ public class HttpRequestHashGenerator implements DigestGenerator {
     @Override
     public void init(Map<String, Object> properties) {
         headers = (String[]) properties.get("headers-to-exclude");
+        exclusions = new HeaderExclusions(headers);
+        urlNormalizer = (UrlNormalizer) properties.get("url-normalizer");
     }
 }
\ No newline at end of file
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.riyafa;
+
+import com.google.common.hash.Hasher;
+import org.apache.axis2.context.MessageContext;
+import org.apache.synapse.commons.json.JsonUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * Generates the digest of a JSON request from a canonical form of its payload, which is read as a stream without
+ * building either a JSON tree or the XML representation of the payload. The members of the objects are hashed in the
+ * order of their names, the numbers are hashed by their values, and the whitespace between the tokens is not hashed,
+ * so that the requests that differ only in those respects get the same digest. The members with the names configured
+ * to be ignored are left out of the digest wherever they appear. The requests without a JSON payload are hashed the
+ * same as by the {@link MurmurHashGenerator}.
+ */
+public class JsonHashGenerator extends MurmurHashGenerator {
+
+    private CanonicalJson canonicalJson = new CanonicalJson(HASH_FUNCTION, null);
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean putPayload(Hasher hasher, MessageContext msgContext) throws CachingException {
+        if (!JsonUtil.hasAJsonPayload(msgContext)) {
+            return super.putPayload(hasher, msgContext);
+        }
+        InputStream payload = JsonUtil.getJsonPayload(msgContext);
+        if (payload == null) {
+            return false;
+        }
+        try {
+            canonicalJson.put(hasher, CanonicalJson.newReader(payload));
+        } catch (IOException e) {
+            throw new CachingException("Error in reading the JSON payload of the request to calculate the digest", e);
+        }
+        return true;
+    }
+
+    @Override
+    public void init(Map<String, Object> properties) {
+        super.init(properties);
+        String[] fields = (String[]) properties.get("json-fields-to-ignore");
+        if (fields != null) {
+            canonicalJson = new CanonicalJson(HASH_FUNCTION, new HashSet<>(Arrays.asList(fields)));
+        }
+    }
+}
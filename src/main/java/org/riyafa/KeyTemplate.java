@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.riyafa;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import org.apache.axis2.context.MessageContext;
+import org.apache.synapse.commons.json.JsonUtil;
+import org.apache.synapse.util.xpath.SynapseXPath;
+import org.jaxen.JaxenException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generates the digest of a request from the parts of the request selected by a template, which are the path of the
+ * request, the chosen query parameters, the chosen headers, and the values selected from the payload by XPath or JSON
+ * path expressions. The template is compiled when the mediator is created, so that only the selected parts of a request
+ * are read to generate its digest, and the payload is read only if an expression selects a part of it.
+ */
+public class KeyTemplate implements DigestGenerator {
+
+    /**
+     * The names of the query parameters to be hashed, in the order they are hashed
+     */
+    private final String[] queryParameters;
+
+    /**
+     * The names of the headers to be hashed, in the order they are hashed
+     */
+    private final String[] headers;
+
+    /**
+     * The XPath expressions that select the parts of the XML payload to be hashed
+     */
+    private final List<SynapseXPath> bodyXPaths = new ArrayList<>();
+
+    /**
+     * The JSON path expressions that select the parts of the JSON payload to be hashed, as given in the configuration
+     */
+    private final List<String> bodyJsonPaths = new ArrayList<>();
+
+    /**
+     * The compiled JSON path expressions, each a list of member names and array indices
+     */
+    private Object[][] jsonPaths = new Object[0][];
+
+    /**
+     * The normalizer of the addresses of the requests, or null if the addresses are hashed as they are
+     */
+    private UrlNormalizer urlNormalizer;
+
+    private final CanonicalJson canonicalJson = new CanonicalJson(MurmurHashGenerator.HASH_FUNCTION, null);
+
+    /**
+     * @param queryParameters the names of the query parameters to be hashed
+     * @param headers         the names of the headers to be hashed
+     */
+    public KeyTemplate(String[] queryParameters, String[] headers) {
+        this.queryParameters = queryParameters.clone();
+        Arrays.sort(this.queryParameters);
+        this.headers = headers.clone();
+        Arrays.sort(this.headers, String.CASE_INSENSITIVE_ORDER);
+    }
+
+    /**
+     * Adds an XPath expression that selects a part of the XML payload to be hashed
+     *
+     * @param xpath the expression
+     */
+    public void addBodyXPath(SynapseXPath xpath) {
+        bodyXPaths.add(xpath);
+    }
+
+    /**
+     * Adds a JSON path expression that selects a part of the JSON payload to be hashed. The expressions consisting of
+     * member names and array indices are supported, such as $.order.items[0].id or $['order']['id'].
+     *
+     * @param expression the expression
+     * @throws CachingException if the expression is not supported
+     */
+    public void addBodyJsonPath(String expression) throws CachingException {
+        Object[][] paths = Arrays.copyOf(jsonPaths, jsonPaths.length + 1);
+        paths[jsonPaths.length] = compileJsonPath(expression);
+        jsonPaths = paths;
+        bodyJsonPaths.add(expression);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public CacheKey getDigest(MessageContext msgContext) throws CachingException {
+        String address = UrlNormalizer.getToAddress(msgContext, urlNormalizer);
+        if (address == null) {
+            return null;
+        }
+        int queryStart = address.indexOf('?');
+        Hasher hasher = MurmurHashGenerator.HASH_FUNCTION.newHasher();
+        MurmurHashGenerator.putString(hasher, queryStart > -1 ? address.substring(0, queryStart) : address);
+
+        for (String name : queryParameters) {
+            MurmurHashGenerator.putString(hasher, name);
+            if (queryStart > -1) {
+                putQueryParameter(hasher, address, queryStart + 1, name);
+            }
+            hasher.putInt(-1);
+        }
+
+        if (headers.length > 0) {
+            Map<String, ?> transportHeaders = (Map<String, ?>) msgContext.getProperty(MessageContext.TRANSPORT_HEADERS);
+            for (String name : headers) {
+                MurmurHashGenerator.putString(hasher, transportHeaders != null ?
+                        HttpCacheHeaders.getHeader(transportHeaders, name) : null);
+            }
+        }
+
+        for (SynapseXPath xpath : bodyXPaths) {
+            try {
+                MurmurHashGenerator.putString(hasher, xpath.stringValueOf(msgContext.getEnvelope()));
+            } catch (JaxenException e) {
+                throw new CachingException("Error in evaluating the XPath expression : " + xpath, e);
+            }
+        }
+
+        if (jsonPaths.length > 0 && JsonUtil.hasAJsonPayload(msgContext)) {
+            InputStream payload = JsonUtil.getJsonPayload(msgContext);
+            if (payload != null) {
+                try {
+                    for (HashCode value : canonicalJson.select(CanonicalJson.newReader(payload), jsonPaths)) {
+                        if (value != null) {
+                            hasher.putBytes(value.asBytes());
+                        } else {
+                            hasher.putInt(-1);
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new CachingException("Error in reading the JSON payload of the request", e);
+                }
+            }
+        }
+        return CacheKey.fromBytes(hasher.hash().asBytes());
+    }
+
+    /**
+     * Feeds the values of the query parameter in to the hasher in the order they appear in the query
+     *
+     * @param hasher  the hasher of the request
+     * @param address the address of the request
+     * @param start   the index of the query in the address
+     * @param name    the name of the query parameter
+     */
+    private static void putQueryParameter(Hasher hasher, String address, int start, String name) {
+        int end = address.indexOf('#', start);
+        if (end < 0) {
+            end = address.length();
+        }
+        while (start < end) {
+            int next = address.indexOf('&', start);
+            if (next < 0 || next > end) {
+                next = end;
+            }
+            int nameEnd = start + name.length();
+            if (nameEnd <= next && address.startsWith(name, start)) {
+                if (nameEnd == next) {
+                    MurmurHashGenerator.putString(hasher, "");
+                } else if (address.charAt(nameEnd) == '=') {
+                    MurmurHashGenerator.putString(hasher, address.substring(nameEnd + 1, next));
+                }
+            }
+            start = next + 1;
+        }
+    }
+
+    /**
+     * Compiles a JSON path expression in to the list of member names and array indices it consists of
+     *
+     * @param expression the expression
+     * @return the member names as strings and the array indices as integers
+     * @throws CachingException if the expression is not supported
+     */
+    static Object[] compileJsonPath(String expression) throws CachingException {
+        String path = expression.trim();
+        if (!path.startsWith("$")) {
+            throw new CachingException("A JSON path expression must start with $ : " + expression);
+        }
+        List<Object> segments = new ArrayList<>();
+        int i = 1;
+        while (i < path.length()) {
+            char c = path.charAt(i);
+            if (c == '.') {
+                int end = i + 1;
+                while (end < path.length() && path.charAt(end) != '.' && path.charAt(end) != '[') {
+                    end++;
+                }
+                if (end == i + 1) {
+                    throw new CachingException("Unsupported JSON path expression : " + expression);
+                }
+                segments.add(path.substring(i + 1, end));
+                i = end;
+            } else if (c == '[') {
+                int end = path.indexOf(']', i);
+                if (end < 0) {
+                    throw new CachingException("Unsupported JSON path expression : " + expression);
+                }
+                String segment = path.substring(i + 1, end).trim();
+                if (segment.length() > 1 && (segment.charAt(0) == '\'' || segment.charAt(0) == '"') &&
+                        segment.charAt(segment.length() - 1) == segment.charAt(0)) {
+                    segments.add(segment.substring(1, segment.length() - 1));
+                } else {
+                    try {
+                        segments.add(Integer.valueOf(segment));
+                    } catch (NumberFormatException e) {
+                        throw new CachingException("Unsupported JSON path expression : " + expression, e);
+                    }
+                }
+                i = end + 1;
+            } else {
+                throw new CachingException("Unsupported JSON path expression : " + expression);
+            }
+        }
+        return segments.toArray();
+    }
+
+    /**
+     * @return the names of the query parameters to be hashed
+     */
+    public String[] getQueryParameters() {
+        return queryParameters.clone();
+    }
+
+    /**
+     * @return the names of the headers to be hashed
+     */
+    public String[] getHeaders() {
+        return headers.clone();
+    }
+
+    /**
+     * @return the XPath expressions that select the parts of the XML payload to be hashed
+     */
+    public List<SynapseXPath> getBodyXPaths() {
+        return bodyXPaths;
+    }
+
+    /**
+     * @return the JSON path expressions that select the parts of the JSON payload to be hashed
+     */
+    public List<String> getBodyJsonPaths() {
+        return bodyJsonPaths;
+    }
+
+    @Override
+    public void init(Map<String, Object> properties) {
+        urlNormalizer = (UrlNormalizer) properties.get("url-normalizer");
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.riyafa;
+
+import java.util.Arrays;
+
+/**
+ * Compresses the payloads in the LZ4 block format, which trades some of the compression for the speed of compressing
+ * and decompressing, so that the payloads can be decompressed on every cache hit. The compressor is a greedy one with a
+ * single hash table of the recent positions, which is enough for the repetitive markup of the XML and JSON payloads.
+ */
+final class Lz4Codec extends PayloadCodec {
+
+    private static final int MIN_MATCH = 4;
+
+    /**
+     * The number of bytes at the end of a block that are always literals
+     */
+    private static final int LAST_LITERALS = 5;
+
+    /**
+     * The number of bytes at the end of a block within which no match starts
+     */
+    private static final int MATCH_FIND_LIMIT = 12;
+
+    private static final int MAX_DISTANCE = 65535;
+
+    private static final int HASH_LOG = 12;
+
+    /**
+     * The number of misses after which the compressor starts skipping further ahead, so that an incompressible payload
+     * is given up on quickly
+     */
+    private static final int SKIP_TRIGGER = 6;
+
+    private static final int RUN_MASK = 15;
+
+    @Override
+    String getName() {
+        return CachingConstants.LZ4_COMPRESSION_CODEC;
+    }
+
+    @Override
+    byte[] compress(byte[] payload) {
+        int end = payload.length;
+        // the worst case of the format, the payload being given up on once the output is no smaller
+        byte[] buffer = new byte[end + end / 255 + 16];
+        int[] table = new int[1 << HASH_LOG];
+        int anchor = 0;
+        int length = 0;
+        if (end > MATCH_FIND_LIMIT) {
+            int matchLimit = end - LAST_LITERALS;
+            int position = 0;
+            int misses = 1 << SKIP_TRIGGER;
+            while (position < end - MATCH_FIND_LIMIT) {
+                int sequence = readInt(payload, position);
+                int hash = (sequence * -1640531535) >>> (32 - HASH_LOG);
+                // the positions are stored plus one, so that an empty slot is told apart from the first position
+                int reference = table[hash] - 1;
+                table[hash] = position + 1;
+                if (reference < 0 || position - reference > MAX_DISTANCE || readInt(payload, reference) != sequence) {
+                    position += misses++ >>> SKIP_TRIGGER;
+                    continue;
+                }
+                misses = 1 << SKIP_TRIGGER;
+                while (position > anchor && reference > 0 && payload[position - 1] == payload[reference - 1]) {
+                    position--;
+                    reference--;
+                }
+                int matchLength = MIN_MATCH;
+                while (position + matchLength < matchLimit &&
+                        payload[position + matchLength] == payload[reference + matchLength]) {
+                    matchLength++;
+                }
+                length = writeSequence(buffer, length, payload, anchor, position - anchor, position - reference,
+                                       matchLength);
+                if (length >= end) {
+                    return null;
+                }
+                position += matchLength;
+                anchor = position;
+            }
+        }
+        length = writeSequence(buffer, length, payload, anchor, end - anchor, 0, 0);
+        return length < end ? Arrays.copyOf(buffer, length) : null;
+    }
+
+    @Override
+    byte[] decompress(byte[] compressed, int length) {
+        byte[] payload = new byte[length];
+        int input = 0;
+        int output = 0;
+        try {
+            while (true) {
+                int token = compressed[input++] & 0xff;
+                int literalLength = token >>> 4;
+                if (literalLength == RUN_MASK) {
+                    int b;
+                    do {
+                        b = compressed[input++] & 0xff;
+                        literalLength += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(compressed, input, payload, output, literalLength);
+                input += literalLength;
+                output += literalLength;
+                if (input == compressed.length) {
+                    break;
+                }
+                int distance = (compressed[input++] & 0xff) | (compressed[input++] & 0xff) << 8;
+                int matchLength = token & RUN_MASK;
+                if (matchLength == RUN_MASK) {
+                    int b;
+                    do {
+                        b = compressed[input++] & 0xff;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += MIN_MATCH;
+                int reference = output - distance;
+                if (distance == 0 || reference < 0 || output + matchLength > length) {
+                    throw new CachingException("The compressed payload of the cached response is corrupt");
+                }
+                if (distance >= matchLength) {
+                    System.arraycopy(payload, reference, payload, output, matchLength);
+                    output += matchLength;
+                } else {
+                    // an overlapping match repeats the bytes it is copying
+                    for (int i = 0; i < matchLength; i++) {
+                        payload[output++] = payload[reference + i];
+                    }
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new CachingException("The compressed payload of the cached response is corrupt", e);
+        }
+        if (output != length) {
+            throw new CachingException("The compressed payload of the cached response is truncated");
+        }
+        return payload;
+    }
+
+    /**
+     * Writes a sequence of literals followed by a match
+     *
+     * @param buffer        the buffer to which the sequence is written
+     * @param length        the number of bytes in the buffer
+     * @param payload       the payload being compressed
+     * @param literalStart  the position of the literals in the payload
+     * @param literalLength the number of literals
+     * @param distance      the distance back to the match
+     * @param matchLength   the length of the match, or 0 for the last sequence, which has no match
+     * @return the number of bytes in the buffer after the sequence
+     */
+    private static int writeSequence(byte[] buffer, int length, byte[] payload, int literalStart, int literalLength,
+                                     int distance, int matchLength) {
+        int token = length++;
+        buffer[token] = (byte) (Math.min(literalLength, RUN_MASK) << 4);
+        if (literalLength >= RUN_MASK) {
+            length = writeLength(buffer, length, literalLength - RUN_MASK);
+        }
+        System.arraycopy(payload, literalStart, buffer, length, literalLength);
+        length += literalLength;
+        if (matchLength > 0) {
+            buffer[length++] = (byte) distance;
+            buffer[length++] = (byte) (distance >>> 8);
+            int extraLength = matchLength - MIN_MATCH;
+            buffer[token] |= (byte) Math.min(extraLength, RUN_MASK);
+            if (extraLength >= RUN_MASK) {
+                length = writeLength(buffer, length, extraLength - RUN_MASK);
+            }
+        }
+        return length;
+    }
+
+    private static int writeLength(byte[] buffer, int length, int value) {
+        while (value >= 255) {
+            buffer[length++] = (byte) 255;
+            value -= 255;
+        }
+        buffer[length++] = (byte) value;
+        return length;
+    }
+
+    private static int readInt(byte[] payload, int position) {
+        return (payload[position] & 0xff) | (payload[position + 1] & 0xff) << 8 |
+                (payload[position + 2] & 0xff) << 16 | (payload[position + 3] & 0xff) << 24;
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.riyafa;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.apache.axiom.om.OMAttribute;
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMNamespace;
+import org.apache.axiom.om.OMNode;
+import org.apache.axiom.om.OMProcessingInstruction;
+import org.apache.axiom.om.OMText;
+import org.apache.axis2.Constants;
+import org.apache.axis2.context.MessageContext;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Generates the digest of a request in a single pass, feeding the address, the headers and the payload of the request
+ * in to a single 128 bit Murmur3 hasher. The same parts of the request are hashed as by the
+ * {@link HttpRequestHashGenerator}, but no intermediate digests are computed and no strings are encoded, the characters
+ * being fed in to the hasher as they are. Every string and every list is preceded by its length, so that the
+ * boundaries of the parts cannot be shifted without changing the digest.
+ */
+public class MurmurHashGenerator implements DigestGenerator {
+
+    protected static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private static final int ELEMENT = 1;
+
+    private static final int ATTRIBUTE = 2;
+
+    private static final int TEXT = 3;
+
+    private static final int PROCESSING_INSTRUCTION = 7;
+
+    private static final int HEADER = 8;
+
+    /**
+     * The headers to be excluded from the digest
+     */
+    private HeaderExclusions exclusions = new HeaderExclusions(null);
+
+    /**
+     * The normalizer of the addresses of the requests, or null if the addresses are hashed as they are
+     */
+    private UrlNormalizer urlNormalizer;
+
+    /**
+     * {@inheritDoc}
+     */
+    public CacheKey getDigest(MessageContext msgContext) throws CachingException {
+        String method = (String) msgContext.getProperty(Constants.Configuration.HTTP_METHOD);
+        boolean isGet = msgContext.isDoingREST() && (("GET").equals(method) || ("DELETE").equals(method) ||
+                ("HEAD").equals(method));
+        String toAddress = UrlNormalizer.getToAddress(msgContext, urlNormalizer);
+        if (isGet && toAddress == null) {
+            return null;
+        }
+
+        Hasher hasher = HASH_FUNCTION.newHasher();
+        putString(hasher, toAddress);
+        if (toAddress != null) {
+            putHeaders(hasher, (Map<String, String>) msgContext.getProperty(MessageContext.TRANSPORT_HEADERS));
+        }
+        if (!isGet && !putPayload(hasher, msgContext)) {
+            return null;
+        }
+        return CacheKey.fromBytes(hasher.hash().asBytes());
+    }
+
+    /**
+     * Feeds the payload of the request in to the hasher, which is the body of the envelope
+     *
+     * @param hasher     the hasher of the request
+     * @param msgContext the request
+     * @return whether the request has a payload to be hashed
+     * @throws CachingException if the payload cannot be read
+     */
+    protected boolean putPayload(Hasher hasher, MessageContext msgContext) throws CachingException {
+        OMElement body = msgContext.getEnvelope().getBody();
+        if (body == null) {
+            return false;
+        }
+        putElement(hasher, body);
+        return true;
+    }
+
+    /**
+     * Feeds the headers that are not excluded in to the hasher, in the order of their names
+     *
+     * @param hasher           the hasher of the request
+     * @param transportHeaders the transport headers of the request
+     */
+    private void putHeaders(Hasher hasher, Map<String, String> transportHeaders) {
+        for (Map.Entry<String, String> header : exclusions.filter(transportHeaders).entrySet()) {
+            hasher.putInt(HEADER);
+            putString(hasher, header.getKey());
+            putString(hasher, header.getValue());
+        }
+    }
+
+    /**
+     * Feeds the element, its attributes other than the namespace declarations and its children in to the hasher.
+     * Comments are not hashed.
+     *
+     * @param hasher  the hasher of the request
+     * @param element the element to be hashed
+     */
+    private void putElement(Hasher hasher, OMElement element) {
+        hasher.putInt(ELEMENT);
+        putExpandedName(hasher, element.getNamespace(), element.getLocalName());
+
+        // the attributes are hashed in the order of their expanded names, the same as the HttpRequestHashGenerator
+        SortedMap<String, OMAttribute> attributes = null;
+        Iterator itr = element.getAllAttributes();
+        while (itr.hasNext()) {
+            OMAttribute attribute = (OMAttribute) itr.next();
+            String localName = attribute.getLocalName();
+            if (!(localName.equals("xmlns") || localName.startsWith("xmlns:"))) {
+                if (attributes == null) {
+                    attributes = new TreeMap<>();
+                }
+                OMNamespace namespace = attribute.getNamespace();
+                attributes.put(namespace != null ? namespace.getNamespaceURI() + ":" + localName : localName,
+                               attribute);
+            }
+        }
+        hasher.putInt(attributes != null ? attributes.size() : 0);
+        if (attributes != null) {
+            for (OMAttribute attribute : attributes.values()) {
+                hasher.putInt(ATTRIBUTE);
+                putExpandedName(hasher, attribute.getNamespace(), attribute.getLocalName());
+                putString(hasher, attribute.getAttributeValue());
+            }
+        }
+
+        OMNode node = element.getFirstOMChild();
+        while (node != null) {
+            if (node.getType() == OMNode.ELEMENT_NODE) {
+                putElement(hasher, (OMElement) node);
+            } else if (node.getType() == OMNode.TEXT_NODE || node.getType() == OMNode.CDATA_SECTION_NODE) {
+                hasher.putInt(TEXT);
+                putString(hasher, ((OMText) node).getText());
+            } else if (node.getType() == OMNode.PI_NODE) {
+                OMProcessingInstruction pi = (OMProcessingInstruction) node;
+                hasher.putInt(PROCESSING_INSTRUCTION);
+                putString(hasher, pi.getTarget());
+                putString(hasher, pi.getValue());
+            }
+            node = node.getNextOMSibling();
+        }
+        // marks the end of the children, so that the following siblings are not taken as children
+        hasher.putInt(-ELEMENT);
+    }
+
+    private static void putExpandedName(Hasher hasher, OMNamespace namespace, String localName) {
+        putString(hasher, namespace != null ? namespace.getNamespaceURI() : null);
+        putString(hasher, localName);
+    }
+
+    /**
+     * Feeds the length and the characters of the string in to the hasher, or -1 if the string is null
+     *
+     * @param hasher the hasher of the request
+     * @param value  the string to be hashed
+     */
+    protected static void putString(Hasher hasher, String value) {
+        if (value == null) {
+            hasher.putInt(-1);
+        } else {
+            hasher.putInt(value.length());
+            hasher.putUnencodedChars(value);
+        }
+    }
+
+    @Override
+    public void init(Map<String, Object> properties) {
+        exclusions = new HeaderExclusions((String[]) properties.get("headers-to-exclude"));
+        urlNormalizer = (UrlNormalizer) properties.get("url-normalizer");
+    }
+}
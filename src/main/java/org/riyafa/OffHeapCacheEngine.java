@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.riyafa;
+
+import java.util.Map;
+
+/**
+ * The {@link CacheEngine} that holds the payloads of the responses in an {@link OffHeapPayloadStore} of a bounded
+ * capacity, so that large numbers of cached payloads neither fill the heap nor have to be traversed by the garbage
+ * collector. The responses themselves are held by a W-TinyLFU engine bounded by the same capacity, by which the
+ * responses evicted to make room for a payload free their off-heap memory before the payload is stored.
+ */
+final class OffHeapCacheEngine implements CacheEngine {
+
+    private final OffHeapPayloadStore store;
+
+    private final TinyLfuCacheEngine responses;
+
+    /**
+     * @param expireAfterWrite the time in milliseconds after which a response is removed, or -1 if never
+     * @param capacity         the number of bytes of direct memory to hold the payloads
+     * @param listener         the listener of the removed responses
+     */
+    OffHeapCacheEngine(long expireAfterWrite, long capacity, RemovalListener listener) {
+        this.store = new OffHeapPayloadStore(capacity);
+        this.responses = new TinyLfuCacheEngine(expireAfterWrite, -1, capacity, listener);
+    }
+
+    /**
+     * @return the store that holds the payloads
+     */
+    OffHeapPayloadStore getStore() {
+        return store;
+    }
+
+    @Override
+    public CachableResponse get(CacheKey requestHash) {
+        return responses.get(requestHash);
+    }
+
+    @Override
+    public CachableResponse put(CacheKey requestHash, CachableResponse response) {
+        if (response.moveToOffHeap(store)) {
+            return responses.put(requestHash, response);
+        }
+        // the responses evicted to make room for this one free their off-heap memory
+        CachableResponse previous = responses.put(requestHash, response);
+        if (previous != null && previous != response) {
+            previous.releasePayload();
+        }
+        if (!response.moveToOffHeap(store)) {
+            responses.remove(requestHash, response);
+        } else if (!responses.contains(requestHash, response)) {
+            // the engine may have turned the response away, or evicted it, before its payload was moved, in which
+            // case nobody else would free the off-heap memory taken by the move
+            response.moveToHeap();
+        }
+        return previous;
+    }
+
+    @Override
+    public boolean remove(CacheKey requestHash, CachableResponse response) {
+        return responses.remove(requestHash, response);
+    }
+
+    @Override
+    public void invalidate(CacheKey requestHash) {
+        responses.invalidate(requestHash);
+    }
+
+    @Override
+    public void invalidateAll() {
+        responses.invalidateAll();
+    }
+
+    @Override
+    public long size() {
+        return responses.size();
+    }
+
+    @Override
+    public CacheEngineStats stats() {
+        return responses.stats();
+    }
+
+    @Override
+    public Iterable<Map.Entry<CacheKey, CachableResponse>> entries() {
+        return responses.entries();
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.riyafa;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stores the response payloads outside of the heap, so that large numbers of cached payloads do not have to be
+ * traversed by the garbage collector. The direct memory is allocated lazily as slabs up to the configured capacity,
+ * and each slab is divided in to fixed size chunks. A payload is stored in as many chunks as it needs, and only the
+ * small {@link Handle} that refers to the chunks is kept in the heap.
+ * <p>
+ * The chunks of a payload are freed when the last reference to its handle is released. The cache holds one reference
+ * for as long as the payload is cached, and readers hold one while they read, so that an eviction never frees the
+ * chunks of a payload that is being read.
+ */
+class OffHeapPayloadStore {
+
+    /**
+     * The size of a chunk in bytes
+     */
+    static final int CHUNK_SIZE = 1024;
+
+    /**
+     * The maximum size of a slab in bytes
+     */
+    private static final int MAX_SLAB_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * The number of chunks in a slab
+     */
+    private final int chunksPerSlab;
+
+    /**
+     * The total number of chunks that fit in the capacity
+     */
+    private final int maxChunks;
+
+    /**
+     * The slabs of direct memory allocated so far
+     */
+    private final List<ByteBuffer> slabs = new ArrayList<>();
+
+    /**
+     * The ids of the chunks that are free to be allocated, used as a stack
+     */
+    private final int[] freeChunks;
+
+    /**
+     * The number of entries in the free chunk stack
+     */
+    private int freeCount;
+
+    /**
+     * The number of chunks handed out of the slabs allocated so far, including the freed ones
+     */
+    private int allocatedChunks;
+
+    /**
+     * @param capacity the maximum number of bytes of direct memory to be used
+     */
+    OffHeapPayloadStore(long capacity) {
+        long chunks = capacity / CHUNK_SIZE;
+        if (chunks < 1 || chunks > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Unsupported off-heap capacity : " + capacity);
+        }
+        this.maxChunks = (int) chunks;
+        this.chunksPerSlab = Math.min(MAX_SLAB_SIZE / CHUNK_SIZE, maxChunks);
+        this.freeChunks = new int[maxChunks];
+    }
+
+    /**
+     * Copies the payload in to the off-heap memory
+     *
+     * @param payload the payload to be stored
+     * @param offset  the offset of the payload in the array
+     * @param length  the length of the payload
+     * @return the handle to the stored payload, or null if there is not enough free memory
+     */
+    Handle store(byte[] payload, int offset, int length) {
+        int[] chunks = allocate(chunkCount(length));
+        if (chunks == null) {
+            return null;
+        }
+        int position = offset;
+        int remaining = length;
+        for (int chunk : chunks) {
+            int size = Math.min(remaining, CHUNK_SIZE);
+            chunkBuffer(chunk).put(payload, position, size);
+            position += size;
+            remaining -= size;
+        }
+        return new Handle(chunks, length);
+    }
+
+    /**
+     * @param length the length of a payload
+     * @return the number of bytes of direct memory a payload of the given length occupies
+     */
+    static long footprint(int length) {
+        return (long) chunkCount(length) * CHUNK_SIZE;
+    }
+
+    /**
+     * @return the number of bytes of direct memory occupied by the stored payloads
+     */
+    synchronized long usedBytes() {
+        return (long) (allocatedChunks - freeCount) * CHUNK_SIZE;
+    }
+
+    private static int chunkCount(int length) {
+        return Math.max(1, (length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+    }
+
+    private synchronized int[] allocate(int count) {
+        if (count > freeCount + (maxChunks - allocatedChunks)) {
+            return null;
+        }
+        int[] chunks = new int[count];
+        for (int i = 0; i < count; i++) {
+            if (freeCount > 0) {
+                chunks[i] = freeChunks[--freeCount];
+            } else {
+                if (allocatedChunks == slabs.size() * chunksPerSlab) {
+                    int slabChunks = Math.min(chunksPerSlab, maxChunks - allocatedChunks);
+                    slabs.add(ByteBuffer.allocateDirect(slabChunks * CHUNK_SIZE));
+                }
+                chunks[i] = allocatedChunks++;
+            }
+        }
+        return chunks;
+    }
+
+    private synchronized void free(int[] chunks) {
+        for (int chunk : chunks) {
+            freeChunks[freeCount++] = chunk;
+        }
+    }
+
+    /**
+     * Gives a view of the given chunk that can be used independently of the other threads
+     *
+     * @param chunk the id of the chunk
+     * @return a buffer positioned at the start of the chunk and limited to its end
+     */
+    private ByteBuffer chunkBuffer(int chunk) {
+        ByteBuffer slab;
+        synchronized (this) {
+            slab = slabs.get(chunk / chunksPerSlab);
+        }
+        ByteBuffer buffer = slab.duplicate();
+        int start = (chunk % chunksPerSlab) * CHUNK_SIZE;
+        buffer.limit(start + CHUNK_SIZE);
+        buffer.position(start);
+        return buffer;
+    }
+
+    /**
+     * A reference counted handle to a payload stored in the off-heap memory
+     */
+    class Handle {
+
+        /**
+         * The chunks that hold the payload in order
+         */
+        private final int[] chunks;
+
+        /**
+         * The length of the payload
+         */
+        private final int length;
+
+        /**
+         * The number of references to this handle. The chunks are freed when this drops to zero.
+         */
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        private Handle(int[] chunks, int length) {
+            this.chunks = chunks;
+            this.length = length;
+        }
+
+        /**
+         * @return the length of the payload
+         */
+        int getLength() {
+            return length;
+        }
+
+        /**
+         * Acquires a reference to the payload, which must be released after the use
+         *
+         * @return false if the payload has already been freed
+         */
+        boolean retain() {
+            while (true) {
+                int count = references.get();
+                if (count == 0) {
+                    return false;
+                }
+                if (references.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Releases a reference to the payload, freeing it when it was the last one. A release of a payload that has
+         * already been freed is ignored, so that it cannot free the chunks again once they have been reused.
+         */
+        void release() {
+            while (true) {
+                int count = references.get();
+                if (count == 0) {
+                    return;
+                }
+                if (references.compareAndSet(count, count - 1)) {
+                    if (count == 1) {
+                        free(chunks);
+                    }
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Writes a range of the payload to the given stream directly from the off-heap memory, a chunk at a time
+         *
+         * @param out    the stream to write to
+         * @param offset the offset of the range in the payload
+         * @param count  the length of the range
+         * @return false if the payload has already been freed
+         * @throws IOException if an error occurs while writing
+         */
+        boolean writeTo(OutputStream out, int offset, int count) throws IOException {
+            if (offset < 0 || count < 0 || count > length - offset) {
+                throw new IndexOutOfBoundsException();
+            }
+            if (!retain()) {
+                return false;
+            }
+            try {
+                byte[] buffer = new byte[Math.min(count, CHUNK_SIZE)];
+                int position = offset;
+                int end = offset + count;
+                while (position < end) {
+                    int chunkOffset = position % CHUNK_SIZE;
+                    int size = Math.min(end - position, CHUNK_SIZE - chunkOffset);
+                    ByteBuffer chunk = chunkBuffer(chunks[position / CHUNK_SIZE]);
+                    chunk.position(chunk.position() + chunkOffset);
+                    chunk.get(buffer, 0, size);
+                    out.write(buffer, 0, size);
+                    position += size;
+                }
+                return true;
+            } finally {
+                release();
+            }
+        }
+
+        /**
+         * Copies the payload in to the heap
+         *
+         * @return the payload, or null if the payload has already been freed
+         */
+        byte[] toByteArray() {
+            if (!retain()) {
+                return null;
+            }
+            try {
+                byte[] payload = new byte[length];
+                int position = 0;
+                for (int chunk : chunks) {
+                    int size = Math.min(length - position, CHUNK_SIZE);
+                    chunkBuffer(chunk).get(payload, position, size);
+                    position += size;
+                }
+                return payload;
+            } finally {
+                release();
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.riyafa;
+
+/**
+ * Compresses the payloads of the cached responses, so that more responses fit in the same heap or off-heap memory. A
+ * payload is stored compressed and decompressed each time it is read. The codecs are stateless and are looked up by
+ * their names, which are stored with the compressed payloads.
+ */
+abstract class PayloadCodec {
+
+    private static final PayloadCodec LZ4 = new Lz4Codec();
+
+    private static final PayloadCodec DEFLATE = new DeflateCodec();
+
+    /**
+     * @param name the name of the codec
+     * @return the codec with the given name
+     * @throws IllegalArgumentException if there is no codec with the given name
+     */
+    static PayloadCodec forName(String name) {
+        if (CachingConstants.LZ4_COMPRESSION_CODEC.equals(name)) {
+            return LZ4;
+        } else if (CachingConstants.DEFLATE_COMPRESSION_CODEC.equals(name)) {
+            return DEFLATE;
+        }
+        throw new IllegalArgumentException("Unknown compression codec : " + name);
+    }
+
+    /**
+     * @return the name of the codec
+     */
+    abstract String getName();
+
+    /**
+     * Compresses a payload
+     *
+     * @param payload the payload to be compressed
+     * @return the compressed payload, or null if it is not smaller than the payload
+     */
+    abstract byte[] compress(byte[] payload);
+
+    /**
+     * Decompresses a payload compressed by this codec
+     *
+     * @param compressed the compressed payload
+     * @param length     the length of the payload before it was compressed
+     * @return the payload
+     * @throws CachingException if the compressed payload is corrupt
+     */
+    abstract byte[] decompress(byte[] compressed, int length);
+}
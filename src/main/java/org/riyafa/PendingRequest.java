@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.riyafa;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A request that has gone to the backend to fetch the response for a request hash. This holds the response that is
+ * being collected only between the request and the response, so that the cache itself holds completed responses only.
+ * Concurrent requests with the same hash may wait on this request until the collector releases it.
+ * <p>
+ * A waiting request parks a worker thread of the transport, while the response of this request needs a worker thread
+ * of the same pool to reach the collector. Hence the number of requests waiting on this request, and on all the
+ * pending requests together, is capped, and the requests past the cap go to the backend instead of waiting.
+ */
+class PendingRequest {
+
+    /**
+     * The response that will be filled by the collector and stored in the cache
+     */
+    private final CachableResponse response;
+
+    /**
+     * Released when the response of this request is stored in the cache or found to be uncachable
+     */
+    private final CountDownLatch latch = new CountDownLatch(1);
+
+    /**
+     * The number of requests waiting on any pending request
+     */
+    private static final AtomicInteger TOTAL_WAITERS = new AtomicInteger();
+
+    /**
+     * The maximum time in milliseconds each of the other requests waits on this request
+     */
+    private final long maxWait;
+
+    /**
+     * The number of requests waiting on this request
+     */
+    private final AtomicInteger waiters = new AtomicInteger();
+
+    /**
+     * @param response the response to be filled by the collector
+     * @param maxWait  the maximum time in milliseconds other requests wait on this request
+     */
+    PendingRequest(CachableResponse response, long maxWait) {
+        this.response = response;
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * @return the response to be filled by the collector
+     */
+    CachableResponse getResponse() {
+        return response;
+    }
+
+    /**
+     * Counts the caller as a request waiting on this request, unless either cap on the waiting requests has been
+     * reached. The caller must then {@link #await()} this request.
+     *
+     * @param maxWaiters      the maximum number of requests waiting on this request
+     * @param maxTotalWaiters the maximum number of requests waiting on any pending request
+     * @return whether the caller may wait on this request
+     */
+    boolean startWaiting(int maxWaiters, int maxTotalWaiters) {
+        while (true) {
+            int count = waiters.get();
+            if (count >= maxWaiters) {
+                return false;
+            }
+            if (waiters.compareAndSet(count, count + 1)) {
+                break;
+            }
+        }
+        if (TOTAL_WAITERS.incrementAndGet() > maxTotalWaiters) {
+            TOTAL_WAITERS.decrementAndGet();
+            waiters.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Waits until this request is released or the maximum wait elapses, which is counted from the time the caller
+     * starts waiting rather than from the time this request was sent
+     *
+     * @return true if the request was released and false if the wait timed out
+     */
+    boolean await() {
+        try {
+            return latch.await(maxWait, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            waiters.decrementAndGet();
+            TOTAL_WAITERS.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return the number of requests waiting on any pending request
+     */
+    static int getTotalWaiters() {
+        return TOTAL_WAITERS.get();
+    }
+
+    /**
+     * Releases the requests waiting on this request
+     */
+    void release() {
+        latch.countDown();
+    }
+}
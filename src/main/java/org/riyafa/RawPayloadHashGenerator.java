@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.riyafa;
+
+import com.google.common.hash.Hasher;
+import org.apache.axis2.context.MessageContext;
+import org.apache.synapse.transport.passthru.PassThroughConstants;
+import org.apache.synapse.transport.passthru.Pipe;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Generates the digest of a request from the raw bytes of its payload as received by the pass through transport, so
+ * that the message need not be built to look the request up in the cache. The bytes read from the pipe are buffered
+ * in the message, from which the message is built if the mediation needs it.
+ * <p>
+ * A message that has already been built is hashed from its envelope, the same as by the {@link MurmurHashGenerator},
+ * hence a request gets a digest of its own for each of the two forms.
+ */
+public class RawPayloadHashGenerator extends MurmurHashGenerator {
+
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean putPayload(Hasher hasher, MessageContext msgContext) throws CachingException {
+        Pipe pipe = (Pipe) msgContext.getProperty(PassThroughConstants.PASS_THROUGH_PIPE);
+        if (pipe == null || Boolean.TRUE.equals(msgContext.getProperty(PassThroughConstants.MESSAGE_BUILDER_INVOKED))) {
+            return super.putPayload(hasher, msgContext);
+        }
+        BufferedInputStream payload =
+                (BufferedInputStream) msgContext.getProperty(PassThroughConstants.BUFFERED_INPUT_STREAM);
+        try {
+            if (payload == null) {
+                payload = new BufferedInputStream(pipe.getInputStream());
+                // the payload is read again from the start when the message is built
+                payload.mark(Integer.MAX_VALUE);
+                msgContext.setProperty(PassThroughConstants.BUFFERED_INPUT_STREAM, payload);
+            } else {
+                payload.reset();
+            }
+            putBytes(hasher, payload);
+            payload.reset();
+        } catch (IOException e) {
+            throw new CachingException("Error in reading the payload of the request to calculate the digest", e);
+        }
+        return true;
+    }
+
+    /**
+     * Feeds the bytes of the stream in to the hasher, followed by their count
+     *
+     * @param hasher the hasher of the request
+     * @param in     the stream to be hashed
+     * @throws IOException if an error occurs while reading the stream
+     */
+    private static void putBytes(Hasher hasher, InputStream in) throws IOException {
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        long count = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            hasher.putBytes(buffer, 0, read);
+            count += read;
+        }
+        hasher.putLong(count);
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.riyafa;
+
+import org.apache.axiom.om.OMOutputFormat;
+import org.apache.axis2.AxisFault;
+import org.apache.axis2.context.MessageContext;
+import org.apache.axis2.transport.MessageFormatter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Writes the bytes of a cached response to the transport as they are, in place of serializing the message. This is
+ * set as the message formatter of a request served from the cache in the raw response mode, so that neither the
+ * cached response nor the message is built or serialized on a hit. A payload held off the heap is written straight
+ * from the off-heap memory, through a reference to it that is held until the payload has been written.
+ */
+class RawResponseFormatter implements MessageFormatter {
+
+    /**
+     * The array that holds the bytes of the response, or null if they are held off the heap
+     */
+    private final byte[] payload;
+
+    /**
+     * The retained handle of the bytes of the response held off the heap, or null if they are held in the heap
+     */
+    private final OffHeapPayloadStore.Handle handle;
+
+    private final int offset;
+
+    private final int length;
+
+    private final String contentType;
+
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    /**
+     * @param payload     the array that holds the bytes of the response, which must not be changed afterwards
+     * @param offset      the offset of the response in the array
+     * @param length      the length of the response
+     * @param contentType the content type of the response
+     */
+    RawResponseFormatter(byte[] payload, int offset, int length, String contentType) {
+        this.payload = payload;
+        this.handle = null;
+        this.offset = offset;
+        this.length = length;
+        this.contentType = contentType;
+    }
+
+    /**
+     * @param handle      the handle of the bytes of the response held off the heap, retained for this formatter,
+     *                    which releases it once the response is written
+     * @param offset      the offset of the response in the payload
+     * @param length      the length of the response
+     * @param contentType the content type of the response
+     */
+    RawResponseFormatter(OffHeapPayloadStore.Handle handle, int offset, int length, String contentType) {
+        this.payload = null;
+        this.handle = handle;
+        this.offset = offset;
+        this.length = length;
+        this.contentType = contentType;
+    }
+
+    @Override
+    public byte[] getBytes(MessageContext messageContext, OMOutputFormat format) throws AxisFault {
+        if (handle == null) {
+            return Arrays.copyOfRange(payload, offset, offset + length);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(length);
+        try {
+            if (released.get() || !handle.writeTo(bytes, offset, length)) {
+                throw new AxisFault("The cached payload has been evicted");
+            }
+        } catch (IOException e) {
+            throw AxisFault.makeFault(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public void writeTo(MessageContext messageContext, OMOutputFormat format, OutputStream outputStream,
+                        boolean preserve) throws AxisFault {
+        try {
+            if (handle == null) {
+                outputStream.write(payload, offset, length);
+            } else if (released.get() || !handle.writeTo(outputStream, offset, length)) {
+                throw new AxisFault("The cached payload has been evicted");
+            }
+        } catch (IOException e) {
+            throw AxisFault.makeFault(e);
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Releases the reference to the payload held off the heap, if any. This is done once the response is written, or
+     * by the caller if the response is never written.
+     */
+    void release() {
+        if (handle != null && released.compareAndSet(false, true)) {
+            handle.release();
+        }
+    }
+
+    @Override
+    public String getContentType(MessageContext messageContext, OMOutputFormat format, String soapAction) {
+        return contentType;
+    }
+
+    @Override
+    public URL getTargetAddress(MessageContext messageContext, OMOutputFormat format, URL targetURL)
+            throws AxisFault {
+        return targetURL;
+    }
+
+    @Override
+    public String formatSOAPAction(MessageContext messageContext, OMOutputFormat format, String soapAction) {
+        return soapAction;
+    }
+}
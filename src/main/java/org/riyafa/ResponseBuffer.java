@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.riyafa;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A growable buffer into which a response is serialized once, and which aborts the serialization as soon as the
+ * response grows beyond the maximum size to be cached, instead of serializing a copy of the response just to find out
+ * its size. The bytes written are adopted as the payload of the cached response.
+ */
+final class ResponseBuffer extends OutputStream {
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * The maximum number of bytes the buffer takes, or -1 if it takes any number of bytes
+     */
+    private final int limit;
+
+    private byte[] buffer;
+
+    private int count;
+
+    private boolean limitExceeded;
+
+    /**
+     * @param limit the maximum number of bytes the buffer takes, or -1 if it takes any number of bytes
+     */
+    ResponseBuffer(int limit) {
+        this.limit = limit;
+        this.buffer = new byte[limit > -1 ? Math.min(limit, DEFAULT_CAPACITY) : DEFAULT_CAPACITY];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureCapacity(count + 1);
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        ensureCapacity(count + len);
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+    }
+
+    /**
+     * Grows the buffer to hold the given number of bytes, at most doubling it up to the limit
+     *
+     * @param capacity the number of bytes to be held
+     * @throws LimitExceededException if the number of bytes exceeds the limit
+     */
+    private void ensureCapacity(int capacity) throws LimitExceededException {
+        if (capacity < 0 || (limit > -1 && capacity > limit)) {
+            limitExceeded = true;
+            throw new LimitExceededException(limit);
+        }
+        if (capacity > buffer.length) {
+            int grown = Math.max(buffer.length << 1, capacity);
+            if (grown < 0 || (limit > -1 && grown > limit)) {
+                grown = limit > -1 ? limit : Integer.MAX_VALUE;
+            }
+            buffer = Arrays.copyOf(buffer, grown);
+        }
+    }
+
+    /**
+     * @return the number of bytes written
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * @return whether a write was aborted as the limit was exceeded. The serializers may wrap the exception thrown by
+     * the buffer, hence this is to be checked when the serialization fails.
+     */
+    boolean isLimitExceeded() {
+        return limitExceeded;
+    }
+
+    /**
+     * Hands over the bytes written, after which the buffer must no longer be written to. The array of the buffer is
+     * handed over as it is only if it is full, and is trimmed to the bytes written otherwise, as the weight of a cached
+     * response, the codecs, the off-heap store, the disk tier and the replication all take the length of the payload
+     * from its array.
+     *
+     * @return the array holding exactly the bytes written
+     */
+    byte[] toPayload() {
+        byte[] payload = buffer.length == count ? buffer : Arrays.copyOf(buffer, count);
+        buffer = null;
+        return payload;
+    }
+
+    /**
+     * Thrown when a write would make the buffer exceed its limit
+     */
+    static final class LimitExceededException extends IOException {
+
+        LimitExceededException(int limit) {
+            super("The response exceeds the maximum size of " + limit + " bytes to be cached");
+        }
+    }
+}
@@ -0,0 +1,485 @@
+/*
+ * Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.riyafa;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The cache of a cache mediator. Only completed, cacheable responses are held in the cache, by the {@link CacheEngine}
+ * chosen for the cache. The requests that are on their way to the backend are tracked in a separate bounded table of
+ * pending requests, which holds the response being collected until the collector stores it or the pending request
+ * expires.
+ * <p>
+ * The cache can either be bounded by the number of responses or by the estimated number of bytes the responses occupy
+ * in the heap. In both cases the current byte footprint of the cache is kept track of. With the off-heap engine, the
+ * payloads are moved out of the heap in to an {@link OffHeapPayloadStore} and the cache is bounded by its capacity
+ * instead.
+ * <p>
+ * When gzip variants are enabled, the body of each response is encoded with gzip once before it is cached, for the
+ * clients that accept gzip to be sent the encoded body as it is.
+ * <p>
+ * When a {@link PayloadCodec} is given, the payloads of at least the compression threshold are compressed before they
+ * are cached, and are decompressed each time they are read from the cache. The number of bytes the payloads occupy as
+ * they are stored is kept track of together with the number of bytes they would occupy uncompressed.
+ * <p>
+ * When a {@link DiskTier} is given, the responses evicted for the lack of space are written to the disk, and the
+ * lookups that miss the memory fall back to the disk and promote the responses found there back to the memory.
+ * <p>
+ * An expired response is kept in the cache for the stale window after it expires, so that it can be served while a
+ * single request revalidates it against the backend. Each response expires at its own expiry time; the responses
+ * that have expired are dropped when they are looked up, and the rest of them are purged periodically.
+ */
+public class ResponseCache {
+
+    /**
+     * The estimated heap overhead of an object header together with its reference
+     */
+    private static final int OBJECT_OVERHEAD = 16;
+
+    /**
+     * The estimated heap overhead of a String apart from its characters
+     */
+    private static final int STRING_OVERHEAD = 40;
+
+    /**
+     * The estimated heap overhead of a map entry apart from its key and value
+     */
+    private static final int MAP_ENTRY_OVERHEAD = 32;
+
+    /**
+     * The estimated heap size of a CachableResponse apart from its payload, strings and headers
+     */
+    private static final int RESPONSE_OVERHEAD = 64;
+
+    /**
+     * The completed responses mapped by the request hash
+     */
+    private final CacheEngine responses;
+
+    /**
+     * The requests that are on their way to the backend mapped by the request hash
+     */
+    private final ConcurrentMap<CacheKey, PendingRequest> pendingRequests;
+
+    /**
+     * The estimated number of bytes occupied by the responses in the cache
+     */
+    private final AtomicLong weightedSize = new AtomicLong();
+
+    /**
+     * The number of bytes the payloads of the responses in the cache occupy as they are stored
+     */
+    private final AtomicLong storedPayloadSize = new AtomicLong();
+
+    /**
+     * The number of bytes the payloads of the responses in the cache would occupy uncompressed
+     */
+    private final AtomicLong logicalPayloadSize = new AtomicLong();
+
+    /**
+     * The codec that compresses the payloads, or null if the payloads are stored as they are
+     */
+    private final PayloadCodec codec;
+
+    /**
+     * The minimum size in bytes of the payloads to be compressed
+     */
+    private final int compressionThreshold;
+
+    /**
+     * Whether a gzip variant of the body of each response is created when it is cached
+     */
+    private final boolean gzipVariants;
+
+    /**
+     * The store that holds the payloads out of the heap, or null if the payloads are kept in the heap
+     */
+    private final OffHeapPayloadStore offHeapStore;
+
+    /**
+     * The tier that holds the responses evicted from the memory, or null if evicted responses are dropped
+     */
+    private final DiskTier diskTier;
+
+    /**
+     * The filter that keeps the responses of the rarely seen requests out of the cache, or null if all are admitted
+     */
+    private final AdmissionFilter admissionFilter;
+
+    /**
+     * The writer that stores the responses off the response path, or null if they are stored on it
+     */
+    private final CacheWriter writer;
+
+    /**
+     * The time in milliseconds for which an expired response is still returned by the cache to be revalidated
+     */
+    private final long staleWindow;
+
+    /**
+     * The time at which the responses that have expired on their own are purged next, in the standard java system
+     * time format
+     */
+    private final AtomicLong nextPurgeMillis = new AtomicLong();
+
+    /**
+     * @param engine          the type of the engine that holds the responses
+     * @param timeout         the maximum time in seconds for which a response is kept in the cache, or -1 if each
+     *                        response is only kept until its own expiry
+     * @param staleWindow     the time in seconds for which an expired response is still returned by the cache
+     * @param maxSize         the maximum number of responses in the cache, or -1 if unbounded
+     * @param maxBytes        the maximum number of bytes the responses may occupy, or -1 if unbounded
+     * @param offHeapCapacity the number of bytes of direct memory to hold the payloads with the off-heap engine
+     * @param pendingTimeout  the time in milliseconds for which a pending request is tracked
+     * @param diskTier        the tier to hold the responses evicted from the memory, or null to drop them
+     * @param admissionFilter the filter of the responses to be cached, or null to cache all of them
+     * @param writer          the writer to store the responses off the response path, or null to store them on it
+     * @param codec           the codec to compress the payloads with, or null to store them as they are
+     * @param threshold       the minimum size in bytes of the payloads to be compressed
+     * @param gzipVariants    whether to create a gzip variant of the body of each response
+     */
+    ResponseCache(String engine, long timeout, long staleWindow, int maxSize, long maxBytes, long offHeapCapacity,
+                  long pendingTimeout, DiskTier diskTier, AdmissionFilter admissionFilter, CacheWriter writer,
+                  PayloadCodec codec, int threshold, boolean gzipVariants) {
+        this.gzipVariants = gzipVariants;
+        this.codec = codec;
+        this.compressionThreshold = threshold;
+        this.diskTier = diskTier;
+        this.admissionFilter = admissionFilter;
+        this.writer = writer;
+        this.staleWindow = staleWindow * 1000;
+        this.nextPurgeMillis.set(System.currentTimeMillis() + CachingConstants.EXPIRED_PURGE_INTERVAL * 1000);
+        CacheEngine.RemovalListener listener = new CacheEngine.RemovalListener() {
+            @Override
+            public void onRemoval(CacheKey requestHash, CachableResponse response, boolean evicted) {
+                weightedSize.addAndGet(-response.getWeight());
+                addPayloadSize(response, -1);
+                if (evicted && ResponseCache.this.diskTier != null) {
+                    // the disk tier writes the response in the background, after its off-heap memory has been freed
+                    response.moveToHeap();
+                    ResponseCache.this.diskTier.put(requestHash, response);
+                }
+                response.releasePayload();
+            }
+        };
+        long expireAfterWrite = timeout > -1 ? (timeout + staleWindow) * 1000 : -1;
+        if (CachingConstants.OFF_HEAP_CACHE_ENGINE.equals(engine)) {
+            OffHeapCacheEngine offHeapEngine = new OffHeapCacheEngine(expireAfterWrite, offHeapCapacity, listener);
+            offHeapStore = offHeapEngine.getStore();
+            responses = offHeapEngine;
+        } else if (CachingConstants.TINY_LFU_CACHE_ENGINE.equals(engine)) {
+            offHeapStore = null;
+            responses = new TinyLfuCacheEngine(expireAfterWrite, maxSize, maxBytes, listener);
+        } else if (CachingConstants.GUAVA_CACHE_ENGINE.equals(engine)) {
+            offHeapStore = null;
+            responses = new GuavaCacheEngine(expireAfterWrite, maxSize, maxBytes, listener);
+        } else {
+            throw new IllegalArgumentException("Unknown cache engine : " + engine);
+        }
+        pendingRequests = CacheBuilder.newBuilder().maximumSize(CachingConstants.MAX_PENDING_REQUESTS)
+                .expireAfterWrite(pendingTimeout, TimeUnit.MILLISECONDS)
+                .removalListener(new RemovalListener<CacheKey, PendingRequest>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<CacheKey, PendingRequest> notification) {
+                        // nobody else would release the requests waiting on an evicted pending request
+                        if (notification.wasEvicted()) {
+                            notification.getValue().release();
+                        }
+                    }
+                }).<CacheKey, PendingRequest>build().asMap();
+    }
+
+    /**
+     * Gives the completed response cached for the request hash. A response that has expired is still given within the
+     * stale window, for the caller to serve it while revalidating it.
+     *
+     * @param requestHash the hash of the request
+     * @return the completed response cached for the request hash or null if there is none
+     */
+    public CachableResponse get(CacheKey requestHash) {
+        CachableResponse response = responses.get(requestHash);
+        if (response == null && diskTier != null) {
+            response = diskTier.remove(requestHash);
+            if (response != null) {
+                put(requestHash, response);
+            }
+        }
+        if (response != null && response.isExpired(staleWindow)) {
+            responses.remove(requestHash, response);
+            return null;
+        }
+        return response;
+    }
+
+    /**
+     * Records a lookup of the request hash, by which the admission filter estimates how often it is requested
+     *
+     * @param requestHash the hash of the request
+     */
+    public void recordRequest(CacheKey requestHash) {
+        if (admissionFilter != null) {
+            admissionFilter.record(requestHash);
+        }
+    }
+
+    /**
+     * Decides whether the response of the request hash is to be cached. The response is admitted once the request
+     * hash has been seen often enough lately, or always if the cache has no admission filter.
+     *
+     * @param requestHash the hash of the request
+     * @return whether the response is to be cached
+     */
+    public boolean admit(CacheKey requestHash) {
+        return admissionFilter == null || admissionFilter.admit(requestHash);
+    }
+
+    /**
+     * @return the number of responses let in by the admission filter
+     */
+    public long admittedCount() {
+        return admissionFilter != null ? admissionFilter.getAdmittedCount() : 0;
+    }
+
+    /**
+     * @return the number of responses kept out by the admission filter
+     */
+    public long rejectedCount() {
+        return admissionFilter != null ? admissionFilter.getRejectedCount() : 0;
+    }
+
+    /**
+     * @return the writer that stores the responses off the response path, or null if they are stored on it
+     */
+    CacheWriter getWriter() {
+        return writer;
+    }
+
+    /**
+     * Stores a completed response in the cache
+     *
+     * @param requestHash the hash of the request
+     * @param response    the completed response
+     */
+    public void put(CacheKey requestHash, CachableResponse response) {
+        purgeExpired();
+        // a response that is put again in place of itself is accounted for again by its new weight and lengths
+        int previousWeight = response.getWeight();
+        int previousStoredLength = response.getAccountedStoredLength();
+        int previousLogicalLength = response.getAccountedLogicalLength();
+        if (gzipVariants && response.getGzipBody() == null) {
+            response.createGzipBody();
+        }
+        if (codec != null && response.getResponsePayloadLength() >= compressionThreshold) {
+            response.compress(codec);
+        }
+        int weight = weigh(requestHash, response, offHeapStore != null);
+        response.setWeight(weight);
+        response.accountPayloadLengths();
+        weightedSize.addAndGet(weight);
+        addPayloadSize(response, 1);
+        CachableResponse previous = responses.put(requestHash, response);
+        if (previous == response) {
+            weightedSize.addAndGet(-previousWeight);
+            storedPayloadSize.addAndGet(-previousStoredLength);
+            logicalPayloadSize.addAndGet(-previousLogicalLength);
+        } else if (previous != null) {
+            weightedSize.addAndGet(-previous.getWeight());
+            addPayloadSize(previous, -1);
+            previous.releasePayload();
+        }
+    }
+
+    /**
+     * Adds the lengths of the payload of a response, as they were accounted for when it was stored, to the payload
+     * sizes of the cache
+     *
+     * @param response the response
+     * @param sign     1 when the response enters the cache and -1 when it leaves
+     */
+    private void addPayloadSize(CachableResponse response, int sign) {
+        storedPayloadSize.addAndGet(sign * response.getAccountedStoredLength());
+        logicalPayloadSize.addAndGet(sign * response.getAccountedLogicalLength());
+    }
+
+    /**
+     * Removes the responses that have expired on their own, as the responses do not all expire after the same time.
+     * This is done by at most one caller once in a purge interval.
+     */
+    private void purgeExpired() {
+        long next = nextPurgeMillis.get();
+        long now = System.currentTimeMillis();
+        if (now < next || !nextPurgeMillis.compareAndSet(next, now + CachingConstants.EXPIRED_PURGE_INTERVAL * 1000)) {
+            return;
+        }
+        for (Map.Entry<CacheKey, CachableResponse> entry : responses.entries()) {
+            if (entry.getValue().isExpired(staleWindow)) {
+                responses.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Removes the response cached for the request hash
+     *
+     * @param requestHash the hash of the request
+     */
+    public void invalidate(CacheKey requestHash) {
+        responses.invalidate(requestHash);
+        if (diskTier != null) {
+            diskTier.invalidate(requestHash);
+        }
+    }
+
+    /**
+     * @return the number of responses in the cache
+     */
+    public long size() {
+        return responses.size();
+    }
+
+    /**
+     * @return the statistics of the lookups and the evictions of the engine of the cache
+     */
+    public CacheEngineStats stats() {
+        return responses.stats();
+    }
+
+    /**
+     * @return the number of responses on the disk, or -1 if there is no disk tier
+     */
+    public long diskSize() {
+        return diskTier != null ? diskTier.size() : -1;
+    }
+
+    /**
+     * @return the estimated number of bytes occupied by the responses in the cache
+     */
+    public long weightedSize() {
+        return weightedSize.get();
+    }
+
+    /**
+     * @return the number of bytes the payloads of the responses in the cache occupy as they are stored
+     */
+    public long storedPayloadSize() {
+        return storedPayloadSize.get();
+    }
+
+    /**
+     * @return the number of bytes the payloads of the responses in the cache would occupy uncompressed
+     */
+    public long logicalPayloadSize() {
+        return logicalPayloadSize.get();
+    }
+
+    /**
+     * @return the number of bytes of direct memory occupied by the payloads, or -1 if the payloads are in the heap
+     */
+    public long offHeapSize() {
+        return offHeapStore != null ? offHeapStore.usedBytes() : -1;
+    }
+
+    /**
+     * Estimates the number of bytes a response occupies together with its request hash, counting the payload, the
+     * header properties, the XML fragments, the gzip variant and the strings held by the response
+     *
+     * @param requestHash the hash of the request
+     * @param response    the response to be weighed
+     * @param offHeap     whether the payload is held in the off-heap memory
+     * @return the estimated number of bytes
+     */
+    static int weigh(CacheKey requestHash, CachableResponse response, boolean offHeap) {
+        long weight = RESPONSE_OVERHEAD + 2 * CacheKey.SIZE +
+                weigh(response.getStatusCode()) + weigh(response.getStatusReason());
+        int payloadLength = response.hasResponsePayload() ? response.getStoredPayloadLength() : -1;
+        if (payloadLength > -1) {
+            weight += OBJECT_OVERHEAD + (offHeap ? OffHeapPayloadStore.footprint(payloadLength) : payloadLength);
+        }
+        byte[] gzipBody = response.getGzipBody();
+        if (gzipBody != null) {
+            weight += OBJECT_OVERHEAD + gzipBody.length;
+        }
+        XmlFragment[] headerFragments = response.getHeaderFragments();
+        if (headerFragments != null) {
+            weight += OBJECT_OVERHEAD;
+            for (XmlFragment fragment : headerFragments) {
+                weight += OBJECT_OVERHEAD + fragment.getWeight();
+            }
+        }
+        if (response.getBodyFragment() != null) {
+            weight += OBJECT_OVERHEAD + response.getBodyFragment().getWeight();
+        }
+        Map<String, Object> headerProperties = response.getHeaderProperties();
+        if (headerProperties != null) {
+            weight += OBJECT_OVERHEAD;
+            for (Map.Entry<String, Object> entry : headerProperties.entrySet()) {
+                weight += MAP_ENTRY_OVERHEAD + weigh(entry.getKey());
+                Object value = entry.getValue();
+                weight += value instanceof String ? weigh((String) value) : OBJECT_OVERHEAD;
+            }
+        }
+        return (int) Math.min(weight, Integer.MAX_VALUE);
+    }
+
+    private static long weigh(String value) {
+        return value == null ? 0 : STRING_OVERHEAD + 2L * value.length();
+    }
+
+    /**
+     * Drops the responses held by this cache and releases the resources held for them
+     */
+    void close() {
+        if (writer != null) {
+            writer.shutdown();
+        }
+        responses.invalidateAll();
+        if (diskTier != null) {
+            diskTier.close();
+        }
+    }
+
+    /**
+     * Registers the given request as the pending request for the request hash, unless another request with the same
+     * hash is already pending
+     *
+     * @param requestHash the hash of the request
+     * @param candidate   the request that would be pending if there is no other request with the same hash
+     * @return the candidate if it was registered, or else the request that is already pending
+     */
+    PendingRequest join(CacheKey requestHash, PendingRequest candidate) {
+        PendingRequest pendingRequest = pendingRequests.putIfAbsent(requestHash, candidate);
+        return pendingRequest != null ? pendingRequest : candidate;
+    }
+
+    /**
+     * Removes the pending request of the request hash and releases the requests waiting on it
+     *
+     * @param requestHash    the hash of the request
+     * @param pendingRequest the pending request to be released
+     */
+    void release(CacheKey requestHash, PendingRequest pendingRequest) {
+        pendingRequests.remove(requestHash, pendingRequest);
+        pendingRequest.release();
+    }
+}
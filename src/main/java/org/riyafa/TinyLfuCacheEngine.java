@@ -0,0 +1,498 @@
+/*
+ * Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.riyafa;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@link CacheEngine} that holds the responses in a striped hash table with W-TinyLFU admission and eviction. Each
+ * stripe is guarded by its own lock and holds its share of the capacity in three LRU queues: a small window for the
+ * newly cached responses, and a probation and a protected queue for the rest. A response that leaves the window enters
+ * the probation queue only if it has been requested more often lately than the response it would evict, as estimated
+ * by a {@link FrequencySketch}, and a response requested again while on probation is promoted to the protected queue.
+ * Hence a burst of responses that are requested once does not flush the responses that are requested over and over.
+ * <p>
+ * An engine bounded by weight has a single stripe, so that a response may take up as much as the whole capacity
+ * rather than a share of it, as the payloads cached by their size are often megabytes in size.
+ */
+final class TinyLfuCacheEngine implements CacheEngine {
+
+    /**
+     * The maximum number of stripes
+     */
+    private static final int MAX_STRIPES = 16;
+
+    /**
+     * The minimum number of responses a stripe is expected to hold, below which the stripes are merged
+     */
+    private static final int MIN_STRIPE_SIZE = 64;
+
+    /**
+     * The weight of a response assumed to estimate the number of responses in an engine bounded by weight
+     */
+    private static final int ESTIMATED_WEIGHT = 4096;
+
+    /**
+     * The percentage of the capacity of a stripe given to the window
+     */
+    private static final int WINDOW_PERCENTAGE = 1;
+
+    /**
+     * The percentage of the capacity of the main space of a stripe given to the protected queue
+     */
+    private static final int PROTECTED_PERCENTAGE = 80;
+
+    private static final int WINDOW = 0;
+
+    private static final int PROBATION = 1;
+
+    private static final int PROTECTED = 2;
+
+    private final Stripe[] stripes;
+
+    /**
+     * The time in milliseconds after which a response is removed, or -1 if never
+     */
+    private final long expireAfterWrite;
+
+    /**
+     * Whether the responses are weighed by their weight, rather than each weighing one
+     */
+    private final boolean weighted;
+
+    private final RemovalListener listener;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * @param expireAfterWrite the time in milliseconds after which a response is removed, or -1 if never
+     * @param maxSize          the maximum number of responses, or -1 if unbounded
+     * @param maxWeight        the maximum total weight of the responses, or -1 if unbounded
+     * @param listener         the listener of the removed responses
+     */
+    TinyLfuCacheEngine(long expireAfterWrite, int maxSize, long maxWeight, RemovalListener listener) {
+        this.expireAfterWrite = expireAfterWrite;
+        this.weighted = maxWeight > -1;
+        this.listener = listener;
+        long capacity = weighted ? maxWeight : maxSize;
+        long expectedSize = weighted ? Math.max(maxWeight / ESTIMATED_WEIGHT, 1) : maxSize;
+        int stripeCount = weighted ? 1 : MAX_STRIPES;
+        while (capacity > -1 && stripeCount > 1 && expectedSize / stripeCount < MIN_STRIPE_SIZE) {
+            stripeCount >>= 1;
+        }
+        stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe(capacity > -1 ? (capacity + stripeCount - 1) / stripeCount : -1,
+                                    expectedSize / stripeCount);
+        }
+    }
+
+    private Stripe stripeOf(CacheKey requestHash) {
+        int hash = requestHash.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+    }
+
+    private boolean isExpired(Node node, long now) {
+        return expireAfterWrite > -1 && now - node.writeTime >= expireAfterWrite;
+    }
+
+    @Override
+    public CachableResponse get(CacheKey requestHash) {
+        Stripe stripe = stripeOf(requestHash);
+        CachableResponse response = null;
+        Node expired = null;
+        synchronized (stripe) {
+            stripe.record(requestHash);
+            Node node = stripe.nodes.get(requestHash);
+            if (node != null) {
+                if (isExpired(node, System.currentTimeMillis())) {
+                    stripe.unlink(node);
+                    expired = node;
+                } else {
+                    stripe.onAccess(node);
+                    response = node.response;
+                }
+            }
+        }
+        if (response != null) {
+            hitCount.incrementAndGet();
+        } else {
+            missCount.incrementAndGet();
+        }
+        if (expired != null) {
+            listener.onRemoval(expired.key, expired.response, false);
+        }
+        return response;
+    }
+
+    @Override
+    public CachableResponse put(CacheKey requestHash, CachableResponse response) {
+        Stripe stripe = stripeOf(requestHash);
+        long weight = weighted ? response.getWeight() : 1;
+        List<Node> evicted = new ArrayList<>(0);
+        CachableResponse previous = null;
+        synchronized (stripe) {
+            stripe.record(requestHash);
+            Node node = stripe.nodes.get(requestHash);
+            if (node != null) {
+                previous = node.response;
+                stripe.queueOf(node).weight += weight - node.weight;
+                node.response = response;
+                node.weight = weight;
+                node.writeTime = System.currentTimeMillis();
+                stripe.onAccess(node);
+            } else {
+                node = new Node(requestHash, response, weight, System.currentTimeMillis());
+                stripe.nodes.put(requestHash, node);
+                stripe.window.add(node);
+            }
+            stripe.evict(evicted);
+        }
+        notifyEvicted(evicted);
+        return previous;
+    }
+
+    /**
+     * Tells whether the response is mapped to the request hash, without counting a lookup
+     *
+     * @param requestHash the hash of the request
+     * @param response    the response expected to be mapped to the request hash
+     * @return whether the response is mapped to the request hash
+     */
+    boolean contains(CacheKey requestHash, CachableResponse response) {
+        Stripe stripe = stripeOf(requestHash);
+        synchronized (stripe) {
+            Node node = stripe.nodes.get(requestHash);
+            return node != null && node.response == response;
+        }
+    }
+
+    @Override
+    public boolean remove(CacheKey requestHash, CachableResponse response) {
+        Stripe stripe = stripeOf(requestHash);
+        synchronized (stripe) {
+            Node node = stripe.nodes.get(requestHash);
+            if (node == null || node.response != response) {
+                return false;
+            }
+            stripe.unlink(node);
+        }
+        listener.onRemoval(requestHash, response, false);
+        return true;
+    }
+
+    @Override
+    public void invalidate(CacheKey requestHash) {
+        Stripe stripe = stripeOf(requestHash);
+        Node node;
+        synchronized (stripe) {
+            node = stripe.nodes.get(requestHash);
+            if (node == null) {
+                return;
+            }
+            stripe.unlink(node);
+        }
+        listener.onRemoval(requestHash, node.response, false);
+    }
+
+    @Override
+    public void invalidateAll() {
+        for (Stripe stripe : stripes) {
+            List<Node> removed;
+            synchronized (stripe) {
+                removed = new ArrayList<>(stripe.nodes.values());
+                for (Node node : removed) {
+                    stripe.unlink(node);
+                }
+            }
+            for (Node node : removed) {
+                listener.onRemoval(node.key, node.response, false);
+            }
+        }
+    }
+
+    @Override
+    public long size() {
+        long size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.nodes.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public CacheEngineStats stats() {
+        return new CacheEngineStats(hitCount.get(), missCount.get(), evictionCount.get());
+    }
+
+    @Override
+    public Iterable<Map.Entry<CacheKey, CachableResponse>> entries() {
+        List<Map.Entry<CacheKey, CachableResponse>> entries = new ArrayList<>();
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                for (Node node : stripe.nodes.values()) {
+                    entries.add(new AbstractMap.SimpleImmutableEntry<>(node.key, node.response));
+                }
+            }
+        }
+        return entries;
+    }
+
+    private void notifyEvicted(List<Node> evicted) {
+        for (Node node : evicted) {
+            evictionCount.incrementAndGet();
+            listener.onRemoval(node.key, node.response, true);
+        }
+    }
+
+    /**
+     * A response together with its place in the queues of its stripe
+     */
+    private static final class Node {
+
+        private final CacheKey key;
+
+        private CachableResponse response;
+
+        private long weight;
+
+        private long writeTime;
+
+        /**
+         * The queue the node is in, one of {@link #WINDOW}, {@link #PROBATION} and {@link #PROTECTED}
+         */
+        private int queue;
+
+        private Node previous;
+
+        private Node next;
+
+        Node(CacheKey key, CachableResponse response, long weight, long writeTime) {
+            this.key = key;
+            this.response = response;
+            this.weight = weight;
+            this.writeTime = writeTime;
+        }
+    }
+
+    /**
+     * A queue of nodes from the least recently used to the most recently used, linked through a sentinel
+     */
+    private static final class AccessQueue {
+
+        private final int type;
+
+        private final Node sentinel = new Node(null, null, 0, 0);
+
+        /**
+         * The total weight of the nodes in the queue
+         */
+        private long weight;
+
+        AccessQueue(int type) {
+            this.type = type;
+            sentinel.previous = sentinel;
+            sentinel.next = sentinel;
+        }
+
+        /**
+         * @return the least recently used node, or null if the queue is empty
+         */
+        Node first() {
+            return sentinel.next != sentinel ? sentinel.next : null;
+        }
+
+        void add(Node node) {
+            node.queue = type;
+            node.previous = sentinel.previous;
+            node.next = sentinel;
+            sentinel.previous.next = node;
+            sentinel.previous = node;
+            weight += node.weight;
+        }
+
+        void remove(Node node) {
+            node.previous.next = node.next;
+            node.next.previous = node.previous;
+            node.previous = null;
+            node.next = null;
+            weight -= node.weight;
+        }
+
+        void moveToTail(Node node) {
+            remove(node);
+            add(node);
+        }
+    }
+
+    /**
+     * A share of the responses with its own lock, queues and frequency sketch
+     */
+    private static final class Stripe {
+
+        private final Map<CacheKey, Node> nodes = new HashMap<>();
+
+        private final AccessQueue window = new AccessQueue(WINDOW);
+
+        private final AccessQueue probation = new AccessQueue(PROBATION);
+
+        private final AccessQueue protectedQueue = new AccessQueue(PROTECTED);
+
+        /**
+         * The capacity of the stripe, or -1 if unbounded
+         */
+        private final long maxWeight;
+
+        private final long maxWindow;
+
+        private final long maxMain;
+
+        private final long maxProtected;
+
+        /**
+         * The frequencies of the requests of the stripe, or null if the stripe is unbounded
+         */
+        private final FrequencySketch sketch;
+
+        /**
+         * @param maxWeight    the capacity of the stripe, or -1 if unbounded
+         * @param expectedSize the number of responses the stripe is expected to hold
+         */
+        Stripe(long maxWeight, long expectedSize) {
+            this.maxWeight = maxWeight;
+            this.maxWindow = maxWeight * WINDOW_PERCENTAGE / 100;
+            this.maxMain = maxWeight - maxWindow;
+            this.maxProtected = maxMain * PROTECTED_PERCENTAGE / 100;
+            this.sketch = maxWeight > -1 ? new FrequencySketch(expectedSize) : null;
+        }
+
+        void record(CacheKey requestHash) {
+            if (sketch != null) {
+                sketch.increment(requestHash.hashCode());
+            }
+        }
+
+        AccessQueue queueOf(Node node) {
+            return node.queue == WINDOW ? window : node.queue == PROBATION ? probation : protectedQueue;
+        }
+
+        /**
+         * Moves a node that has been requested again towards the most recently used end of the queues
+         */
+        void onAccess(Node node) {
+            if (maxWeight < 0) {
+                return;
+            }
+            if (node.queue == PROBATION) {
+                probation.remove(node);
+                protectedQueue.add(node);
+                // the least recently used protected responses are put back on probation
+                Node demoted = protectedQueue.first();
+                while (protectedQueue.weight > maxProtected && demoted != node) {
+                    protectedQueue.remove(demoted);
+                    probation.add(demoted);
+                    demoted = protectedQueue.first();
+                }
+            } else {
+                queueOf(node).moveToTail(node);
+            }
+        }
+
+        void unlink(Node node) {
+            queueOf(node).remove(node);
+            nodes.remove(node.key);
+        }
+
+        /**
+         * Moves the responses that overflow the window to the main space, admitting each of them only if it is
+         * requested more often than the responses it evicts
+         *
+         * @param evicted the list to which the evicted nodes are added
+         */
+        void evict(List<Node> evicted) {
+            if (maxWeight < 0) {
+                return;
+            }
+            while (window.weight > maxWindow) {
+                Node candidate = window.first();
+                window.remove(candidate);
+                if (admit(candidate, evicted)) {
+                    probation.add(candidate);
+                } else {
+                    nodes.remove(candidate.key);
+                    evicted.add(candidate);
+                }
+            }
+            // a response replaced by a heavier one may leave the main space over its share
+            while (probation.weight + protectedQueue.weight > maxMain) {
+                Node victim = probation.first() != null ? probation.first() : protectedQueue.first();
+                unlink(victim);
+                evicted.add(victim);
+            }
+        }
+
+        /**
+         * Makes room in the main space for a response leaving the window, if it is requested more often than each of
+         * the least recently used responses it would evict
+         *
+         * @param candidate the node leaving the window
+         * @param evicted   the list to which the evicted nodes are added
+         * @return whether the candidate is admitted
+         */
+        private boolean admit(Node candidate, List<Node> evicted) {
+            long excess = probation.weight + protectedQueue.weight + candidate.weight - maxMain;
+            if (excess <= 0) {
+                return true;
+            }
+            if (candidate.weight > maxMain) {
+                return false;
+            }
+            int candidateFrequency = sketch.frequency(candidate.key.hashCode());
+            List<Node> victims = new ArrayList<>();
+            AccessQueue queue = probation;
+            Node victim = probation.first();
+            while (excess > 0) {
+                if (victim == null || victim == queue.sentinel) {
+                    queue = protectedQueue;
+                    victim = protectedQueue.first();
+                }
+                if (candidateFrequency <= sketch.frequency(victim.key.hashCode())) {
+                    return false;
+                }
+                victims.add(victim);
+                excess -= victim.weight;
+                victim = victim.next;
+            }
+            for (Node node : victims) {
+                unlink(node);
+                evicted.add(node);
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.riyafa;
+
+import org.apache.axis2.context.MessageContext;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Normalizes the address of a request before it is hashed, so that the addresses that identify the same resource give
+ * the same digest. The scheme and the host are put in lower case, the percent encoded unreserved characters are
+ * decoded and the other percent encodings are put in upper case. The query parameters may be sorted, the parameters
+ * with the configured names may be dropped, and the fragment may be stripped.
+ */
+public final class UrlNormalizer implements Serializable {
+
+    private static final String HEX_DIGITS = "0123456789ABCDEF";
+
+    private final boolean sortQuery;
+
+    private final boolean stripFragment;
+
+    /**
+     * The names of the query parameters to be dropped, a name ending with * matching the names with that prefix
+     */
+    private final String[] ignoredParameters;
+
+    /**
+     * @param sortQuery         whether the query parameters are sorted
+     * @param stripFragment     whether the fragment is stripped
+     * @param ignoredParameters the names of the query parameters to be dropped, such as utm_*
+     */
+    public UrlNormalizer(boolean sortQuery, boolean stripFragment, String[] ignoredParameters) {
+        this.sortQuery = sortQuery;
+        this.stripFragment = stripFragment;
+        this.ignoredParameters = ignoredParameters.clone();
+    }
+
+    /**
+     * Gives the address of a request to be hashed
+     *
+     * @param msgContext the request
+     * @param normalizer the normalizer of the address, or null if the address is hashed as it is
+     * @return the address normalized by the normalizer, or null if the request has no address
+     */
+    static String getToAddress(MessageContext msgContext, UrlNormalizer normalizer) {
+        if (msgContext.getTo() == null) {
+            return null;
+        }
+        String address = msgContext.getTo().getAddress();
+        return normalizer != null ? normalizer.normalize(address) : address;
+    }
+
+    /**
+     * @param address the address of a request
+     * @return the normalized address
+     */
+    public String normalize(String address) {
+        if (address == null) {
+            return null;
+        }
+        String fragment = null;
+        int fragmentStart = address.indexOf('#');
+        if (fragmentStart > -1) {
+            fragment = address.substring(fragmentStart);
+            address = address.substring(0, fragmentStart);
+        }
+        String query = null;
+        int queryStart = address.indexOf('?');
+        if (queryStart > -1) {
+            query = address.substring(queryStart + 1);
+            address = address.substring(0, queryStart);
+        }
+
+        StringBuilder normalized = new StringBuilder(address.length() + (query != null ? query.length() + 1 : 0));
+        int schemeEnd = address.indexOf("://");
+        int pathStart = 0;
+        if (schemeEnd > -1) {
+            int authorityEnd = address.indexOf('/', schemeEnd + 3);
+            pathStart = authorityEnd > -1 ? authorityEnd : address.length();
+            // the user information is case sensitive, unlike the scheme and the host
+            int hostStart = address.lastIndexOf('@', pathStart - 1) + 1;
+            if (hostStart <= schemeEnd) {
+                hostStart = schemeEnd + 3;
+            }
+            normalized.append(address.substring(0, schemeEnd + 3).toLowerCase(Locale.ENGLISH))
+                    .append(address, schemeEnd + 3, hostStart)
+                    .append(address.substring(hostStart, pathStart).toLowerCase(Locale.ENGLISH));
+        }
+        appendNormalized(normalized, address, pathStart, address.length());
+
+        if (query != null) {
+            List<String> parameters = new ArrayList<>();
+            int start = 0;
+            while (start <= query.length()) {
+                int end = query.indexOf('&', start);
+                if (end < 0) {
+                    end = query.length();
+                }
+                if (end > start) {
+                    StringBuilder parameter = new StringBuilder(end - start);
+                    appendNormalized(parameter, query, start, end);
+                    if (!isIgnored(parameter)) {
+                        parameters.add(parameter.toString());
+                    }
+                }
+                start = end + 1;
+            }
+            if (sortQuery) {
+                Collections.sort(parameters);
+            }
+            for (int i = 0; i < parameters.size(); i++) {
+                normalized.append(i == 0 ? '?' : '&').append(parameters.get(i));
+            }
+        }
+        if (fragment != null && !stripFragment) {
+            appendNormalized(normalized, fragment, 0, fragment.length());
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * @param parameter a normalized query parameter
+     * @return whether the parameter is to be dropped
+     */
+    private boolean isIgnored(CharSequence parameter) {
+        int nameEnd = 0;
+        while (nameEnd < parameter.length() && parameter.charAt(nameEnd) != '=') {
+            nameEnd++;
+        }
+        String name = parameter.subSequence(0, nameEnd).toString();
+        for (String ignored : ignoredParameters) {
+            if (ignored.endsWith("*") ? name.startsWith(ignored.substring(0, ignored.length() - 1)) :
+                    name.equals(ignored)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Appends the characters of the value, decoding the percent encoded unreserved characters and putting the other
+     * percent encodings in upper case
+     *
+     * @param normalized the builder to which the characters are appended
+     * @param value      the value to be normalized
+     * @param start      the index of the first character to be appended
+     * @param end        the index after the last character to be appended
+     */
+    private static void appendNormalized(StringBuilder normalized, String value, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            int decoded;
+            if (c == '%' && i + 2 < end && (decoded = decode(value.charAt(i + 1), value.charAt(i + 2))) > -1) {
+                if (isUnreserved((char) decoded)) {
+                    normalized.append((char) decoded);
+                } else {
+                    normalized.append('%').append(HEX_DIGITS.charAt(decoded >> 4))
+                            .append(HEX_DIGITS.charAt(decoded & 0xf));
+                }
+                i += 2;
+            } else {
+                normalized.append(c);
+            }
+        }
+    }
+
+    private static int decode(char high, char low) {
+        int h = Character.digit(high, 16);
+        int l = Character.digit(low, 16);
+        return h < 0 || l < 0 ? -1 : (h << 4) | l;
+    }
+
+    /**
+     * @param c a character
+     * @return whether the character is unreserved as defined in RFC 3986
+     */
+    private static boolean isUnreserved(char c) {
+        return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-' || c == '.' ||
+                c == '_' || c == '~';
+    }
+
+    /**
+     * @return whether the query parameters are sorted
+     */
+    public boolean isSortQuery() {
+        return sortQuery;
+    }
+
+    /**
+     * @return whether the fragment is stripped
+     */
+    public boolean isStripFragment() {
+        return stripFragment;
+    }
+
+    /**
+     * @return the names of the query parameters to be dropped
+     */
+    public String[] getIgnoredParameters() {
+        return ignoredParameters.clone();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof UrlNormalizer)) {
+            return false;
+        }
+        UrlNormalizer that = (UrlNormalizer) o;
+        return sortQuery == that.sortQuery && stripFragment == that.stripFragment &&
+                Arrays.equals(ignoredParameters, that.ignoredParameters);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * Arrays.hashCode(ignoredParameters) + (sortQuery ? 1 : 0)) + (stripFragment ? 1 : 0);
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.riyafa;
+
+import org.apache.axiom.om.OMAttribute;
+import org.apache.axiom.om.OMDataSource;
+import org.apache.axiom.om.OMDataSourceExt;
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMNamespace;
+import org.apache.axiom.om.OMNode;
+import org.apache.axiom.om.OMOutputFormat;
+import org.apache.axiom.om.ds.OMDataSourceExtBase;
+import org.apache.axiom.om.util.StAXUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * The location and the name of an element of a cached XML response, which is serialized on its own in to the payload
+ * of the response when the response is stored. On a cache hit the element is put back in to the envelope as an element
+ * backed by its serialized form, which is neither parsed nor decoded unless the element is accessed, and is written out
+ * as it is when the envelope is serialized.
+ */
+class XmlFragment implements Serializable {
+
+    private static final String ENCODING = "UTF-8";
+
+    private final String namespaceURI;
+
+    private final String prefix;
+
+    private final String localName;
+
+    private final int offset;
+
+    private final int length;
+
+    private XmlFragment(OMNamespace namespace, String localName, int offset, int length) {
+        this.namespaceURI = namespace != null ? namespace.getNamespaceURI() : null;
+        this.prefix = namespace != null ? namespace.getPrefix() : null;
+        this.localName = localName;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Serializes the given element on its own to the end of the payload. The namespaces declared on the ancestors of
+     * the element are declared on the serialized element, so that it is complete without them. The start tag of the
+     * element is written here and its children are serialized in place, so that the element is not copied.
+     *
+     * @param element the element to be serialized
+     * @param payload the payload to which the element is written
+     * @return the fragment that locates the element in the payload
+     * @throws XMLStreamException if an error occurs while serializing the element
+     */
+    static XmlFragment write(OMElement element, ResponseBuffer payload) throws XMLStreamException {
+        int offset = payload.size();
+        XMLStreamWriter writer = StAXUtils.createXMLStreamWriter(payload, ENCODING);
+        OMNamespace namespace = element.getNamespace();
+        if (namespace != null) {
+            writer.writeStartElement(namespace.getPrefix(), element.getLocalName(), namespace.getNamespaceURI());
+        } else {
+            writer.writeStartElement(element.getLocalName());
+        }
+        Set<String> prefixes = new HashSet<>();
+        Iterator namespaces = element.getNamespacesInScope();
+        while (namespaces.hasNext()) {
+            writeNamespace(writer, (OMNamespace) namespaces.next(), prefixes);
+        }
+        writeNamespace(writer, namespace, prefixes);
+        Iterator attributes = element.getAllAttributes();
+        while (attributes.hasNext()) {
+            OMAttribute attribute = (OMAttribute) attributes.next();
+            OMNamespace attributeNamespace = attribute.getNamespace();
+            if (attributeNamespace != null) {
+                writeNamespace(writer, attributeNamespace, prefixes);
+                writer.writeAttribute(attributeNamespace.getPrefix(), attributeNamespace.getNamespaceURI(),
+                                      attribute.getLocalName(), attribute.getAttributeValue());
+            } else {
+                writer.writeAttribute(attribute.getLocalName(), attribute.getAttributeValue());
+            }
+        }
+        Iterator children = element.getChildren();
+        while (children.hasNext()) {
+            ((OMNode) children.next()).serialize(writer);
+        }
+        writer.writeEndElement();
+        writer.flush();
+        writer.close();
+        return new XmlFragment(namespace, element.getLocalName(), offset, payload.size() - offset);
+    }
+
+    /**
+     * Declares a namespace on the element being written, unless its prefix has already been declared on it. The
+     * namespace is bound in the writer as well, so that the children of the element do not declare it again.
+     *
+     * @param writer    the writer of the element
+     * @param namespace the namespace to be declared
+     * @param prefixes  the prefixes declared on the element so far
+     * @throws XMLStreamException if an error occurs while writing the declaration
+     */
+    private static void writeNamespace(XMLStreamWriter writer, OMNamespace namespace, Set<String> prefixes)
+            throws XMLStreamException {
+        if (namespace == null || !prefixes.add(namespace.getPrefix())) {
+            return;
+        }
+        if ("".equals(namespace.getPrefix())) {
+            if (!"".equals(namespace.getNamespaceURI())) {
+                writer.writeDefaultNamespace(namespace.getNamespaceURI());
+                writer.setDefaultNamespace(namespace.getNamespaceURI());
+            }
+        } else {
+            writer.writeNamespace(namespace.getPrefix(), namespace.getNamespaceURI());
+            writer.setPrefix(namespace.getPrefix(), namespace.getNamespaceURI());
+        }
+    }
+
+    /**
+     * @return the namespace URI of the element, or null if it has no namespace
+     */
+    String getNamespaceURI() {
+        return namespaceURI;
+    }
+
+    /**
+     * @return the namespace prefix of the element, or null if it has no namespace
+     */
+    String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * @return the local name of the element
+     */
+    String getLocalName() {
+        return localName;
+    }
+
+    /**
+     * @return the offset of the element in the payload
+     */
+    int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return the length of the element in the payload
+     */
+    int getLength() {
+        return length;
+    }
+
+    /**
+     * @return the estimated number of bytes this fragment occupies in the heap apart from the payload
+     */
+    long getWeight() {
+        return 2L * ((namespaceURI != null ? namespaceURI.length() : 0) + (prefix != null ? prefix.length() : 0) +
+                localName.length());
+    }
+
+    /**
+     * Gives the data source of the element backed by the payload. The payload is used as it is, hence it must not be
+     * changed as long as the element is in use.
+     *
+     * @param payload the payload the fragment was written to
+     * @return the data source of the element
+     */
+    OMDataSource getDataSource(byte[] payload) {
+        return new FragmentDataSource(payload, offset, length);
+    }
+
+    /**
+     * A data source that reads an element from its serialized form in a payload, and writes the serialized form as it
+     * is when the element is serialized without being accessed
+     */
+    private static class FragmentDataSource extends OMDataSourceExtBase {
+
+        private final byte[] payload;
+
+        private final int offset;
+
+        private final int length;
+
+        FragmentDataSource(byte[] payload, int offset, int length) {
+            this.payload = payload;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public XMLStreamReader getReader() throws XMLStreamException {
+            return StAXUtils.createXMLStreamReader(new ByteArrayInputStream(payload, offset, length), ENCODING);
+        }
+
+        @Override
+        public void serialize(OutputStream output, OMOutputFormat format) throws XMLStreamException {
+            String encoding = format != null ? format.getCharSetEncoding() : null;
+            if (encoding != null && !ENCODING.equalsIgnoreCase(encoding)) {
+                super.serialize(output, format);
+                return;
+            }
+            try {
+                output.write(payload, offset, length);
+            } catch (IOException e) {
+                throw new XMLStreamException(e);
+            }
+        }
+
+        @Override
+        public Object getObject() {
+            return null;
+        }
+
+        @Override
+        public boolean isDestructiveRead() {
+            return false;
+        }
+
+        @Override
+        public boolean isDestructiveWrite() {
+            return false;
+        }
+
+        @Override
+        public byte[] getXMLBytes(String encoding) throws UnsupportedEncodingException {
+            if (encoding == null || ENCODING.equalsIgnoreCase(encoding)) {
+                return Arrays.copyOfRange(payload, offset, offset + length);
+            }
+            return new String(payload, offset, length, ENCODING).getBytes(encoding);
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public OMDataSourceExt copy() {
+            return new FragmentDataSource(payload, offset, length);
+        }
+    }
+}
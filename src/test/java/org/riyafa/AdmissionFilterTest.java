@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.riyafa;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the admission of the responses by how often their requests have been seen lately
+ */
+public class AdmissionFilterTest {
+
+    @Test
+    public void testMinFrequency() {
+        AdmissionFilter filter = new AdmissionFilter(3, 1000);
+        CacheKey key = new CacheKey(11, 13);
+        assertFalse(filter.admit(key));
+        filter.record(key);
+        assertFalse(filter.admit(key));
+        filter.record(key);
+        assertFalse(filter.admit(key));
+        filter.record(key);
+        assertTrue(filter.admit(key));
+        assertEquals(1, filter.getAdmittedCount());
+        assertEquals(3, filter.getRejectedCount());
+    }
+
+    @Test
+    public void testAdmitOnFirstSighting() {
+        AdmissionFilter filter = new AdmissionFilter(1, 1000);
+        CacheKey key = new CacheKey(1, 2);
+        filter.record(key);
+        assertTrue(filter.admit(key));
+    }
+
+    @Test
+    public void testOneHitRequestsAreRejected() {
+        AdmissionFilter filter = new AdmissionFilter(2, 10000);
+        int admitted = 0;
+        for (int i = 0; i < 5000; i++) {
+            CacheKey key = new CacheKey(i, i * 31L);
+            filter.record(key);
+            if (filter.admit(key)) {
+                admitted++;
+            }
+        }
+        // only the false positives of the doorkeeper let a request seen once in
+        assertTrue("Admitted " + admitted, admitted < 250);
+    }
+
+    @Test
+    public void testFrequencyKeptAcrossDoorkeeperReset() {
+        // each stripe tracks the minimum number of request hashes, hence its doorkeeper is cleared often
+        AdmissionFilter filter = new AdmissionFilter(3, 16);
+        CacheKey hot = new CacheKey(42, 42);
+        for (int i = 0; i < 5; i++) {
+            filter.record(hot);
+        }
+        for (int i = 0; i < 10000; i++) {
+            filter.record(new CacheKey(i, -i));
+        }
+        filter.record(hot);
+        assertTrue(filter.admit(hot));
+    }
+}
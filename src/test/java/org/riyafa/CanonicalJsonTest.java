@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.riyafa;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests that the JSON payloads that differ only in their form hash the same, and that the others do not
+ */
+public class CanonicalJsonTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private static final Set<String> NONE = Collections.emptySet();
+
+    private static HashCode hash(String json, Set<String> fieldsToIgnore) throws IOException {
+        Hasher hasher = HASH_FUNCTION.newHasher();
+        new CanonicalJson(HASH_FUNCTION, fieldsToIgnore)
+                .put(hasher, CanonicalJson.newReader(new ByteArrayInputStream(json.getBytes(UTF_8))));
+        return hasher.hash();
+    }
+
+    private static HashCode hash(String json) throws IOException {
+        return hash(json, NONE);
+    }
+
+    @Test
+    public void testMemberOrder() throws IOException {
+        assertEquals(hash("{\"a\":1,\"b\":{\"c\":true,\"d\":null}}"), hash("{\"b\":{\"d\":null,\"c\":true},\"a\":1}"));
+    }
+
+    @Test
+    public void testWhitespace() throws IOException {
+        assertEquals(hash("{\"a\":[1,2,\"x y\"]}"), hash(" {\n\t\"a\" : [ 1 , 2 ,\r\n \"x y\" ] }\n"));
+        assertNotEquals(hash("{\"a\":\"x y\"}"), hash("{\"a\":\"xy\"}"));
+    }
+
+    @Test
+    public void testEscapes() throws IOException {
+        assertEquals(hash("{\"name\":\"A/\u00e9\"}"), hash("{\"n\\u0061me\":\"\\u0041\\/\\u00E9\"}"));
+        assertEquals(hash("[\"a\\\"b\\n\"]"), hash("[\"a\\u0022b\\u000a\"]"));
+    }
+
+    @Test
+    public void testNumbers() throws IOException {
+        assertEquals(hash("[1]"), hash("[1.0]"));
+        assertEquals(hash("[100]"), hash("[1e2]"));
+        assertEquals(hash("[0.5]"), hash("[5E-1]"));
+        assertEquals(hash("[-0.25]"), hash("[-2.50e-1]"));
+        assertNotEquals(hash("[1]"), hash("[1.5]"));
+        // a number is not the same as the string of its digits
+        assertNotEquals(hash("[1]"), hash("[\"1\"]"));
+    }
+
+    @Test
+    public void testArrayOrder() throws IOException {
+        assertNotEquals(hash("[1,2,3]"), hash("[3,2,1]"));
+        assertNotEquals(hash("[[1],[2]]"), hash("[[1,2]]"));
+    }
+
+    @Test
+    public void testIgnoredFields() throws IOException {
+        Set<String> ignored = new HashSet<>(Arrays.asList("timestamp", "requestId"));
+        assertEquals(hash("{\"q\":\"cache\",\"page\":{\"size\":10}}"),
+                     hash("{\"timestamp\":1500000000,\"q\":\"cache\",\"page\":{\"requestId\":\"abc\",\"size\":10,"
+                          + "\"timestamp\":{\"nested\":[1,2]}}}", ignored));
+        assertNotEquals(hash("{\"q\":\"cache\"}"), hash("{\"timestamp\":1500000000,\"q\":\"cache\"}"));
+    }
+
+    @Test
+    public void testSelect() throws IOException {
+        String json = "{\"customer\":{\"id\":42,\"orders\":[{\"id\":1},{\"id\":2}]},\"page\":1}";
+        HashCode[] selected = new CanonicalJson(HASH_FUNCTION, NONE).select(
+                CanonicalJson.newReader(new ByteArrayInputStream(json.getBytes(UTF_8))),
+                new Object[][]{{"customer", "id"}, {"customer", "orders", 1}, {"missing"}});
+        assertEquals(hash("42"), selected[0]);
+        assertEquals(hash("{ \"id\" : 2.0 }"), selected[1]);
+        assertNull(selected[2]);
+    }
+
+    @Test(expected = CachingException.class)
+    public void testTrailingContent() throws IOException {
+        hash("{\"a\":1} {\"b\":2}");
+    }
+
+    @Test(expected = CachingException.class)
+    public void testInvalidNumber() throws IOException {
+        hash("[1.2.3]");
+    }
+}
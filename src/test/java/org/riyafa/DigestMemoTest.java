@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.riyafa;
+
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.soap.SOAPEnvelope;
+import org.apache.axiom.soap.SOAPFactory;
+import org.apache.axis2.AxisFault;
+import org.apache.axis2.Constants;
+import org.apache.axis2.addressing.EndpointReference;
+import org.apache.axis2.context.MessageContext;
+import org.apache.synapse.transport.passthru.PassThroughConstants;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests that a remembered digest is reused only while the parts of the request it was generated from are unchanged
+ */
+public class DigestMemoTest {
+
+    private static final SOAPFactory FACTORY = OMAbstractFactory.getSOAP11Factory();
+
+    private static final String CONFIGURATION = "configuration";
+
+    private static final CacheKey DIGEST = new CacheKey(17, 19);
+
+    private MessageContext msgContext;
+
+    private Map<String, String> headers;
+
+    private static SOAPEnvelope envelope(String bodyElement) {
+        SOAPEnvelope envelope = FACTORY.getDefaultEnvelope();
+        envelope.getBody().addChild(FACTORY.createOMElement(bodyElement, null));
+        return envelope;
+    }
+
+    @Before
+    public void setUp() throws AxisFault {
+        msgContext = new MessageContext();
+        msgContext.setEnvelope(envelope("getQuote"));
+        msgContext.setTo(new EndpointReference("http://localhost:8280/services/StockQuote"));
+        msgContext.setProperty(Constants.Configuration.HTTP_METHOD, "POST");
+        headers = new HashMap<>();
+        headers.put("Content-Type", "text/xml");
+        msgContext.setProperty(MessageContext.TRANSPORT_HEADERS, headers);
+        DigestMemo.put(msgContext, CONFIGURATION, DIGEST);
+    }
+
+    @Test
+    public void testUnchangedRequest() {
+        assertEquals(DIGEST, DigestMemo.get(msgContext, CONFIGURATION));
+        assertEquals(DIGEST, DigestMemo.get(msgContext, new String(CONFIGURATION)));
+        assertNull(DigestMemo.get(msgContext, "other configuration"));
+        assertNull(DigestMemo.get(new MessageContext(), CONFIGURATION));
+    }
+
+    @Test
+    public void testAddressChanged() {
+        msgContext.setTo(new EndpointReference("http://localhost:8280/services/OtherService"));
+        assertNull(DigestMemo.get(msgContext, CONFIGURATION));
+        // the stale digest is not given back either once the address is set back
+        msgContext.setTo(new EndpointReference("http://localhost:8280/services/StockQuote"));
+        assertNull(DigestMemo.get(msgContext, CONFIGURATION));
+    }
+
+    @Test
+    public void testMethodChanged() {
+        msgContext.setProperty(Constants.Configuration.HTTP_METHOD, "PUT");
+        assertNull(DigestMemo.get(msgContext, CONFIGURATION));
+    }
+
+    @Test
+    public void testHeadersChangedInPlace() {
+        headers.put("SOAPAction", "urn:getQuote");
+        assertNull(DigestMemo.get(msgContext, CONFIGURATION));
+    }
+
+    @Test
+    public void testHeadersReplaced() {
+        msgContext.setProperty(MessageContext.TRANSPORT_HEADERS, new HashMap<>(headers));
+        assertNull(DigestMemo.get(msgContext, CONFIGURATION));
+    }
+
+    @Test
+    public void testEnvelopeReplaced() throws AxisFault {
+        msgContext.setEnvelope(envelope("getQuote"));
+        assertNull(DigestMemo.get(msgContext, CONFIGURATION));
+    }
+
+    @Test
+    public void testBodyReplaced() {
+        SOAPEnvelope envelope = msgContext.getEnvelope();
+        envelope.getBody().getFirstElement().detach();
+        envelope.getBody().addChild(FACTORY.createOMElement("getQuote", null));
+        assertNull(DigestMemo.get(msgContext, CONFIGURATION));
+    }
+
+    @Test
+    public void testPayloadStreamReplaced() {
+        msgContext.setProperty(PassThroughConstants.PASS_THROUGH_PIPE, new Object());
+        assertNull(DigestMemo.get(msgContext, CONFIGURATION));
+    }
+
+    @Test
+    public void testInvalidate() {
+        DigestMemo.invalidate(msgContext);
+        assertNull(DigestMemo.get(msgContext, CONFIGURATION));
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.riyafa;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the round trip of the responses through the disk tier
+ */
+public class DiskTierTest {
+
+    private static final int SEGMENT_SIZE = 64 * 1024;
+
+    private File directory;
+
+    private DiskTier diskTier;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("eicache", "disk");
+        if (!directory.delete()) {
+            throw new IOException("Unable to create the directory for the disk cache : " + directory);
+        }
+        // the responses expired for up to 60 seconds are kept on the disk
+        diskTier = new DiskTier(directory, SEGMENT_SIZE, 4 * SEGMENT_SIZE, 60, 3600);
+    }
+
+    @After
+    public void tearDown() {
+        diskTier.close();
+        if (!directory.delete()) {
+            directory.deleteOnExit();
+        }
+    }
+
+    private static CachableResponse response(int length, long expiresIn) {
+        byte[] payload = new byte[length];
+        for (int i = 0; i < length; i++) {
+            payload[i] = (byte) (i * 31);
+        }
+        CachableResponse response = new CachableResponse();
+        response.setResponsePayload(payload);
+        response.setTimeout(60);
+        response.setExpireTimeMillis(System.currentTimeMillis() + expiresIn);
+        response.setStatusCode("200");
+        Map<String, Object> headers = new HashMap<>();
+        headers.put("Content-Type", "application/json");
+        response.setHeaderProperties(headers);
+        response.setETag("\"v1\"");
+        return response;
+    }
+
+    /**
+     * Waits for the responses handed over to the disk tier to be written in the background
+     */
+    private void awaitSize(int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (diskTier.size() < size && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(size, diskTier.size());
+    }
+
+    @Test
+    public void testRoundTrip() throws InterruptedException {
+        CacheKey key = new CacheKey(1, 1);
+        CachableResponse response = response(5000, 60000);
+        diskTier.put(key, response);
+        awaitSize(1);
+
+        CachableResponse read = diskTier.remove(key);
+        assertNotNull(read);
+        assertArrayEquals(response.getResponsePayload(), read.getResponsePayload());
+        assertEquals(response.getExpireTimeMillis(), read.getExpireTimeMillis());
+        assertEquals("200", read.getStatusCode());
+        assertEquals("application/json", read.getHeaderProperties().get("Content-Type"));
+        assertEquals("\"v1\"", read.getETag());
+        // the response is promoted to the memory, hence it is no longer on the disk
+        assertEquals(0, diskTier.size());
+        assertNull(diskTier.remove(key));
+    }
+
+    @Test
+    public void testStaleResponse() throws InterruptedException {
+        CacheKey stale = new CacheKey(2, 1);
+        diskTier.put(stale, response(100, -10000));
+        diskTier.put(new CacheKey(2, 2), response(100, -120000));
+        awaitSize(1);
+        // the response expired within the stale window can still be served stale or revalidated
+        CachableResponse read = diskTier.remove(stale);
+        assertNotNull(read);
+        assertTrue(read.isExpired());
+        assertNull(diskTier.remove(new CacheKey(2, 2)));
+    }
+
+    @Test
+    public void testInvalidate() throws InterruptedException {
+        CacheKey key = new CacheKey(3, 1);
+        diskTier.put(key, response(100, 60000));
+        awaitSize(1);
+        diskTier.invalidate(key);
+        assertEquals(0, diskTier.size());
+        assertNull(diskTier.remove(key));
+    }
+
+    @Test
+    public void testOversizedResponse() throws InterruptedException {
+        diskTier.put(new CacheKey(4, 1), response(2 * SEGMENT_SIZE, 60000));
+        diskTier.put(new CacheKey(4, 2), response(100, 60000));
+        awaitSize(1);
+        assertNull(diskTier.remove(new CacheKey(4, 1)));
+        assertNotNull(diskTier.remove(new CacheKey(4, 2)));
+    }
+}
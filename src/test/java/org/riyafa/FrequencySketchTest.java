@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.riyafa;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the estimation and the aging of the frequencies of the keys
+ */
+public class FrequencySketchTest {
+
+    @Test
+    public void testIncrement() {
+        FrequencySketch sketch = new FrequencySketch(512);
+        int hash = "GET http://localhost/customers".hashCode();
+        assertEquals(0, sketch.frequency(hash));
+        for (int i = 1; i <= 5; i++) {
+            sketch.increment(hash);
+            assertEquals(i, sketch.frequency(hash));
+        }
+    }
+
+    @Test
+    public void testSaturation() {
+        FrequencySketch sketch = new FrequencySketch(512);
+        int hash = 42;
+        for (int i = 0; i < 100; i++) {
+            sketch.increment(hash);
+        }
+        assertEquals(FrequencySketch.MAX_FREQUENCY, sketch.frequency(hash));
+    }
+
+    @Test
+    public void testUnseenKeys() {
+        FrequencySketch sketch = new FrequencySketch(1024);
+        for (int i = 0; i < 256; i++) {
+            sketch.increment(i * 31 + 7);
+            sketch.increment(i * 31 + 7);
+        }
+        int total = 0;
+        for (int i = 0; i < 1000; i++) {
+            total += sketch.frequency(-1 - i * 7919);
+        }
+        // the collisions may overestimate a few of the unseen keys, but never by much on the whole
+        assertTrue("Unseen keys estimated at " + total, total < 100);
+    }
+
+    @Test
+    public void testReset() {
+        int expectedKeys = 64;
+        FrequencySketch sketch = new FrequencySketch(expectedKeys);
+        int hot = 123456789;
+        for (int i = 0; i < 8; i++) {
+            sketch.increment(hot);
+        }
+        assertEquals(8, sketch.frequency(hot));
+        // the counters are halved after ten increments per expected key
+        for (int i = 0; i < 10 * expectedKeys; i++) {
+            sketch.increment(1000003 * (i + 1));
+        }
+        int frequency = sketch.frequency(hot);
+        // the collisions with the other keys may have raised the counters of the key a little before they were halved
+        assertTrue("Frequency after the reset " + frequency, frequency >= 4 && frequency < 8);
+    }
+}
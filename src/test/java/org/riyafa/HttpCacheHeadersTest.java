@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.riyafa;
+
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the derivation of the time for which a response is cached from its caching headers
+ */
+public class HttpCacheHeadersTest {
+
+    private static final long DEFAULT_TIMEOUT = 300;
+
+    private static Map<String, Object> headers(String... namesAndValues) {
+        Map<String, Object> headers = new HashMap<>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            headers.put(namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return headers;
+    }
+
+    private static String httpDate(long millis) {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(new Date(millis));
+    }
+
+    private static long timeToLive(Map<String, Object> headers) {
+        return HttpCacheHeaders.getTimeToLive(headers, DEFAULT_TIMEOUT, 0, -1);
+    }
+
+    @Test
+    public void testNoHeaders() {
+        assertEquals(DEFAULT_TIMEOUT, HttpCacheHeaders.getTimeToLive(null, DEFAULT_TIMEOUT, 0, -1));
+        assertEquals(DEFAULT_TIMEOUT, timeToLive(headers("Content-Type", "application/json")));
+        assertEquals(DEFAULT_TIMEOUT, timeToLive(headers("Cache-Control", "public")));
+    }
+
+    @Test
+    public void testMaxAge() {
+        assertEquals(60, timeToLive(headers("Cache-Control", "public, max-age=60")));
+        assertEquals(60, timeToLive(headers("cache-control", "MAX-AGE=\"60\"")));
+        // s-maxage applies to the shared caches and takes precedence over max-age
+        assertEquals(600, timeToLive(headers("Cache-Control", "max-age=60, s-maxage=600")));
+        // the age of the response is taken off
+        assertEquals(40, timeToLive(headers("Cache-Control", "max-age=60", "Age", "20")));
+        // max-age takes precedence over Expires
+        assertEquals(60, timeToLive(headers("Cache-Control", "max-age=60", "Expires", "0")));
+    }
+
+    @Test
+    public void testNotCacheable() {
+        assertEquals(HttpCacheHeaders.NOT_CACHEABLE, timeToLive(headers("Cache-Control", "no-store, max-age=60")));
+        assertEquals(HttpCacheHeaders.NOT_CACHEABLE, timeToLive(headers("Cache-Control", "max-age=0")));
+        assertEquals(HttpCacheHeaders.NOT_CACHEABLE, timeToLive(headers("Cache-Control", "max-age=60", "Age", "90")));
+        // an invalid Expires header means that the response has already expired
+        assertEquals(HttpCacheHeaders.NOT_CACHEABLE, timeToLive(headers("Expires", "0")));
+    }
+
+    @Test
+    public void testExpires() {
+        long now = System.currentTimeMillis();
+        assertEquals(120, timeToLive(headers("Date", httpDate(now), "Expires", httpDate(now + 120000))));
+        long withoutDate = timeToLive(headers("Expires", httpDate(now + 120000)));
+        assertTrue("Time to live " + withoutDate, withoutDate >= 118 && withoutDate <= 120);
+        assertEquals(HttpCacheHeaders.NOT_CACHEABLE,
+                     timeToLive(headers("Date", httpDate(now), "Expires", httpDate(now - 60000))));
+    }
+
+    @Test
+    public void testBounds() {
+        Map<String, Object> headers = headers("Cache-Control", "max-age=5");
+        assertEquals(30, HttpCacheHeaders.getTimeToLive(headers, DEFAULT_TIMEOUT, 30, -1));
+        assertEquals(5, HttpCacheHeaders.getTimeToLive(headers, DEFAULT_TIMEOUT, 0, 10));
+        assertEquals(10, HttpCacheHeaders.getTimeToLive(headers("Cache-Control", "max-age=3600"), DEFAULT_TIMEOUT,
+                                                        0, 10));
+        // the minimum time does not keep a response that is already stale
+        assertEquals(HttpCacheHeaders.NOT_CACHEABLE,
+                     HttpCacheHeaders.getTimeToLive(headers("Cache-Control", "max-age=0"), DEFAULT_TIMEOUT, 30, -1));
+    }
+}
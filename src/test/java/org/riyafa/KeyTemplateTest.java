@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.riyafa;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Tests the compilation of the JSON path expressions of the cache key templates
+ */
+public class KeyTemplateTest {
+
+    @Test
+    public void testDotNotation() {
+        assertArrayEquals(new Object[]{"order", "items", 0, "id"}, KeyTemplate.compileJsonPath("$.order.items[0].id"));
+        assertArrayEquals(new Object[]{"customer"}, KeyTemplate.compileJsonPath(" $.customer "));
+    }
+
+    @Test
+    public void testBracketNotation() {
+        assertArrayEquals(new Object[]{"order", "id"}, KeyTemplate.compileJsonPath("$['order'][\"id\"]"));
+        assertArrayEquals(new Object[]{"a.b", 12}, KeyTemplate.compileJsonPath("$['a.b'][ 12 ]"));
+    }
+
+    @Test
+    public void testRoot() {
+        assertArrayEquals(new Object[0], KeyTemplate.compileJsonPath("$"));
+    }
+
+    @Test(expected = CachingException.class)
+    public void testMissingRoot() {
+        KeyTemplate.compileJsonPath("order.id");
+    }
+
+    @Test(expected = CachingException.class)
+    public void testWildcard() {
+        KeyTemplate.compileJsonPath("$.items[*].id");
+    }
+
+    @Test(expected = CachingException.class)
+    public void testRecursiveDescent() {
+        KeyTemplate.compileJsonPath("$..id");
+    }
+
+    @Test(expected = CachingException.class)
+    public void testUnclosedBracket() {
+        KeyTemplate.compileJsonPath("$.items[0");
+    }
+
+    @Test(expected = CachingException.class)
+    public void testFilter() {
+        KeyTemplate.compileJsonPath("$.items[?(@.id > 1)]");
+    }
+}
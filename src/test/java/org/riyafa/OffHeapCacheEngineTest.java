@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.riyafa;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests that the off-heap engine frees the direct memory of every response that leaves it
+ */
+public class OffHeapCacheEngineTest {
+
+    private static final int CHUNK_SIZE = OffHeapPayloadStore.CHUNK_SIZE;
+
+    private static final CacheEngine.RemovalListener RELEASER = new CacheEngine.RemovalListener() {
+        @Override
+        public void onRemoval(CacheKey requestHash, CachableResponse response, boolean evicted) {
+            response.releasePayload();
+        }
+    };
+
+    private static CachableResponse response(int length, int weight) {
+        byte[] payload = new byte[length];
+        Arrays.fill(payload, (byte) length);
+        CachableResponse response = new CachableResponse();
+        response.setResponsePayload(payload);
+        response.setWeight(weight);
+        return response;
+    }
+
+    @Test
+    public void testPut() {
+        OffHeapCacheEngine engine = new OffHeapCacheEngine(-1, 100 * CHUNK_SIZE, RELEASER);
+        CacheKey key = new CacheKey(1, 1);
+        CachableResponse response = response(10 * CHUNK_SIZE, 10 * CHUNK_SIZE);
+        assertNull(engine.put(key, response));
+        assertEquals(10 * CHUNK_SIZE, engine.getStore().usedBytes());
+        assertSame(response, engine.get(key));
+        assertArrayEquals(response(10 * CHUNK_SIZE, 0).getResponsePayload(), response.getResponsePayload());
+        engine.invalidate(key);
+        assertEquals(0, engine.getStore().usedBytes());
+    }
+
+    @Test
+    public void testResponseTurnedAway() {
+        OffHeapCacheEngine engine = new OffHeapCacheEngine(-1, 100 * CHUNK_SIZE, RELEASER);
+        CacheKey key = new CacheKey(1, 1);
+        CachableResponse previous = response(50 * CHUNK_SIZE, 50 * CHUNK_SIZE);
+        engine.put(key, previous);
+        assertEquals(50 * CHUNK_SIZE, engine.getStore().usedBytes());
+
+        // the payload does not fit next to the previous one, and the response is too heavy to be kept once it has
+        // replaced it, which frees the memory the payload would be moved in to
+        CachableResponse response = response(60 * CHUNK_SIZE, 200 * CHUNK_SIZE);
+        assertSame(previous, engine.put(key, response));
+        assertEquals(0, engine.size());
+        assertEquals(0, engine.getStore().usedBytes());
+        assertArrayEquals(response(60 * CHUNK_SIZE, 0).getResponsePayload(), response.getResponsePayload());
+    }
+}
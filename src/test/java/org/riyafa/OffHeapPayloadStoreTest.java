@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.riyafa;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the storage of the payloads out of the heap and the reference counting of their handles
+ */
+public class OffHeapPayloadStoreTest {
+
+    private static final int CHUNK_SIZE = OffHeapPayloadStore.CHUNK_SIZE;
+
+    private static byte[] payload(int length, long seed) {
+        byte[] payload = new byte[length];
+        new Random(seed).nextBytes(payload);
+        return payload;
+    }
+
+    @Test
+    public void testStore() throws IOException {
+        OffHeapPayloadStore store = new OffHeapPayloadStore(64 * CHUNK_SIZE);
+        byte[] payload = payload(5 * CHUNK_SIZE + 17, 1);
+        OffHeapPayloadStore.Handle handle = store.store(payload, 0, payload.length);
+        assertNotNull(handle);
+        assertEquals(payload.length, handle.getLength());
+        assertEquals(6 * CHUNK_SIZE, store.usedBytes());
+        assertArrayEquals(payload, handle.toByteArray());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(handle.writeTo(out, CHUNK_SIZE - 3, 2 * CHUNK_SIZE));
+        assertArrayEquals(Arrays.copyOfRange(payload, CHUNK_SIZE - 3, 3 * CHUNK_SIZE - 3), out.toByteArray());
+    }
+
+    @Test
+    public void testCapacity() {
+        OffHeapPayloadStore store = new OffHeapPayloadStore(4 * CHUNK_SIZE);
+        OffHeapPayloadStore.Handle first = store.store(payload(3 * CHUNK_SIZE, 1), 0, 3 * CHUNK_SIZE);
+        assertNotNull(first);
+        assertNull(store.store(payload(2 * CHUNK_SIZE, 2), 0, 2 * CHUNK_SIZE));
+        first.release();
+        assertEquals(0, store.usedBytes());
+        assertNotNull(store.store(payload(4 * CHUNK_SIZE, 3), 0, 4 * CHUNK_SIZE));
+    }
+
+    @Test
+    public void testReaderKeepsPayload() {
+        OffHeapPayloadStore store = new OffHeapPayloadStore(16 * CHUNK_SIZE);
+        byte[] payload = payload(2 * CHUNK_SIZE, 1);
+        OffHeapPayloadStore.Handle handle = store.store(payload, 0, payload.length);
+        assertTrue(handle.retain());
+        // the cache lets go of the payload while a reader still holds it
+        handle.release();
+        assertEquals(2 * CHUNK_SIZE, store.usedBytes());
+        assertArrayEquals(payload, handle.toByteArray());
+        handle.release();
+        assertEquals(0, store.usedBytes());
+        assertFalse(handle.retain());
+        assertNull(handle.toByteArray());
+    }
+
+    @Test
+    public void testReleaseOfFreedPayload() {
+        OffHeapPayloadStore store = new OffHeapPayloadStore(2 * CHUNK_SIZE);
+        OffHeapPayloadStore.Handle handle = store.store(payload(CHUNK_SIZE, 1), 0, CHUNK_SIZE);
+        handle.release();
+        byte[] other = payload(2 * CHUNK_SIZE, 2);
+        OffHeapPayloadStore.Handle reused = store.store(other, 0, other.length);
+        // a second release of the freed handle must not free the chunks reused by the other payload
+        handle.release();
+        assertFalse(handle.retain());
+        assertEquals(2 * CHUNK_SIZE, store.usedBytes());
+        assertNull(store.store(payload(CHUNK_SIZE, 3), 0, CHUNK_SIZE));
+        assertArrayEquals(other, reused.toByteArray());
+    }
+
+    @Test
+    public void testResponseReleasesOnce() {
+        OffHeapPayloadStore store = new OffHeapPayloadStore(16 * CHUNK_SIZE);
+        byte[] payload = payload(3 * CHUNK_SIZE, 1);
+        CachableResponse response = new CachableResponse();
+        response.setResponsePayload(payload);
+        assertTrue(response.moveToOffHeap(store));
+        CachableResponse copy = response.copy();
+        assertNotNull(copy);
+        assertEquals(3 * CHUNK_SIZE, store.usedBytes());
+
+        response.releasePayload();
+        response.releasePayload();
+        // the copy still holds its own reference
+        assertEquals(3 * CHUNK_SIZE, store.usedBytes());
+        assertArrayEquals(payload, copy.getResponsePayload());
+        copy.releasePayload();
+        assertEquals(0, store.usedBytes());
+    }
+
+    @Test
+    public void testMoveToHeap() {
+        OffHeapPayloadStore store = new OffHeapPayloadStore(16 * CHUNK_SIZE);
+        byte[] payload = payload(2 * CHUNK_SIZE + 1, 1);
+        CachableResponse response = new CachableResponse();
+        response.setResponsePayload(payload);
+        assertTrue(response.moveToOffHeap(store));
+        assertEquals(3 * CHUNK_SIZE, store.usedBytes());
+        response.moveToHeap();
+        assertEquals(0, store.usedBytes());
+        assertArrayEquals(payload, response.getResponsePayload());
+        response.releasePayload();
+        assertArrayEquals(payload, response.getResponsePayload());
+    }
+}
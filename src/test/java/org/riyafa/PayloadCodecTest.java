@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.riyafa;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the round trip of the payloads through the codecs that compress the cached payloads
+ */
+public class PayloadCodecTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String[] CODECS =
+            {CachingConstants.LZ4_COMPRESSION_CODEC, CachingConstants.DEFLATE_COMPRESSION_CODEC};
+
+    @Test
+    public void testForName() {
+        for (String name : CODECS) {
+            assertEquals(name, PayloadCodec.forName(name).getName());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testForUnknownName() {
+        PayloadCodec.forName("snappy");
+    }
+
+    @Test
+    public void testRoundTripOfJson() {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 500; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"id\":").append(i)
+                    .append(",\"name\":\"customer-").append(i).append("\",\"active\":").append(i % 3 == 0).append('}');
+        }
+        byte[] payload = json.append(']').toString().getBytes(UTF_8);
+        for (String name : CODECS) {
+            PayloadCodec codec = PayloadCodec.forName(name);
+            byte[] compressed = codec.compress(payload);
+            assertNotNull(name, compressed);
+            assertTrue(name, compressed.length < payload.length / 2);
+            assertArrayEquals(name, payload, codec.decompress(compressed, payload.length));
+        }
+    }
+
+    @Test
+    public void testRoundTripOfRepeatedBytes() {
+        // the matches overlap the bytes they copy, and the lengths need the extra length bytes of LZ4
+        byte[] payload = new byte[100000];
+        Arrays.fill(payload, (byte) 'a');
+        for (String name : CODECS) {
+            PayloadCodec codec = PayloadCodec.forName(name);
+            byte[] compressed = codec.compress(payload);
+            assertNotNull(name, compressed);
+            assertArrayEquals(name, payload, codec.decompress(compressed, payload.length));
+        }
+    }
+
+    @Test
+    public void testRoundTripOfMixedPayloads() {
+        Random random = new Random(42);
+        for (int length : new int[]{13, 64, 1000, 4096, 65536, 70000, 200000}) {
+            byte[] payload = new byte[length];
+            int position = 0;
+            while (position < length) {
+                // runs of random bytes and repetitions of the earlier bytes, some of them beyond the LZ4 window
+                int run = Math.min(length - position, 1 + random.nextInt(300));
+                if (position > 0 && random.nextBoolean()) {
+                    int from = random.nextInt(position);
+                    for (int i = 0; i < run; i++) {
+                        payload[position + i] = payload[from + (i % (position - from))];
+                    }
+                } else {
+                    for (int i = 0; i < run; i++) {
+                        payload[position + i] = (byte) ('a' + random.nextInt(4));
+                    }
+                }
+                position += run;
+            }
+            for (String name : CODECS) {
+                PayloadCodec codec = PayloadCodec.forName(name);
+                byte[] compressed = codec.compress(payload);
+                if (compressed != null) {
+                    assertTrue(name + " " + length, compressed.length < payload.length);
+                    assertArrayEquals(name + " " + length, payload, codec.decompress(compressed, payload.length));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testIncompressiblePayload() {
+        byte[] payload = new byte[10000];
+        new Random(7).nextBytes(payload);
+        for (String name : CODECS) {
+            assertNull(name, PayloadCodec.forName(name).compress(payload));
+        }
+    }
+
+    @Test
+    public void testEmptyPayload() {
+        for (String name : CODECS) {
+            assertNull(name, PayloadCodec.forName(name).compress(new byte[0]));
+        }
+    }
+
+    @Test
+    public void testTruncatedPayload() {
+        byte[] payload = new byte[5000];
+        Arrays.fill(payload, (byte) 'x');
+        for (String name : CODECS) {
+            PayloadCodec codec = PayloadCodec.forName(name);
+            byte[] compressed = codec.compress(payload);
+            try {
+                codec.decompress(Arrays.copyOf(compressed, compressed.length / 2), payload.length);
+                throw new AssertionError(name + " decompressed a truncated payload");
+            } catch (CachingException e) {
+                // expected
+            }
+        }
+    }
+}
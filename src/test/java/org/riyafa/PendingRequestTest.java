@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.riyafa;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the coalescing of the requests with the same hash on the pending requests of a cache
+ */
+public class PendingRequestTest {
+
+    private static ResponseCache newCache(long pendingTimeout) {
+        return new ResponseCache(CachingConstants.GUAVA_CACHE_ENGINE, 60, 0, 100, -1, -1, pendingTimeout, null, null,
+                                 null, null, 0, false);
+    }
+
+    @Test
+    public void testJoin() {
+        ResponseCache cache = newCache(10000);
+        CacheKey key = new CacheKey(1, 2);
+        PendingRequest leader = new PendingRequest(new CachableResponse(), 1000);
+        assertSame(leader, cache.join(key, leader));
+        assertSame(leader, cache.join(key, new PendingRequest(new CachableResponse(), 1000)));
+        assertNotSame(leader, cache.join(new CacheKey(2, 1), new PendingRequest(new CachableResponse(), 1000)));
+
+        cache.release(key, leader);
+        PendingRequest next = new PendingRequest(new CachableResponse(), 1000);
+        assertSame(next, cache.join(key, next));
+    }
+
+    @Test
+    public void testReleaseWakesWaiters() throws InterruptedException {
+        ResponseCache cache = newCache(10000);
+        final CacheKey key = new CacheKey(3, 4);
+        final PendingRequest leader = new PendingRequest(new CachableResponse(), 10000);
+        cache.join(key, leader);
+        final CountDownLatch waiting = new CountDownLatch(3);
+        final CountDownLatch released = new CountDownLatch(3);
+        final AtomicBoolean timedOut = new AtomicBoolean();
+        for (int i = 0; i < 3; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    assertTrue(leader.startWaiting(10, 10));
+                    waiting.countDown();
+                    if (!leader.await()) {
+                        timedOut.set(true);
+                    }
+                    released.countDown();
+                }
+            }).start();
+        }
+        assertTrue(waiting.await(5, TimeUnit.SECONDS));
+        cache.release(key, leader);
+        assertTrue(released.await(5, TimeUnit.SECONDS));
+        assertFalse(timedOut.get());
+    }
+
+    @Test
+    public void testWaitTimesOut() {
+        PendingRequest leader = new PendingRequest(new CachableResponse(), 20);
+        int totalWaiters = PendingRequest.getTotalWaiters();
+        assertTrue(leader.startWaiting(1, Integer.MAX_VALUE));
+        assertFalse(leader.await());
+        // the waiter is no longer counted once it is done waiting
+        assertEquals(totalWaiters, PendingRequest.getTotalWaiters());
+        assertTrue(leader.startWaiting(1, Integer.MAX_VALUE));
+        assertFalse(leader.await());
+    }
+
+    @Test
+    public void testMaxWaiters() {
+        PendingRequest leader = new PendingRequest(new CachableResponse(), 20);
+        assertTrue(leader.startWaiting(2, Integer.MAX_VALUE));
+        assertTrue(leader.startWaiting(2, Integer.MAX_VALUE));
+        assertFalse(leader.startWaiting(2, Integer.MAX_VALUE));
+        leader.await();
+        assertTrue(leader.startWaiting(2, Integer.MAX_VALUE));
+        leader.await();
+        leader.await();
+    }
+
+    @Test
+    public void testMaxTotalWaiters() {
+        PendingRequest first = new PendingRequest(new CachableResponse(), 20);
+        PendingRequest second = new PendingRequest(new CachableResponse(), 20);
+        int maxTotalWaiters = PendingRequest.getTotalWaiters() + 1;
+        assertTrue(first.startWaiting(10, maxTotalWaiters));
+        // the waiters of the other pending requests count against the total
+        assertFalse(second.startWaiting(10, maxTotalWaiters));
+        first.await();
+        assertTrue(second.startWaiting(10, maxTotalWaiters));
+        second.await();
+    }
+
+    @Test
+    public void testExpiredPendingRequestIsReleased() throws InterruptedException {
+        ResponseCache cache = newCache(20);
+        CacheKey key = new CacheKey(5, 6);
+        PendingRequest leader = new PendingRequest(new CachableResponse(), 5000);
+        cache.join(key, leader);
+        Thread.sleep(50);
+        // the next request with the same hash finds the expired pending request gone and takes its place
+        PendingRequest next = new PendingRequest(new CachableResponse(), 5000);
+        assertSame(next, cache.join(key, next));
+        assertTrue(leader.startWaiting(10, Integer.MAX_VALUE));
+        assertTrue(leader.await());
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.riyafa;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the buffer in to which the responses are serialized to be cached
+ */
+public class ResponseBufferTest {
+
+    private static byte[] bytes(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+
+    @Test
+    public void testPayloadHoldsExactlyTheBytesWritten() throws IOException {
+        for (int length : new int[]{0, 1, 1000, 1024, 1025, 4000, 100000}) {
+            ResponseBuffer buffer = new ResponseBuffer(-1);
+            byte[] bytes = bytes(length);
+            buffer.write(bytes, 0, length / 2);
+            for (int i = length / 2; i < length; i++) {
+                buffer.write(bytes[i]);
+            }
+            assertEquals(length, buffer.size());
+            assertArrayEquals(bytes, buffer.toPayload());
+        }
+    }
+
+    @Test
+    public void testLimit() throws IOException {
+        ResponseBuffer buffer = new ResponseBuffer(3000);
+        buffer.write(bytes(3000), 0, 3000);
+        assertFalse(buffer.isLimitExceeded());
+        try {
+            buffer.write(1);
+            fail("The buffer took more bytes than its limit");
+        } catch (ResponseBuffer.LimitExceededException e) {
+            assertTrue(buffer.isLimitExceeded());
+        }
+        assertArrayEquals(bytes(3000), buffer.toPayload());
+    }
+
+    @Test
+    public void testSmallLimit() throws IOException {
+        ResponseBuffer buffer = new ResponseBuffer(10);
+        buffer.write(bytes(4), 0, 4);
+        assertArrayEquals(bytes(4), buffer.toPayload());
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.riyafa;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that the sizes a cache reports follow the responses as they enter, are replaced in and leave the cache
+ */
+public class ResponseCacheTest {
+
+    private static final String[] ENGINES =
+            {CachingConstants.GUAVA_CACHE_ENGINE, CachingConstants.TINY_LFU_CACHE_ENGINE};
+
+    private static ResponseCache newCache(String engine, int maxSize, PayloadCodec codec) {
+        return new ResponseCache(engine, 60, 0, maxSize, -1, -1, 10000, null, null, null, codec, 0, false);
+    }
+
+    private static CachableResponse newResponse(int payloadLength) {
+        CachableResponse response = new CachableResponse();
+        response.setStatusCode("200");
+        response.setTimeout(60000);
+        response.setExpireTimeMillis(System.currentTimeMillis() + 60000);
+        byte[] payload = new byte[payloadLength];
+        Arrays.fill(payload, (byte) 'a');
+        response.setResponsePayload(payload);
+        return response;
+    }
+
+    private static void assertSizes(ResponseCache cache, long weight, long storedLength, long logicalLength) {
+        assertEquals(weight, cache.weightedSize());
+        assertEquals(storedLength, cache.storedPayloadSize());
+        assertEquals(logicalLength, cache.logicalPayloadSize());
+    }
+
+    @Test
+    public void testPutAndInvalidate() {
+        for (String engine : ENGINES) {
+            ResponseCache cache = newCache(engine, 100, null);
+            CacheKey first = new CacheKey(1, 1);
+            CacheKey second = new CacheKey(2, 2);
+            CachableResponse firstResponse = newResponse(100);
+            CachableResponse secondResponse = newResponse(300);
+            cache.put(first, firstResponse);
+            cache.put(second, secondResponse);
+            assertEquals(ResponseCache.weigh(first, firstResponse, false), firstResponse.getWeight());
+            assertSizes(cache, firstResponse.getWeight() + secondResponse.getWeight(), 400, 400);
+
+            cache.invalidate(first);
+            assertSizes(cache, secondResponse.getWeight(), 300, 300);
+            cache.invalidate(second);
+            assertSizes(cache, 0, 0, 0);
+        }
+    }
+
+    @Test
+    public void testReplace() {
+        for (String engine : ENGINES) {
+            ResponseCache cache = newCache(engine, 100, null);
+            CacheKey key = new CacheKey(3, 3);
+            cache.put(key, newResponse(100));
+            CachableResponse replacement = newResponse(500);
+            cache.put(key, replacement);
+            assertSizes(cache, replacement.getWeight(), 500, 500);
+            cache.invalidate(key);
+            assertSizes(cache, 0, 0, 0);
+        }
+    }
+
+    @Test
+    public void testPutAgainInPlaceOfItself() {
+        for (String engine : ENGINES) {
+            ResponseCache cache = newCache(engine, 100, null);
+            CacheKey key = new CacheKey(4, 4);
+            CachableResponse response = newResponse(100);
+            cache.put(key, response);
+            // a response revalidated by the backend is put again with its new payload
+            response.setResponsePayload(new byte[200]);
+            cache.put(key, response);
+            assertEquals(ResponseCache.weigh(key, response, false), response.getWeight());
+            assertSizes(cache, response.getWeight(), 200, 200);
+            cache.put(key, response);
+            assertSizes(cache, response.getWeight(), 200, 200);
+            cache.invalidate(key);
+            assertSizes(cache, 0, 0, 0);
+        }
+    }
+
+    @Test
+    public void testCompressedPayload() {
+        for (String engine : ENGINES) {
+            ResponseCache cache = newCache(engine, 100,
+                                           PayloadCodec.forName(CachingConstants.DEFLATE_COMPRESSION_CODEC));
+            CacheKey key = new CacheKey(5, 5);
+            CachableResponse response = newResponse(10000);
+            cache.put(key, response);
+            assertTrue(response.getStoredPayloadLength() < 10000);
+            assertSizes(cache, response.getWeight(), response.getStoredPayloadLength(), 10000);
+            // the payload is compressed only once when the response is put again
+            cache.put(key, response);
+            assertSizes(cache, response.getWeight(), response.getStoredPayloadLength(), 10000);
+            cache.invalidate(key);
+            assertSizes(cache, 0, 0, 0);
+        }
+    }
+
+    @Test
+    public void testEviction() {
+        for (String engine : ENGINES) {
+            ResponseCache cache = newCache(engine, 10, null);
+            long weight = 0;
+            for (int i = 0; i < 100; i++) {
+                CachableResponse response = newResponse(100);
+                cache.put(new CacheKey(i, 6), response);
+                weight = response.getWeight();
+            }
+            long size = cache.size();
+            assertTrue(engine, size > 0 && size <= 10);
+            assertSizes(cache, size * weight, size * 100, size * 100);
+            for (int i = 0; i < 100; i++) {
+                cache.invalidate(new CacheKey(i, 6));
+            }
+            assertSizes(cache, 0, 0, 0);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.riyafa;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the admission and the eviction of the responses by the W-TinyLFU engine
+ */
+public class TinyLfuCacheEngineTest {
+
+    private static final CacheEngine.RemovalListener RELEASER = new CacheEngine.RemovalListener() {
+        @Override
+        public void onRemoval(CacheKey requestHash, CachableResponse response, boolean evicted) {
+            response.releasePayload();
+        }
+    };
+
+    private static CachableResponse response(int weight) {
+        CachableResponse response = new CachableResponse();
+        response.setWeight(weight);
+        return response;
+    }
+
+    @Test
+    public void testFrequentResponsesSurviveScan() {
+        TinyLfuCacheEngine engine = new TinyLfuCacheEngine(-1, 100, -1, RELEASER);
+        for (int i = 0; i < 50; i++) {
+            engine.put(new CacheKey(0, i), response(1));
+            for (int j = 0; j < 5; j++) {
+                assertNotNull(engine.get(new CacheKey(0, i)));
+            }
+        }
+        for (int i = 0; i < 1000; i++) {
+            engine.put(new CacheKey(1, i), response(1));
+        }
+        assertTrue("Size " + engine.size(), engine.size() <= 100);
+        for (int i = 0; i < 50; i++) {
+            assertNotNull("Response " + i, engine.get(new CacheKey(0, i)));
+        }
+        assertTrue(engine.stats().getEvictionCount() >= 950);
+    }
+
+    @Test
+    public void testMaxWeight() {
+        TinyLfuCacheEngine engine = new TinyLfuCacheEngine(-1, -1, 1000, RELEASER);
+        for (int i = 0; i < 20; i++) {
+            engine.put(new CacheKey(0, i), response(200));
+        }
+        long weight = 0;
+        for (Map.Entry<CacheKey, CachableResponse> entry : engine.entries()) {
+            weight += entry.getValue().getWeight();
+        }
+        assertTrue("Weight " + weight, weight <= 1000);
+        assertTrue("Size " + engine.size(), engine.size() > 0);
+    }
+
+    @Test
+    public void testResponseHeavierThanStripeShare() {
+        // a response of a sixteenth of the capacity and more used to be turned away by the share of its stripe
+        long capacity = 8 * 1024 * 1024;
+        TinyLfuCacheEngine engine = new TinyLfuCacheEngine(-1, -1, capacity, RELEASER);
+        CacheKey key = new CacheKey(7, 7);
+        CachableResponse response = response((int) (capacity / 4));
+        engine.put(key, response);
+        assertSame(response, engine.get(key));
+    }
+
+    @Test
+    public void testOffHeapPayloadHeavierThanStripeShare() {
+        long capacity = 8 * 1024 * 1024;
+        OffHeapCacheEngine engine = new OffHeapCacheEngine(-1, capacity, RELEASER);
+        byte[] payload = new byte[(int) (capacity / 8)];
+        CachableResponse response = new CachableResponse();
+        response.setResponsePayload(payload);
+        response.setWeight(ResponseCache.weigh(new CacheKey(3, 3), response, true));
+        engine.put(new CacheKey(3, 3), response);
+        assertSame(response, engine.get(new CacheKey(3, 3)));
+        assertEquals(OffHeapPayloadStore.footprint(payload.length), engine.getStore().usedBytes());
+    }
+
+    @Test
+    public void testExpiry() throws InterruptedException {
+        TinyLfuCacheEngine engine = new TinyLfuCacheEngine(50, 10, -1, RELEASER);
+        engine.put(new CacheKey(0, 0), response(1));
+        Thread.sleep(100);
+        assertNull(engine.get(new CacheKey(0, 0)));
+        assertEquals(0, engine.size());
+    }
+}
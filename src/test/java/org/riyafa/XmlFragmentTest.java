@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2017, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.riyafa;
+
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.OMAttribute;
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMNamespace;
+import org.apache.axiom.om.OMXMLBuilderFactory;
+import org.apache.axiom.om.util.AXIOMUtil;
+import org.apache.axiom.soap.SOAPEnvelope;
+import org.apache.axiom.soap.SOAPFactory;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests that an element serialized on its own keeps the namespaces it relies on when it is put back in to an envelope
+ */
+public class XmlFragmentTest {
+
+    private static final SOAPFactory FACTORY = OMAbstractFactory.getSOAP11Factory();
+
+    private static final String QUOTE_NS = "http://services.samples";
+
+    private static final String XSD_NS = "http://services.samples/xsd";
+
+    private static final String UNITS_NS = "http://services.samples/units";
+
+    private static final String TYPES_NS = "http://services.samples/types";
+
+    /**
+     * Parses a response whose body element uses namespaces that are declared only on the envelope
+     */
+    private static SOAPEnvelope parseResponse() throws XMLStreamException {
+        String envelope = "<soapenv:Envelope xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\" " +
+                "xmlns:ns=\"" + QUOTE_NS + "\" xmlns:ax=\"" + XSD_NS + "\" xmlns:u=\"" + UNITS_NS + "\" " +
+                "xmlns:t=\"" + TYPES_NS + "\">" +
+                "<soapenv:Body><ns:getQuoteResponse><ns:return ax:type=\"t:GetQuoteResponse\">" +
+                "<ax:last u:currency=\"USD\">42.5</ax:last><ax:name>IBM Company</ax:name>" +
+                "</ns:return></ns:getQuoteResponse></soapenv:Body></soapenv:Envelope>";
+        return OMXMLBuilderFactory.createSOAPModelBuilder(
+                new ByteArrayInputStream(envelope.getBytes(StandardCharsets.UTF_8)), "UTF-8").getSOAPEnvelope();
+    }
+
+    /**
+     * Puts the element of a fragment back in to a new envelope, the way a cached response is served
+     */
+    private static OMElement restore(XmlFragment fragment, byte[] payload) {
+        OMNamespace namespace = fragment.getNamespaceURI() != null ?
+                FACTORY.createOMNamespace(fragment.getNamespaceURI(), fragment.getPrefix()) : null;
+        SOAPEnvelope envelope = FACTORY.getDefaultEnvelope();
+        OMElement element = FACTORY.createOMElement(fragment.getDataSource(payload), fragment.getLocalName(),
+                                                    namespace);
+        envelope.getBody().addChild(element);
+        return element;
+    }
+
+    @Test
+    public void testNamespacesOfAncestorsDeclared() throws XMLStreamException, IOException {
+        OMElement body = parseResponse().getBody().getFirstElement();
+        ResponseBuffer payload = new ResponseBuffer(-1);
+        byte[] preceding = "<preceding/>".getBytes(StandardCharsets.UTF_8);
+        payload.write(preceding, 0, preceding.length);
+        XmlFragment fragment = XmlFragment.write(body, payload);
+        byte[] bytes = payload.toPayload();
+
+        assertEquals(preceding.length, fragment.getOffset());
+        assertEquals(bytes.length - fragment.getOffset(), fragment.getLength());
+        assertEquals(QUOTE_NS, fragment.getNamespaceURI());
+        assertEquals("ns", fragment.getPrefix());
+        assertEquals("getQuoteResponse", fragment.getLocalName());
+
+        // the serialized element is a complete document on its own
+        OMElement parsed = AXIOMUtil.stringToOM(
+                new String(bytes, fragment.getOffset(), fragment.getLength(), StandardCharsets.UTF_8));
+        assertQuote(parsed);
+    }
+
+    @Test
+    public void testRoundTrip() throws XMLStreamException {
+        OMElement body = parseResponse().getBody().getFirstElement();
+        ResponseBuffer payload = new ResponseBuffer(-1);
+        XmlFragment fragment = XmlFragment.write(body, payload);
+        byte[] bytes = payload.toPayload();
+        assertQuote(restore(fragment, bytes));
+        // an element that is not accessed is written out as it was serialized, and still parses on its own
+        assertQuote(AXIOMUtil.stringToOM(restore(fragment, bytes).toString()));
+    }
+
+    @Test
+    public void testElementWithoutNamespace() throws XMLStreamException {
+        OMElement element = AXIOMUtil.stringToOM("<quote><symbol>IBM</symbol></quote>");
+        ResponseBuffer payload = new ResponseBuffer(-1);
+        XmlFragment fragment = XmlFragment.write(element, payload);
+        assertNull(fragment.getNamespaceURI());
+        OMElement restored = restore(fragment, payload.toPayload());
+        assertEquals("quote", restored.getLocalName());
+        assertEquals("IBM", restored.getFirstChildWithName(new QName("symbol")).getText());
+    }
+
+    @Test
+    public void testFragmentsShareThePayload() throws XMLStreamException {
+        OMElement first = AXIOMUtil.stringToOM("<a:first xmlns:a=\"urn:a\"><a:value>1</a:value></a:first>");
+        OMElement second = AXIOMUtil.stringToOM("<b:second xmlns:b=\"urn:b\"><b:value>2</b:value></b:second>");
+        ResponseBuffer payload = new ResponseBuffer(-1);
+        XmlFragment firstFragment = XmlFragment.write(first, payload);
+        XmlFragment secondFragment = XmlFragment.write(second, payload);
+        byte[] bytes = payload.toPayload();
+        assertEquals(firstFragment.getLength(), secondFragment.getOffset());
+        assertEquals("1", restore(firstFragment, bytes).getFirstChildWithName(new QName("urn:a", "value")).getText());
+        assertEquals("2", restore(secondFragment, bytes).getFirstChildWithName(new QName("urn:b", "value")).getText());
+    }
+
+    private static void assertQuote(OMElement response) {
+        assertEquals(new QName(QUOTE_NS, "getQuoteResponse"), response.getQName());
+        OMElement result = response.getFirstChildWithName(new QName(QUOTE_NS, "return"));
+        assertNotNull(result);
+        OMAttribute type = result.getAttribute(new QName(XSD_NS, "type"));
+        assertEquals("t:GetQuoteResponse", type.getAttributeValue());
+        // the prefix used only in the attribute value must still resolve
+        assertNotNull(result.findNamespaceURI("t"));
+        assertEquals(TYPES_NS, result.findNamespaceURI("t").getNamespaceURI());
+        OMElement last = result.getFirstChildWithName(new QName(XSD_NS, "last"));
+        assertEquals("42.5", last.getText());
+        assertEquals("USD", last.getAttributeValue(new QName(UNITS_NS, "currency")));
+        assertEquals("IBM Company", result.getFirstChildWithName(new QName(XSD_NS, "name")).getText());
+    }
+}